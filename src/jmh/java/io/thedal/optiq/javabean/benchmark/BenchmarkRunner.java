@@ -0,0 +1,31 @@
+package io.thedal.optiq.javabean.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that the allocation rate per
+ * operation (gc.alloc.rate.norm) is reported next to throughput and latency
+ * percentiles. Takes the usual JMH command line, for example
+ * <code>java -jar target/benchmarks.jar ScanBenchmark -p rows=100000
+ * -rf json</code>; save the JSON of a run to compare later runs against it.
+ * 
+ * @author Abishek Baskaran
+ *
+ */
+public final class BenchmarkRunner {
+
+  private BenchmarkRunner() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+        .parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+
+}
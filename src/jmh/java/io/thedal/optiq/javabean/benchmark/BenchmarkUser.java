@@ -0,0 +1,47 @@
+package io.thedal.optiq.javabean.benchmark;
+
+/**
+ * A User-like JavaBean for benchmarks, with a mix of boxed and primitive
+ * fields.
+ * 
+ * @author Abishek Baskaran
+ *
+ */
+public class BenchmarkUser {
+
+  private final long id;
+  private final String name;
+  private final Integer age;
+  private final String country;
+  private final double salary;
+
+  public BenchmarkUser(long id, String name, Integer age, String country,
+      double salary) {
+    this.id = id;
+    this.name = name;
+    this.age = age;
+    this.country = country;
+    this.salary = salary;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Integer getAge() {
+    return age;
+  }
+
+  public String getCountry() {
+    return country;
+  }
+
+  public double getSalary() {
+    return salary;
+  }
+
+}
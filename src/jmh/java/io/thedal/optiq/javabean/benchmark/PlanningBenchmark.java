@@ -0,0 +1,77 @@
+package io.thedal.optiq.javabean.benchmark;
+
+import io.thedal.optiq.javabean.JavaBeanSchema;
+import io.thedal.optiq.javabean.JdbcQueryExecutor;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the time to parse, plan and generate the code of a query, which
+ * the plan cache of JdbcQueryExecutor saves on repeated queries. Each call
+ * prepares a query the cache has not seen; the table is small so that
+ * planning dominates.
+ * 
+ * @author Abishek Baskaran
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PlanningBenchmark {
+
+  @Param({ "PLAIN", "SMART", "COLUMNAR" })
+  public String table;
+
+  private JdbcQueryExecutor queryExec;
+  private long queryNumber;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    JavaBeanSchema schema = new JavaBeanSchema("BENCH");
+    UserDataset.addTable(schema, "USERS", table, UserDataset.generate(10000));
+    queryExec = new JdbcQueryExecutor(schema);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    queryExec.close();
+  }
+
+  @Benchmark
+  public void plan(Blackhole blackhole) throws SQLException {
+    // A new literal makes a new query; evicted statements are closed.
+    PreparedStatement prepared = queryExec.prepare("select \"Name\" from "
+        + "\"BENCH\".\"USERS\" where \"Country\" = 'India' and \"Id\" > "
+        + queryNumber++ + " order by \"Age\" fetch next 10 rows only");
+    blackhole.consume(prepared);
+  }
+
+  @Benchmark
+  public void cachedPlan(Blackhole blackhole) throws SQLException {
+    PreparedStatement prepared = queryExec.prepare("select \"Name\" from "
+        + "\"BENCH\".\"USERS\" where \"Country\" = 'India' and \"Id\" > ? "
+        + "order by \"Age\" fetch next 10 rows only");
+    blackhole.consume(prepared);
+  }
+
+}
@@ -0,0 +1,119 @@
+package io.thedal.optiq.javabean.benchmark;
+
+import io.thedal.optiq.javabean.JavaBeanSchema;
+import io.thedal.optiq.javabean.JdbcQueryExecutor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures queries over a plain table, a smart table and a columnar smart
+ * table of the same users: a full scan, a projection, a selective and a
+ * non-selective filter, and a group by. Queries run through a
+ * JdbcQueryExecutor whose plan cache is warm, so this is execution time.
+ * 
+ * @author Abishek Baskaran
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ScanBenchmark {
+
+  @Param({ "10000", "100000", "1000000", "10000000" })
+  public int rows;
+
+  @Param({ "PLAIN", "SMART", "COLUMNAR" })
+  public String table;
+
+  private JdbcQueryExecutor queryExec;
+  private String from;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    JavaBeanSchema schema = new JavaBeanSchema("BENCH");
+    UserDataset.addTable(schema, "USERS", table, UserDataset.generate(rows));
+    queryExec = new JdbcQueryExecutor(schema);
+    from = " from \"BENCH\".\"USERS\"";
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    queryExec.close();
+  }
+
+  @Benchmark
+  public long fullScan(Blackhole blackhole) throws SQLException {
+    return consume(query("select *" + from), blackhole);
+  }
+
+  @Benchmark
+  public long projection(Blackhole blackhole) throws SQLException {
+    return consume(query("select \"Name\"" + from), blackhole);
+  }
+
+  /** About one row in 500 passes. */
+  @Benchmark
+  public long selectiveFilter(Blackhole blackhole) throws SQLException {
+    return consume(query("select \"Name\", \"Salary\"" + from
+        + " where \"Age\" = ? and \"Country\" = ?", 42, "India"), blackhole);
+  }
+
+  /** About nine rows in ten pass. */
+  @Benchmark
+  public long nonSelectiveFilter(Blackhole blackhole) throws SQLException {
+    return consume(query("select \"Name\", \"Salary\"" + from
+        + " where \"Age\" > ?", 23), blackhole);
+  }
+
+  @Benchmark
+  public long groupBy(Blackhole blackhole) throws SQLException {
+    return consume(query("select \"Country\", count(*), "
+        + "sum(\"Salary\"), max(\"Age\")" + from + " group by \"Country\""),
+        blackhole);
+  }
+
+  /** Runs a query through the plan cache, which execute(String) bypasses. */
+  private ResultSet query(String sql, Object... parameters) {
+    return queryExec.execute(sql, parameters);
+  }
+
+  /**
+   * Reads every column of every row.
+   *
+   * @return The number of rows
+   */
+  static long consume(ResultSet result, Blackhole blackhole)
+      throws SQLException {
+    final int columnCount = result.getMetaData().getColumnCount();
+    long count = 0;
+    while (result.next()) {
+      for (int i = 1; i <= columnCount; i++) {
+        blackhole.consume(result.getObject(i));
+      }
+      count++;
+    }
+    result.close();
+    return count;
+  }
+
+}
@@ -0,0 +1,61 @@
+package io.thedal.optiq.javabean.benchmark;
+
+import io.thedal.optiq.javabean.JavaBeanSchema;
+import io.thedal.optiq.javabean.JavaBeanStorageMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the datasets of the benchmarks. A dataset depends only on its
+ * size, so runs are comparable: ages are uniform in 18 to 79, one in a
+ * hundred is null, and users are spread evenly over eight countries.
+ * 
+ * @author Abishek Baskaran
+ *
+ */
+public final class UserDataset {
+
+  static final String[] COUNTRIES = { "India", "US", "Thailand", "Germany",
+      "Brazil", "Japan", "Kenya", "France" };
+  private static final long SEED = 20141017L;
+
+  private UserDataset() {
+  }
+
+  /**
+   * @return rows users, always the same for the same size
+   */
+  public static List<BenchmarkUser> generate(int rows) {
+    final Random random = new Random(SEED);
+    final List<BenchmarkUser> users = new ArrayList<BenchmarkUser>(rows);
+    for (int i = 0; i < rows; i++) {
+      final Integer age = random.nextInt(100) == 0 ? null : 18 + random
+          .nextInt(62);
+      users.add(new BenchmarkUser(i, "User" + i, age, COUNTRIES[i
+          % COUNTRIES.length], 1000 + random.nextInt(100000) / 10.0));
+    }
+    return users;
+  }
+
+  /**
+   * Adds the users to a schema as a table of the given kind: PLAIN is a
+   * JavaBeanTable, SMART a smart table scanning the JavaBeans, and COLUMNAR
+   * a smart table scanning a column store.
+   */
+  public static void addTable(JavaBeanSchema schema, String tableName,
+      String kind, List<BenchmarkUser> users) {
+    if (kind.equals("PLAIN")) {
+      schema.addAsTable(tableName, users);
+    } else if (kind.equals("SMART")) {
+      schema.addAsSmartTable(tableName, users);
+    } else if (kind.equals("COLUMNAR")) {
+      schema.addAsSmartTable(tableName, users);
+      schema.setStorageMode(tableName, JavaBeanStorageMode.COLUMNAR);
+    } else {
+      throw new IllegalArgumentException("Unknown table kind: " + kind);
+    }
+  }
+
+}
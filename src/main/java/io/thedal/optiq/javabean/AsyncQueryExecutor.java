@@ -0,0 +1,332 @@
+package io.thedal.optiq.javabean;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AsyncQueryExecutor executes SQL queries without blocking the caller. A query
+ * either completes a future with all its rows, or is published as batches of
+ * rows that are read only when the subscriber asks for them.
+ *
+ * Optiq reads the rows of a result set from the JavaBeanEnumerator as they
+ * are fetched, so a published query holds at most one batch on the heap,
+ * unless it sorts or groups. It holds a pooled connection from its first
+ * request until it completes, fails or is cancelled.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class AsyncQueryExecutor {
+
+  static final Logger logger = LoggerFactory
+      .getLogger(AsyncQueryExecutor.class);
+  private final ConcurrentQueryExecutor queryExecutor;
+  private final Executor executor;
+  private final ExecutorService ownExecutor;
+
+  /**
+   * Constructor to instantiate an AsyncQueryExecutor with its own threads.
+   *
+   * @param schema
+   *          The schema to execute queries.
+   * @param maxConcurrency
+   *          The most queries to run at once.
+   */
+  public AsyncQueryExecutor(JavaBeanSchema schema, int maxConcurrency) {
+    // Threads may wait for a connection, so the pool is not bounded: a
+    // bounded one could queue the batches of a subscriber holding a
+    // connection behind the queries waiting for it.
+    this.ownExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, "javabean-async-"
+            + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.queryExecutor = new ConcurrentQueryExecutor(schema, maxConcurrency);
+    this.executor = ownExecutor;
+  }
+
+  /**
+   * Constructor to instantiate an AsyncQueryExecutor
+   *
+   * @param queryExecutor
+   *          Runs the queries; it is not closed with this executor.
+   * @param executor
+   *          Runs the blocking work. It must not run fewer tasks at once than
+   *          the max concurrency of the query executor.
+   */
+  public AsyncQueryExecutor(ConcurrentQueryExecutor queryExecutor,
+      Executor executor) {
+    this.queryExecutor = queryExecutor;
+    this.executor = executor;
+    this.ownExecutor = null;
+  }
+
+  /**
+   * Executes a SQL query on another thread.
+   *
+   * @param sql
+   *          SQL query in string, with a "?" for each parameter.
+   * @param parameters
+   *          The values to bind, in order.
+   * @return A future of the rows, each an array of column values. It fails
+   *         with a CompletionException around the SQLException.
+   */
+  public CompletableFuture<List<Object[]>> executeAsync(final String sql,
+      final Object... parameters) {
+    return CompletableFuture.supplyAsync(new Supplier<List<Object[]>>() {
+      public List<Object[]> get() {
+        try {
+          return queryExecutor.execute(sql, parameters);
+        } catch (SQLException e) {
+          throw new CompletionException(e);
+        }
+      }
+    }, executor);
+  }
+
+  /**
+   * Creates a publisher of the rows of a SQL query. Each subscriber runs the
+   * query when it first requests a batch, and gets each batch only after it
+   * has requested it.
+   *
+   * @param sql
+   *          SQL query in string, with a "?" for each parameter.
+   * @param batchSize
+   *          The most rows in a batch; only the last may have fewer.
+   * @param parameters
+   *          The values to bind, in order.
+   * @return A publisher of the batches of rows.
+   */
+  public JavaBeanFlow.Publisher<List<Object[]>> publish(final String sql,
+      final int batchSize, final Object... parameters) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be positive: "
+          + batchSize);
+    }
+    return new JavaBeanFlow.Publisher<List<Object[]>>() {
+      public void subscribe(
+          JavaBeanFlow.Subscriber<? super List<Object[]>> subscriber) {
+        subscriber.onSubscribe(new BatchSubscription(subscriber, sql,
+            batchSize, parameters));
+      }
+    };
+  }
+
+  /**
+   * Closes the connections, and the threads if this executor made them.
+   */
+  public void close() {
+    if (ownExecutor != null) {
+      queryExecutor.close();
+      ownExecutor.shutdown();
+    }
+  }
+
+  /**
+   * Reads batches from the result set of a query as they are requested. All
+   * the work is done by one task at a time on the executor, so the
+   * subscriber is never called concurrently and the JDBC objects need no
+   * locks.
+   */
+  private final class BatchSubscription implements JavaBeanFlow.Subscription,
+      Runnable {
+    private final JavaBeanFlow.Subscriber<? super List<Object[]>> subscriber;
+    private final String sql;
+    private final int batchSize;
+    private final Object[] parameters;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable invalidRequest;
+    private JdbcQueryExecutor connection;
+    private PreparedStatement statement;
+    private ResultSet resultSet;
+    private int columnCount;
+    /** The row read ahead of the batches, or null once the rows run out */
+    private Object[] nextRow;
+    private boolean done;
+
+    BatchSubscription(
+        JavaBeanFlow.Subscriber<? super List<Object[]>> subscriber,
+        String sql, int batchSize, Object[] parameters) {
+      this.subscriber = subscriber;
+      this.sql = sql;
+      this.batchSize = batchSize;
+      this.parameters = parameters;
+    }
+
+    public void request(long n) {
+      if (n <= 0) {
+        invalidRequest = new IllegalArgumentException(
+            "Non-positive request: " + n);
+      } else {
+        long current;
+        do {
+          current = demand.get();
+        } while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE
+            : current + n));
+      }
+      schedule();
+    }
+
+    public void cancel() {
+      cancelled = true;
+      schedule();
+    }
+
+    private void schedule() {
+      if (pending.getAndIncrement() == 0) {
+        executor.execute(this);
+      }
+    }
+
+    public void run() {
+      int missed = pending.get();
+      while (true) {
+        drain();
+        missed = pending.addAndGet(-missed);
+        if (missed == 0) {
+          return;
+        }
+      }
+    }
+
+    private void drain() {
+      if (done) {
+        return;
+      }
+      if (cancelled) {
+        finish(null, false);
+        return;
+      }
+      if (invalidRequest != null) {
+        finish(invalidRequest, true);
+        return;
+      }
+      while (demand.get() > 0 && !cancelled) {
+        final List<Object[]> batch = new ArrayList<Object[]>(Math.min(
+            batchSize, 1024));
+        try {
+          if (resultSet == null) {
+            open();
+            nextRow = readRow();
+          }
+          // A row is read ahead, so the batch that ends the rows is followed
+          // by onComplete even when it is full and no more are requested
+          while (nextRow != null && batch.size() < batchSize) {
+            batch.add(nextRow);
+            nextRow = readRow();
+          }
+        } catch (Throwable t) {
+          finish(t, true);
+          return;
+        }
+        if (!batch.isEmpty()) {
+          demand.decrementAndGet();
+          try {
+            subscriber.onNext(batch);
+          } catch (Throwable t) {
+            subscriberFailed(t);
+            return;
+          }
+        }
+        if (nextRow == null) {
+          finish(null, true);
+          return;
+        }
+      }
+    }
+
+    /**
+     * @return The next row of the result set, or null if there is none
+     */
+    private Object[] readRow() throws SQLException {
+      if (!resultSet.next()) {
+        return null;
+      }
+      final Object[] row = new Object[columnCount];
+      for (int i = 0; i < columnCount; i++) {
+        row[i] = resultSet.getObject(i + 1);
+      }
+      return row;
+    }
+
+    /**
+     * A subscriber must not throw, so its exception is not handed back to it:
+     * the query is cancelled and the exception logged.
+     */
+    private void subscriberFailed(Throwable t) {
+      logger.error("Subscriber failed, cancelling query: " + sql + ". " + t);
+      cancelled = true;
+      finish(null, false);
+    }
+
+    private void open() throws SQLException {
+      logger.debug("Publishing query: {}", sql);
+      connection = queryExecutor.acquire();
+      final JavaBeanQueryMetrics metrics = JavaBeanMetrics.begin(sql);
+      try {
+        statement = connection.prepare(sql);
+        JdbcQueryExecutor.bind(statement, parameters);
+        resultSet = JavaBeanMetrics.executeQuery(statement, metrics);
+      } finally {
+        JavaBeanMetrics.detach(metrics);
+      }
+      columnCount = resultSet.getMetaData().getColumnCount();
+    }
+
+    /**
+     * Gives back the connection, then tells the subscriber how the query
+     * ended if it is still listening.
+     */
+    private void finish(Throwable error, boolean signal) {
+      done = true;
+      try {
+        if (resultSet != null) {
+          resultSet.close();
+          statement.clearParameters();
+        }
+      } catch (SQLException e) {
+        logger.error("Could not close result set. " + e);
+      } finally {
+        if (connection != null) {
+          queryExecutor.release(connection);
+          connection = null;
+        }
+      }
+      if (signal && !cancelled) {
+        try {
+          if (error == null) {
+            subscriber.onComplete();
+          } else {
+            subscriber.onError(error);
+          }
+        } catch (Throwable t) {
+          logger.error("Subscriber failed at the end of query: " + sql
+              + ". " + t);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,213 @@
+package io.thedal.optiq.javabean;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConcurrentQueryExecutor executes SQL queries over an Optiq Schema from any
+ * number of threads. It keeps a pool of Optiq connections, each registered
+ * against the same schema and each with its own plan cache. A query borrows a
+ * connection for as long as it reads its result set, so queries never share a
+ * statement, and at most maxConcurrency queries run at once; other callers
+ * wait for a connection to be returned. Connections are opened as they are
+ * first needed.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class ConcurrentQueryExecutor {
+
+  static final Logger logger = LoggerFactory
+      .getLogger(ConcurrentQueryExecutor.class);
+  private final JavaBeanSchema schema;
+  private final int maxConcurrency;
+  private final int planCacheSize;
+  private final Semaphore permits;
+  private final ConcurrentLinkedQueue<JdbcQueryExecutor> idle = new ConcurrentLinkedQueue<JdbcQueryExecutor>();
+  private volatile boolean closed;
+
+  /**
+   * Reads the result set of a query. It is called on the thread that runs
+   * the query, and the result set is closed when it returns.
+   */
+  public interface ResultHandler<T> {
+    T handle(ResultSet resultSet) throws SQLException;
+  }
+
+  /**
+   * Constructor to instantiate a ConcurrentQueryExecutor that runs as many
+   * queries at once as there are processors.
+   *
+   * @param schema
+   *          The schema to execute queries.
+   */
+  public ConcurrentQueryExecutor(JavaBeanSchema schema) {
+    this(schema, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructor to instantiate a ConcurrentQueryExecutor
+   *
+   * @param schema
+   *          The schema to execute queries.
+   * @param maxConcurrency
+   *          The most queries to run at once, which is also the most
+   *          connections to open.
+   */
+  public ConcurrentQueryExecutor(JavaBeanSchema schema, int maxConcurrency) {
+    this(schema, maxConcurrency, JdbcQueryExecutor.DEFAULT_PLAN_CACHE_SIZE);
+  }
+
+  /**
+   * Constructor to instantiate a ConcurrentQueryExecutor
+   *
+   * @param schema
+   *          The schema to execute queries.
+   * @param maxConcurrency
+   *          The most queries to run at once, which is also the most
+   *          connections to open.
+   * @param planCacheSize
+   *          The most prepared statements each connection keeps.
+   */
+  public ConcurrentQueryExecutor(JavaBeanSchema schema, int maxConcurrency,
+      int planCacheSize) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("Max concurrency must be positive: "
+          + maxConcurrency);
+    }
+    this.schema = schema;
+    this.maxConcurrency = maxConcurrency;
+    this.planCacheSize = planCacheSize;
+    this.permits = new Semaphore(maxConcurrency, true);
+  }
+
+  /**
+   * @return The most queries that run at once
+   */
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  /**
+   * Executes a SQL query and passes its result set to a handler.
+   *
+   * @param sql
+   *          SQL query in string, with a "?" for each parameter.
+   * @param handler
+   *          Reads the result set.
+   * @param parameters
+   *          The values to bind, in order.
+   * @return What the handler returns.
+   */
+  public <T> T query(String sql, ResultHandler<T> handler,
+      Object... parameters) throws SQLException {
+    final JdbcQueryExecutor executor = acquire();
+    try {
+      final ResultSet resultSet;
+      final PreparedStatement prepared;
+      final JavaBeanQueryMetrics metrics = JavaBeanMetrics.begin(sql);
+      try {
+        prepared = executor.prepare(sql);
+        JdbcQueryExecutor.bind(prepared, parameters);
+        logger.debug("Going to execute query: {}", sql);
+        resultSet = JavaBeanMetrics.executeQuery(prepared, metrics);
+      } finally {
+        JavaBeanMetrics.detach(metrics);
+      }
+      try {
+        return handler.handle(resultSet);
+      } finally {
+        resultSet.close();
+        prepared.clearParameters();
+      }
+    } finally {
+      release(executor);
+    }
+  }
+
+  /**
+   * Executes a SQL query and reads all its rows.
+   *
+   * @param sql
+   *          SQL query in string, with a "?" for each parameter.
+   * @param parameters
+   *          The values to bind, in order.
+   * @return The rows, each an array of column values.
+   */
+  public List<Object[]> execute(String sql, Object... parameters)
+      throws SQLException {
+    return query(sql, new ResultHandler<List<Object[]>>() {
+      public List<Object[]> handle(ResultSet resultSet) throws SQLException {
+        final int columnCount = resultSet.getMetaData().getColumnCount();
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        while (resultSet.next()) {
+          final Object[] row = new Object[columnCount];
+          for (int i = 0; i < columnCount; i++) {
+            row[i] = resultSet.getObject(i + 1);
+          }
+          rows.add(row);
+        }
+        return rows;
+      }
+    }, parameters);
+  }
+
+  /**
+   * Waits for a connection, opening one if none is idle. It must be given
+   * back with release().
+   */
+  JdbcQueryExecutor acquire() throws SQLException {
+    if (closed) {
+      throw new IllegalStateException("Executor is closed");
+    }
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a connection", e);
+    }
+    final JdbcQueryExecutor executor = idle.poll();
+    if (executor != null) {
+      return executor;
+    }
+    try {
+      logger.debug("Opening a pooled connection");
+      return new JdbcQueryExecutor(schema, planCacheSize);
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  void release(JdbcQueryExecutor executor) {
+    if (closed) {
+      executor.close();
+    } else {
+      idle.offer(executor);
+      if (closed && idle.remove(executor)) {
+        executor.close(); // closed while we were returning it
+      }
+    }
+    permits.release();
+  }
+
+  /**
+   * Closes the idle connections, and the others as their queries finish.
+   */
+  public void close() {
+    closed = true;
+    JdbcQueryExecutor executor;
+    while ((executor = idle.poll()) != null) {
+      executor.close();
+    }
+  }
+
+}
@@ -0,0 +1,646 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.hydromatic.linq4j.expressions.Expression;
+import net.hydromatic.linq4j.expressions.Expressions;
+import net.hydromatic.linq4j.function.Predicate1;
+
+/**
+ * JavaBeanAggregate is a GROUP BY with COUNT, SUM, MIN and MAX pushed down to
+ * a smart table. Rows are grouped and aggregated in one pass; each aggregate
+ * keeps its state for all groups in a primitive array indexed by group
+ * number, so numeric fields of a column store are summed and compared without
+ * being boxed. Fields are referred to by their column ordinal in the table.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanAggregate {
+
+  /**
+   * An aggregate function, with the Java type of its result. COUNT ignores
+   * nulls unless it has no argument; the other functions are null for a
+   * group with no value that is not null.
+   */
+  public enum Function {
+    COUNT, SUM_INTEGER, SUM_BIGINT, SUM_REAL, SUM_DOUBLE, MIN, MAX
+  }
+
+  final int[] groupFields;
+  final Function[] functions;
+  final int[] argFields;
+
+  private JavaBeanAggregate(int[] groupFields, Function[] functions,
+      int[] argFields) {
+    this.groupFields = groupFields;
+    this.functions = functions;
+    this.argFields = argFields;
+  }
+
+  /**
+   * Creates an aggregate.
+   *
+   * @param groupFields
+   *          The column ordinals of the GROUP BY fields
+   * @param functions
+   *          The names of the aggregate functions
+   * @param argFields
+   *          For each function, the column ordinal of its argument, or -1 for
+   *          COUNT(*)
+   */
+  public static JavaBeanAggregate of(int[] groupFields, String[] functions,
+      int[] argFields) {
+    final Function[] values = new Function[functions.length];
+    for (int i = 0; i < functions.length; i++) {
+      values[i] = Function.valueOf(functions[i]);
+    }
+    return new JavaBeanAggregate(groupFields, values, argFields);
+  }
+
+  /**
+   * @return An expression that rebuilds this aggregate in generated code
+   */
+  public Expression toExpression() {
+    final String[] names = new String[functions.length];
+    for (int i = 0; i < functions.length; i++) {
+      names[i] = functions[i].name();
+    }
+    return Expressions.call(JavaBeanAggregate.class, "of",
+        Expressions.constant(groupFields), Expressions.constant(names),
+        Expressions.constant(argFields));
+  }
+
+  /**
+   * Aggregates the JavaBeans that pass the filter.
+   *
+   * @param javaBeanList
+   *          The JavaBeans
+   * @param rowPositions
+   *          Positions of the JavaBeans to visit, null visits all of them.
+   * @param accessors
+   *          The accessors of the bean class
+   * @param filter
+   *          The compiled filter, or null
+   * @return A row per group: the group fields, then the aggregates
+   */
+  public List<Object> aggregate(List<?> javaBeanList, int[] rowPositions,
+      JavaBeanAccessors accessors, Predicate1<Object> filter) {
+    final Groups groups = new Groups(accessors.getFieldTypes());
+    final int end = rowPositions == null ? javaBeanList.size()
+        : rowPositions.length;
+    final Object[] key = new Object[groupFields.length];
+    for (int i = 0; i < end; i++) {
+      final Object javaBean = javaBeanList.get(rowPositions == null ? i
+          : rowPositions[i]);
+      if (filter != null && !filter.apply(javaBean)) {
+        continue;
+      }
+      for (int k = 0; k < key.length; k++) {
+        key[k] = accessors.get(javaBean, groupFields[k]);
+      }
+      final int group = groups.groupOf(key);
+      for (int a = 0; a < functions.length; a++) {
+        if (argFields[a] < 0) {
+          groups.accumulators[a].addRow(group);
+        } else {
+          groups.accumulators[a].add(group, accessors, javaBean,
+              argFields[a]);
+        }
+      }
+    }
+    return groups.rows();
+  }
+
+  /**
+   * Aggregates the rows of a column store that pass the filter. Dictionary
+   * encoded group fields are grouped on their codes, and their values looked
+   * up once per group; a single such field maps its codes straight to groups.
+   *
+   * @param columnStore
+   *          The column store
+   * @param rowPositions
+   *          Row numbers to visit, null visits every row.
+   * @param filter
+   *          The compiled filter, or null
+   * @return A row per group: the group fields, then the aggregates
+   */
+  public List<Object> aggregate(JavaBeanColumnStore columnStore,
+      int[] rowPositions, JavaBeanColumn.RowPredicate filter) {
+    final Groups groups = new Groups(columnStore.getAccessors()
+        .getFieldTypes());
+    final int end = rowPositions == null ? columnStore.getRowCount()
+        : rowPositions.length;
+    final JavaBeanColumn[] keyColumns = new JavaBeanColumn[groupFields.length];
+    boolean coded = false;
+    for (int k = 0; k < keyColumns.length; k++) {
+      keyColumns[k] = columnStore.getColumn(groupFields[k]);
+      coded |= keyColumns[k].getDictionarySize() >= 0;
+    }
+    // The group of each code of a single dictionary encoded group field,
+    // with the last slot for null
+    final int[] codeGroups = keyColumns.length == 1 && coded ? new int[
+        keyColumns[0].getDictionarySize() + 1] : null;
+    if (codeGroups != null) {
+      Arrays.fill(codeGroups, -1);
+    }
+    final Object[] key = new Object[groupFields.length];
+    for (int i = 0; i < end; i++) {
+      final int row = rowPositions == null ? i : rowPositions[i];
+      if (filter != null && !filter.test(row)) {
+        continue;
+      }
+      final int group;
+      if (codeGroups != null) {
+        final JavaBeanColumn column = keyColumns[0];
+        final int code = column.isNull(row) ? codeGroups.length - 1 : column
+            .getCode(row);
+        if (codeGroups[code] < 0) {
+          key[0] = column.get(row);
+          codeGroups[code] = groups.groupOf(key);
+        }
+        group = codeGroups[code];
+      } else {
+        for (int k = 0; k < key.length; k++) {
+          final JavaBeanColumn column = keyColumns[k];
+          key[k] = column.getDictionarySize() < 0 || column.isNull(row)
+              ? column.get(row) : (Object) column.getCode(row);
+        }
+        group = groups.groupOf(key);
+      }
+      for (int a = 0; a < functions.length; a++) {
+        if (argFields[a] < 0) {
+          groups.accumulators[a].addRow(group);
+        } else {
+          groups.accumulators[a].add(group,
+              columnStore.getColumn(argFields[a]), row);
+        }
+      }
+    }
+    if (coded && codeGroups == null) {
+      groups.decode(keyColumns);
+    }
+    return groups.rows();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder("group: [");
+    for (int i = 0; i < groupFields.length; i++) {
+      buf.append(i > 0 ? ", $" : "$").append(groupFields[i]);
+    }
+    buf.append("], aggregates: [");
+    for (int i = 0; i < functions.length; i++) {
+      buf.append(i > 0 ? ", " : "").append(functions[i]).append("(")
+          .append(argFields[i] < 0 ? "*" : "$" + argFields[i]).append(")");
+    }
+    return buf.append("]").toString();
+  }
+
+  /** The groups seen so far and the state of every aggregate. */
+  private final class Groups {
+    private final Map<Object, Integer> groupNumbers = new HashMap<Object, Integer>();
+    private final List<Object[]> groupKeys = new ArrayList<Object[]>();
+    final Accumulator[] accumulators;
+
+    Groups(List<Class<?>> fieldTypes) {
+      accumulators = new Accumulator[functions.length];
+      for (int a = 0; a < functions.length; a++) {
+        accumulators[a] = Accumulator.of(functions[a],
+            argFields[a] < 0 ? null : fieldTypes.get(argFields[a]));
+      }
+      if (groupFields.length == 0) {
+        // Without GROUP BY there is exactly one group, even for no rows.
+        groupOf(new Object[0]);
+      }
+    }
+
+    int groupOf(Object[] key) {
+      final Object mapKey = key.length == 1 ? key[0] : Arrays.asList(key);
+      Integer group = groupNumbers.get(mapKey);
+      if (group == null) {
+        group = groupKeys.size();
+        groupNumbers.put(key.length == 1 ? mapKey : Arrays.asList(key
+            .clone()), group);
+        groupKeys.add(key.clone());
+        for (Accumulator accumulator : accumulators) {
+          accumulator.ensureCapacity(group + 1);
+        }
+      }
+      return group;
+    }
+
+    /**
+     * Replaces the codes of dictionary encoded fields in the group keys with
+     * their values.
+     */
+    void decode(JavaBeanColumn[] keyColumns) {
+      for (Object[] key : groupKeys) {
+        for (int k = 0; k < key.length; k++) {
+          if (key[k] != null && keyColumns[k].getDictionarySize() >= 0) {
+            key[k] = keyColumns[k].decode((Integer) key[k]);
+          }
+        }
+      }
+    }
+
+    List<Object> rows() {
+      final List<Object> rows = new ArrayList<Object>(groupKeys.size());
+      for (int group = 0; group < groupKeys.size(); group++) {
+        final Object[] key = groupKeys.get(group);
+        final Object[] row = new Object[key.length + accumulators.length];
+        System.arraycopy(key, 0, row, 0, key.length);
+        for (int a = 0; a < accumulators.length; a++) {
+          row[key.length + a] = accumulators[a].result(group);
+        }
+        rows.add(row);
+      }
+      return rows;
+    }
+  }
+
+  /** The state of one aggregate function for every group. */
+  abstract static class Accumulator {
+    final BitSet seen = new BitSet();
+
+    static Accumulator of(Function function, Class<?> argType) {
+      final boolean integral = argType == Integer.class
+          || argType == Long.class || argType == Short.class
+          || argType == Byte.class;
+      switch (function) {
+      case COUNT:
+        return new Count();
+      case SUM_INTEGER:
+      case SUM_BIGINT:
+        return new LongSum(function == Function.SUM_INTEGER);
+      case SUM_REAL:
+      case SUM_DOUBLE:
+        return new DoubleSum(function == Function.SUM_REAL);
+      default:
+        final boolean max = function == Function.MAX;
+        if (integral) {
+          return new LongExtreme(max, argType);
+        } else if (argType == Float.class || argType == Double.class) {
+          return new DoubleExtreme(max, argType);
+        } else if (argType == Date.class) {
+          return new LongExtreme(max, argType);
+        }
+        return new ObjectExtreme(max);
+      }
+    }
+
+    abstract void ensureCapacity(int groups);
+
+    /** Adds a row to a COUNT(*). */
+    void addRow(int group) {
+      throw new UnsupportedOperationException();
+    }
+
+    /** Adds a field value, which may be null. */
+    abstract void add(int group, Object value);
+
+    /**
+     * Adds the field of a JavaBean. Accumulators of numbers override it to
+     * read primitive getters without boxing.
+     */
+    void add(int group, JavaBeanAccessors accessors, Object javaBean,
+        int field) {
+      add(group, accessors.get(javaBean, field));
+    }
+
+    /** Adds the field of a row of a column. */
+    void add(int group, JavaBeanColumn column, int row) {
+      add(group, column.get(row));
+    }
+
+    abstract Object result(int group);
+  }
+
+  /** COUNT. */
+  static final class Count extends Accumulator {
+    private long[] counts = new long[16];
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (counts.length < groups) {
+        counts = Arrays.copyOf(counts, Math.max(groups, counts.length * 2));
+      }
+    }
+
+    @Override
+    void addRow(int group) {
+      counts[group]++;
+    }
+
+    @Override
+    void add(int group, Object value) {
+      if (value != null) {
+        counts[group]++;
+      }
+    }
+
+    @Override
+    void add(int group, JavaBeanAccessors accessors, Object javaBean,
+        int field) {
+      if (accessors.isPrimitive(field)) {
+        counts[group]++;
+      } else {
+        add(group, accessors.get(javaBean, field));
+      }
+    }
+
+    @Override
+    void add(int group, JavaBeanColumn column, int row) {
+      if (!column.isNull(row)) {
+        counts[group]++;
+      }
+    }
+
+    @Override
+    Object result(int group) {
+      return counts[group];
+    }
+  }
+
+  /** SUM of an integral field. */
+  static final class LongSum extends Accumulator {
+    private final boolean asInteger;
+    private long[] sums = new long[16];
+
+    LongSum(boolean asInteger) {
+      this.asInteger = asInteger;
+    }
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (sums.length < groups) {
+        sums = Arrays.copyOf(sums, Math.max(groups, sums.length * 2));
+      }
+    }
+
+    @Override
+    void add(int group, Object value) {
+      if (value != null) {
+        sums[group] += ((Number) value).longValue();
+        seen.set(group);
+      }
+    }
+
+    @Override
+    void add(int group, JavaBeanAccessors accessors, Object javaBean,
+        int field) {
+      if (accessors.isPrimitive(field)) {
+        sums[group] += accessors.getLong(javaBean, field);
+        seen.set(group);
+      } else {
+        add(group, accessors.get(javaBean, field));
+      }
+    }
+
+    @Override
+    void add(int group, JavaBeanColumn column, int row) {
+      if (!column.isNull(row)) {
+        sums[group] += column.getLong(row);
+        seen.set(group);
+      }
+    }
+
+    @Override
+    Object result(int group) {
+      if (!seen.get(group)) {
+        return null;
+      }
+      return asInteger ? (Object) (int) sums[group] : (Object) sums[group];
+    }
+  }
+
+  /** SUM of a floating point field. */
+  static final class DoubleSum extends Accumulator {
+    private final boolean asReal;
+    private double[] sums = new double[16];
+
+    DoubleSum(boolean asReal) {
+      this.asReal = asReal;
+    }
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (sums.length < groups) {
+        sums = Arrays.copyOf(sums, Math.max(groups, sums.length * 2));
+      }
+    }
+
+    @Override
+    void add(int group, Object value) {
+      if (value != null) {
+        sums[group] += ((Number) value).doubleValue();
+        seen.set(group);
+      }
+    }
+
+    @Override
+    void add(int group, JavaBeanAccessors accessors, Object javaBean,
+        int field) {
+      if (accessors.isPrimitive(field)) {
+        sums[group] += accessors.getDouble(javaBean, field);
+        seen.set(group);
+      } else {
+        add(group, accessors.get(javaBean, field));
+      }
+    }
+
+    @Override
+    void add(int group, JavaBeanColumn column, int row) {
+      if (!column.isNull(row)) {
+        sums[group] += column.getDouble(row);
+        seen.set(group);
+      }
+    }
+
+    @Override
+    Object result(int group) {
+      if (!seen.get(group)) {
+        return null;
+      }
+      return asReal ? (Object) (float) sums[group] : (Object) sums[group];
+    }
+  }
+
+  /** MIN or MAX of an integral or Date field, compared as longs. */
+  static final class LongExtreme extends Accumulator {
+    private final boolean max;
+    private final Class<?> type;
+    private long[] values = new long[16];
+
+    LongExtreme(boolean max, Class<?> type) {
+      this.max = max;
+      this.type = type;
+    }
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (values.length < groups) {
+        values = Arrays.copyOf(values, Math.max(groups, values.length * 2));
+      }
+    }
+
+    private void add(int group, long value) {
+      if (!seen.get(group) || (max ? value > values[group]
+          : value < values[group])) {
+        values[group] = value;
+        seen.set(group);
+      }
+    }
+
+    @Override
+    void add(int group, Object value) {
+      if (value != null) {
+        add(group, value instanceof Date ? ((Date) value).getTime()
+            : ((Number) value).longValue());
+      }
+    }
+
+    @Override
+    void add(int group, JavaBeanAccessors accessors, Object javaBean,
+        int field) {
+      if (accessors.isPrimitive(field)) {
+        add(group, accessors.getLong(javaBean, field));
+      } else {
+        add(group, accessors.get(javaBean, field));
+      }
+    }
+
+    @Override
+    void add(int group, JavaBeanColumn column, int row) {
+      if (!column.isNull(row)) {
+        add(group, column.getLong(row));
+      }
+    }
+
+    @Override
+    Object result(int group) {
+      if (!seen.get(group)) {
+        return null;
+      }
+      final long value = values[group];
+      if (type == Integer.class) {
+        return (int) value;
+      } else if (type == Short.class) {
+        return (short) value;
+      } else if (type == Byte.class) {
+        return (byte) value;
+      } else if (type == Date.class) {
+        return new Date(value);
+      }
+      return value;
+    }
+  }
+
+  /** MIN or MAX of a floating point field. */
+  static final class DoubleExtreme extends Accumulator {
+    private final boolean max;
+    private final Class<?> type;
+    private double[] values = new double[16];
+
+    DoubleExtreme(boolean max, Class<?> type) {
+      this.max = max;
+      this.type = type;
+    }
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (values.length < groups) {
+        values = Arrays.copyOf(values, Math.max(groups, values.length * 2));
+      }
+    }
+
+    private void add(int group, double value) {
+      if (!seen.get(group) || (max ? Double.compare(value, values[group]) > 0
+          : Double.compare(value, values[group]) < 0)) {
+        values[group] = value;
+        seen.set(group);
+      }
+    }
+
+    @Override
+    void add(int group, Object value) {
+      if (value != null) {
+        add(group, ((Number) value).doubleValue());
+      }
+    }
+
+    @Override
+    void add(int group, JavaBeanAccessors accessors, Object javaBean,
+        int field) {
+      if (accessors.isPrimitive(field)) {
+        add(group, accessors.getDouble(javaBean, field));
+      } else {
+        add(group, accessors.get(javaBean, field));
+      }
+    }
+
+    @Override
+    void add(int group, JavaBeanColumn column, int row) {
+      if (!column.isNull(row)) {
+        add(group, column.getDouble(row));
+      }
+    }
+
+    @Override
+    Object result(int group) {
+      if (!seen.get(group)) {
+        return null;
+      }
+      return type == Float.class ? (Object) (float) values[group]
+          : (Object) values[group];
+    }
+  }
+
+  /** MIN or MAX of any other Comparable field, such as a String. */
+  static final class ObjectExtreme extends Accumulator {
+    private final boolean max;
+    private Object[] values = new Object[16];
+
+    ObjectExtreme(boolean max) {
+      this.max = max;
+    }
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (values.length < groups) {
+        values = Arrays.copyOf(values, Math.max(groups, values.length * 2));
+      }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void add(int group, Object value) {
+      if (value == null) {
+        return;
+      }
+      final Object current = values[group];
+      if (current == null) {
+        values[group] = value;
+        return;
+      }
+      final int c = ((Comparable<Object>) value).compareTo(current);
+      if (max ? c > 0 : c < 0) {
+        values[group] = value;
+      }
+    }
+
+    @Override
+    Object result(int group) {
+      return values[group];
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.eigenbase.rel.AggregateCall;
+import org.eigenbase.rel.AggregateRel;
+import org.eigenbase.rel.FilterRel;
+import org.eigenbase.rel.ProjectRel;
+import org.eigenbase.relopt.RelOptRuleCall;
+import org.eigenbase.relopt.RelOptRuleOperand;
+import org.eigenbase.sql.type.SqlTypeName;
+
+import net.hydromatic.optiq.rules.java.EnumerableConvention;
+
+/**
+ * JavaBeanAggregateRule pushes a GROUP BY with COUNT, SUM, MIN and MAX down to
+ * a smart table, together with the filter and projection below it, so that
+ * the table returns one row per group instead of every row.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanAggregateRule extends JavaBeanPushDownRule {
+
+  public static final JavaBeanAggregateRule AGGREGATE = new JavaBeanAggregateRule(
+      operand(AggregateRel.class, operand(JavaBeanTableScan.class, none())),
+      "Aggregate");
+
+  public static final JavaBeanAggregateRule AGGREGATE_ON_PROJECT = new JavaBeanAggregateRule(
+      operand(AggregateRel.class,
+          operand(ProjectRel.class, operand(JavaBeanTableScan.class, none()))),
+      "Aggregate on project");
+
+  public static final JavaBeanAggregateRule AGGREGATE_ON_FILTER = new JavaBeanAggregateRule(
+      operand(AggregateRel.class,
+          operand(FilterRel.class, operand(JavaBeanTableScan.class, none()))),
+      "Aggregate on filter");
+
+  public static final JavaBeanAggregateRule AGGREGATE_ON_PROJECT_ON_FILTER = new JavaBeanAggregateRule(
+      operand(
+          AggregateRel.class,
+          operand(
+              ProjectRel.class,
+              operand(FilterRel.class,
+                  operand(JavaBeanTableScan.class, none())))),
+      "Aggregate on project on filter");
+
+  protected JavaBeanAggregateRule(RelOptRuleOperand rule, String id) {
+    super(rule, id);
+  }
+
+  @Override
+  public void onMatch(RelOptRuleCall call) {
+    logger.debug("Rule Match for: {}", description);
+
+    int relLength = call.rels.length;
+    AggregateRel aggregateRel = (AggregateRel) call.rels[0];
+    JavaBeanTableScan javaBeanRel = (JavaBeanTableScan) call.rels[relLength - 1];
+    JavaBeanAccessors accessors = javaBeanRel.javaBeanSmartTable
+        .getAccessors();
+    if (accessors == null) {
+      return; // empty table, nothing to push down
+    }
+    if (javaBeanRel.sort != null && javaBeanRel.sort.hasLimit()) {
+      return; // aggregates only the rows within the limit
+    }
+
+    // Walk up from the scan: [Filter] [Project] Aggregate
+    int[] fields = javaBeanRel.projectFields;
+    JavaBeanFilter pushedFilter = javaBeanRel.filter;
+    int idx = relLength - 2;
+    if (call.rels[idx] instanceof FilterRel) {
+      JavaBeanFilter newFilter = getFilter(
+          ((FilterRel) call.rels[idx]).getCondition(), fields, accessors);
+      if (newFilter == null) {
+        return; // can't handle
+      }
+      pushedFilter = JavaBeanFilter.and(pushedFilter, newFilter);
+      idx--;
+    }
+    if (call.rels[idx] instanceof ProjectRel) {
+      fields = compose(fields,
+          getProjectFields(((ProjectRel) call.rels[idx]).getProjects()));
+      if (fields == null) {
+        return; // can't handle
+      }
+    }
+
+    JavaBeanAggregate aggregate = getAggregate(aggregateRel, fields,
+        accessors);
+    if (aggregate == null) {
+      return; // can't handle
+    }
+    logger.debug("Pushed down aggregate: {} with filter: {}", aggregate,
+        pushedFilter);
+    JavaBeanMetrics.ruleMatched(description);
+    call.transformTo(new JavaBeanAggregateScan(javaBeanRel.getCluster(),
+        aggregateRel.getTraitSet().replace(EnumerableConvention.INSTANCE),
+        javaBeanRel.getTable(), javaBeanRel.javaBeanSmartTable, pushedFilter,
+        aggregate, aggregateRel.getRowType(), description));
+  }
+
+  /**
+   * Converts the group set and calls of an aggregate into a JavaBeanAggregate
+   * on table columns.
+   *
+   * @return The aggregate, or null if it can't be pushed down
+   */
+  private JavaBeanAggregate getAggregate(AggregateRel aggregateRel,
+      int[] fields, JavaBeanAccessors accessors) {
+    final BitSet groupSet = aggregateRel.getGroupSet();
+    final int[] groupFields = new int[groupSet.cardinality()];
+    int k = 0;
+    for (int i = groupSet.nextSetBit(0); i >= 0; i = groupSet
+        .nextSetBit(i + 1)) {
+      groupFields[k++] = fields[i];
+    }
+    final List<AggregateCall> calls = aggregateRel.getAggCallList();
+    final String[] functions = new String[calls.size()];
+    final int[] argFields = new int[calls.size()];
+    for (int i = 0; i < calls.size(); i++) {
+      final AggregateCall aggCall = calls.get(i);
+      final List<Integer> args = aggCall.getArgList();
+      if (aggCall.isDistinct() || args.size() > 1) {
+        return null;
+      }
+      argFields[i] = args.isEmpty() ? -1 : fields[args.get(0)];
+      final Class<?> argType = argFields[i] < 0 ? null : accessors
+          .getFieldTypes().get(argFields[i]);
+      final String name = aggCall.getAggregation().getName();
+      final SqlTypeName type = aggCall.getType().getSqlTypeName();
+      if (name.equals("COUNT")) {
+        functions[i] = JavaBeanAggregate.Function.COUNT.name();
+      } else if (argType == null) {
+        return null;
+      } else if (name.equals("MIN") || name.equals("MAX")) {
+        functions[i] = name;
+      } else if (name.equals("SUM")
+          && Number.class.isAssignableFrom(argType)) {
+        switch (type) {
+        case INTEGER:
+        case BIGINT:
+          if (argType != Integer.class && argType != Long.class) {
+            return null;
+          }
+          functions[i] = type == SqlTypeName.INTEGER ? "SUM_INTEGER"
+              : "SUM_BIGINT";
+          break;
+        case REAL:
+        case FLOAT:
+        case DOUBLE:
+          functions[i] = type == SqlTypeName.REAL ? "SUM_REAL" : "SUM_DOUBLE";
+          break;
+        default:
+          return null;
+        }
+      } else {
+        return null;
+      }
+    }
+    return JavaBeanAggregate.of(groupFields, functions, argFields);
+  }
+
+}
@@ -0,0 +1,86 @@
+package io.thedal.optiq.javabean;
+
+import java.util.List;
+
+import net.hydromatic.linq4j.expressions.Blocks;
+import net.hydromatic.linq4j.expressions.Expressions;
+import net.hydromatic.optiq.rules.java.EnumerableRel;
+import net.hydromatic.optiq.rules.java.EnumerableRelImplementor;
+import net.hydromatic.optiq.rules.java.JavaRowFormat;
+import net.hydromatic.optiq.rules.java.PhysType;
+import net.hydromatic.optiq.rules.java.PhysTypeImpl;
+
+import org.eigenbase.rel.RelNode;
+import org.eigenbase.rel.RelWriter;
+import org.eigenbase.rel.TableAccessRelBase;
+import org.eigenbase.relopt.RelOptCluster;
+import org.eigenbase.relopt.RelOptTable;
+import org.eigenbase.relopt.RelTraitSet;
+import org.eigenbase.reltype.RelDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JavaBeanAggregateScan is a scan of a smart table that returns one row per
+ * group of a pushed down aggregate. Its row type is the row type of the
+ * aggregate it replaces.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanAggregateScan extends TableAccessRelBase implements
+    EnumerableRel {
+
+  static final Logger logger = LoggerFactory
+      .getLogger(JavaBeanAggregateScan.class);
+  final JavaBeanSmartTable javaBeanSmartTable;
+  final JavaBeanFilter filter;
+  final JavaBeanAggregate aggregate;
+  final RelDataType aggregateRowType;
+  final String scanName;
+
+  protected JavaBeanAggregateScan(RelOptCluster cluster, RelTraitSet traitSet,
+      RelOptTable table, JavaBeanSmartTable javaBeanSmartTable,
+      JavaBeanFilter filter, JavaBeanAggregate aggregate,
+      RelDataType aggregateRowType, String scanName) {
+    super(cluster, traitSet, table);
+    this.javaBeanSmartTable = javaBeanSmartTable;
+    this.filter = filter;
+    this.aggregate = aggregate;
+    this.aggregateRowType = aggregateRowType;
+    this.scanName = scanName;
+    assert javaBeanSmartTable != null;
+    logger.debug("JavaBean aggregate scan created: {}", aggregate);
+  }
+
+  @Override
+  public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+    assert inputs.isEmpty();
+    return new JavaBeanAggregateScan(getCluster(), traitSet, table,
+        javaBeanSmartTable, filter, aggregate, aggregateRowType, scanName);
+  }
+
+  @Override
+  public RelWriter explainTerms(RelWriter pw) {
+    return super.explainTerms(pw).item("aggregate", aggregate)
+        .itemIf("filter", filter, filter != null);
+  }
+
+  @Override
+  public RelDataType deriveRowType() {
+    return aggregateRowType;
+  }
+
+  public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+    // Group rows are always Object[], even when there is a single field.
+    PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(),
+        getRowType(), JavaRowFormat.ARRAY, false);
+    logger.debug("We are in aggregate scan: {}", scanName);
+
+    return implementor.result(physType, Blocks.toBlock(Expressions.call(
+        table.getExpression(JavaBeanSmartTable.class), "aggregate",
+        filter == null ? Expressions.constant(null, JavaBeanFilter.class)
+            : filter.toExpression(), aggregate.toExpression())));
+  }
+
+}
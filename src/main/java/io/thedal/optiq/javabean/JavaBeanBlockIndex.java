@@ -0,0 +1,90 @@
+package io.thedal.optiq.javabean;
+
+import java.util.Arrays;
+
+/**
+ * JavaBeanBlockIndex splits the rows of a smart table into blocks of a fixed
+ * number of rows and keeps a summary of each block, from which a scan can
+ * tell the blocks that can't hold a row passing its filter and skip them.
+ * Block indexes are built once and do not see later changes to the
+ * JavaBeans.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public abstract class JavaBeanBlockIndex {
+
+  final int blockSize;
+  final int rowCount;
+
+  JavaBeanBlockIndex(int blockSize, int rowCount) {
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("Block size must be at least 1");
+    }
+    this.blockSize = blockSize;
+    this.rowCount = rowCount;
+  }
+
+  /**
+   * @return The rows of a block
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public int getBlockCount() {
+    return (rowCount + blockSize - 1) / blockSize;
+  }
+
+  /**
+   * Finds the blocks that may hold rows passing the filter.
+   *
+   * @return A flag for each block, true if it has to be scanned, or null if
+   *         every block has to be scanned
+   */
+  abstract boolean[] blocks(JavaBeanFilter filter);
+
+  /**
+   * Marks a block as skipped in the flags of the blocks to scan, creating
+   * them on the first skipped block.
+   */
+  boolean[] skip(boolean[] scan, int block) {
+    if (scan == null) {
+      scan = new boolean[getBlockCount()];
+      Arrays.fill(scan, true);
+    }
+    scan[block] = false;
+    return scan;
+  }
+
+  /**
+   * @return The number of rows in the blocks to scan
+   */
+  int count(boolean[] blocks) {
+    int count = 0;
+    for (int block = 0; block < blocks.length; block++) {
+      if (blocks[block]) {
+        count += Math.min(blockSize, rowCount - block * blockSize);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return The row numbers of the rows in the blocks to scan, in order
+   */
+  int[] rowPositions(boolean[] blocks) {
+    final int[] positions = new int[count(blocks)];
+    int next = 0;
+    for (int block = 0; block < blocks.length; block++) {
+      if (blocks[block]) {
+        final int end = Math.min(rowCount, (block + 1) * blockSize);
+        for (int row = block * blockSize; row < end; row++) {
+          positions[next++] = row;
+        }
+      }
+    }
+    return positions;
+  }
+
+}
@@ -0,0 +1,151 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * JavaBeanBloomFilter splits the rows of a smart table into blocks of a fixed
+ * number of rows and keeps a Bloom filter of the values of chosen String
+ * columns in each block. A scan skips the blocks whose filters show they
+ * can't hold any value of an equality or IN filter on those columns. Unlike a
+ * zone map it helps on high-cardinality columns whose values are spread over
+ * the table, at the cost of some bits per row and a configurable fraction of
+ * blocks scanned in vain.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanBloomFilter extends JavaBeanBlockIndex {
+
+  static final Logger logger = LoggerFactory
+      .getLogger(JavaBeanBloomFilter.class);
+  private final int[] fields;
+  /** The Bloom filters of the blocks of each chosen field */
+  private final List<List<BloomFilter<CharSequence>>> filters;
+
+  private JavaBeanBloomFilter(int blockSize, int rowCount,
+      double falsePositiveRate, List<Class<?>> fieldTypes, int[] fields) {
+    super(blockSize, rowCount);
+    if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+      throw new IllegalArgumentException(
+          "False positive rate must be between 0 and 1");
+    }
+    this.fields = fields;
+    this.filters = new ArrayList<List<BloomFilter<CharSequence>>>();
+    for (int field : fields) {
+      if (field < 0 || fieldTypes.get(field) != String.class) {
+        throw new IllegalArgumentException(
+            "Bloom filters need String columns");
+      }
+      final List<BloomFilter<CharSequence>> blocks =
+          new ArrayList<BloomFilter<CharSequence>>();
+      for (int block = 0; block < getBlockCount(); block++) {
+        blocks.add(BloomFilter.create(Funnels.unencodedCharsFunnel(),
+            Math.min(blockSize, rowCount - block * blockSize),
+            falsePositiveRate));
+      }
+      filters.add(blocks);
+    }
+  }
+
+  /**
+   * Builds the Bloom filters with one pass over the JavaBean list.
+   *
+   * @param blockSize
+   *          The rows of a block
+   * @param falsePositiveRate
+   *          The chance that a block without a value is not skipped
+   * @param fields
+   *          The String fields to filter
+   */
+  public static JavaBeanBloomFilter of(List<?> javaBeanList,
+      JavaBeanAccessors accessors, int blockSize, double falsePositiveRate,
+      int... fields) {
+    final JavaBeanBloomFilter bloomFilter = new JavaBeanBloomFilter(
+        blockSize, javaBeanList.size(), falsePositiveRate,
+        accessors.getFieldTypes(), fields);
+    int row = 0;
+    for (Object javaBean : javaBeanList) {
+      for (int i = 0; i < fields.length; i++) {
+        bloomFilter.add(i, row, accessors.get(javaBean, fields[i]));
+      }
+      row++;
+    }
+    logger.debug("Built Bloom filters of {} blocks",
+        bloomFilter.getBlockCount());
+    return bloomFilter;
+  }
+
+  /**
+   * Builds the Bloom filters with one pass over each chosen column of a
+   * column store.
+   */
+  public static JavaBeanBloomFilter of(JavaBeanColumnStore columnStore,
+      int blockSize, double falsePositiveRate, int... fields) {
+    final JavaBeanBloomFilter bloomFilter = new JavaBeanBloomFilter(
+        blockSize, columnStore.getRowCount(), falsePositiveRate, columnStore
+            .getAccessors().getFieldTypes(), fields);
+    for (int i = 0; i < fields.length; i++) {
+      final JavaBeanColumn column = columnStore.getColumn(fields[i]);
+      for (int row = 0; row < bloomFilter.rowCount; row++) {
+        bloomFilter.add(i, row, column.get(row));
+      }
+    }
+    logger.debug("Built Bloom filters of {} blocks",
+        bloomFilter.getBlockCount());
+    return bloomFilter;
+  }
+
+  private void add(int i, int row, Object value) {
+    if (value != null) {
+      filters.get(i).get(row / blockSize).put((String) value);
+    }
+  }
+
+  @Override
+  boolean[] blocks(JavaBeanFilter filter) {
+    if (filter == null) {
+      return null;
+    }
+    boolean[] scan = null;
+    for (int i = 0; i < fields.length; i++) {
+      final List<Object> values = filter.getEqualityValues(fields[i]);
+      if (values == null) {
+        continue;
+      }
+      final List<BloomFilter<CharSequence>> blocks = filters.get(i);
+      for (int block = 0; block < blocks.size(); block++) {
+        if ((scan == null || scan[block])
+            && !mayContain(blocks.get(block), values)) {
+          scan = skip(scan, block);
+        }
+      }
+    }
+    return scan;
+  }
+
+  /**
+   * @return False if the block definitely holds none of the values
+   */
+  private static boolean mayContain(BloomFilter<CharSequence> bloomFilter,
+      List<Object> values) {
+    for (Object value : values) {
+      if (!(value instanceof String)) {
+        return true; // can't tell
+      }
+      if (bloomFilter.mightContain((String) value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
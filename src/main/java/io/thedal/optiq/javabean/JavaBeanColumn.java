@@ -0,0 +1,539 @@
+package io.thedal.optiq.javabean;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.eigenbase.sql.SqlKind;
+
+/**
+ * JavaBeanColumn holds the values of one field of every JavaBean of a table in
+ * a primitive array, with a bitmap of the rows holding null. Comparisons are
+ * compiled by the column into a predicate on the row number that reads the
+ * array directly, so filtering a column never boxes its values. String
+ * columns of few distinct values are dictionary encoded: rows hold small
+ * integer codes that filters and GROUP BY work on, and a String is only
+ * looked up for output.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public abstract class JavaBeanColumn {
+
+  /**
+   * A String column is dictionary encoded if its distinct values are at most
+   * this fraction of its rows, or at most MIN_DICTIONARY_SIZE.
+   */
+  static final double MAX_DICTIONARY_FRACTION = 0.5;
+  static final int MIN_DICTIONARY_SIZE = 256;
+
+  /** A filter on the row number of a column store. */
+  public interface RowPredicate {
+    boolean test(int row);
+  }
+
+  protected final BitSet nulls;
+
+  protected JavaBeanColumn(BitSet nulls) {
+    this.nulls = nulls.isEmpty() ? null : nulls;
+  }
+
+  /**
+   * @return true if the field of the row is null
+   */
+  public boolean isNull(int row) {
+    return nulls != null && nulls.get(row);
+  }
+
+  /**
+   * @return The field of the row, as the getter returned it
+   */
+  public abstract Object get(int row);
+
+  /**
+   * Reads a numeric or Date field of a row that is not null, as a long; Dates
+   * read as epoch millis. Columns override it to read without boxing.
+   */
+  public long getLong(int row) {
+    final Object v = get(row);
+    return v instanceof Date ? ((Date) v).getTime() : ((Number) v).longValue();
+  }
+
+  /**
+   * Reads a numeric field of a row that is not null, as a double.
+   */
+  public double getDouble(int row) {
+    return ((Number) get(row)).doubleValue();
+  }
+
+  /**
+   * Compiles the comparison of the column with a JavaBeanFilter literal. The
+   * default reads values as objects; columns override it to compare in their
+   * primitive type.
+   */
+  public RowPredicate comparison(final SqlKind op, final Object literal) {
+    if (literal instanceof Number) {
+      final double value = ((Number) literal).doubleValue();
+      return new RowPredicate() {
+        public boolean test(int row) {
+          final Object v = get(row);
+          return v != null
+              && JavaBeanFilter.test(op,
+                  Double.compare(((Number) v).doubleValue(), value));
+        }
+      };
+    }
+    return new RowPredicate() {
+      @SuppressWarnings("unchecked")
+      public boolean test(int row) {
+        final Object v = get(row);
+        return v != null
+            && JavaBeanFilter.test(op,
+                ((Comparable<Object>) v).compareTo(literal));
+      }
+    };
+  }
+
+  /**
+   * Compiles an IN list of literals on the column. The default tests the
+   * comparisons one after the other.
+   */
+  public RowPredicate in(List<Object> literals) {
+    final RowPredicate[] equals = new RowPredicate[literals.size()];
+    for (int i = 0; i < equals.length; i++) {
+      equals[i] = comparison(SqlKind.EQUALS, literals.get(i));
+    }
+    return new RowPredicate() {
+      public boolean test(int row) {
+        for (RowPredicate equal : equals) {
+          if (equal.test(row)) {
+            return true;
+          }
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @return The number of distinct values of a dictionary encoded column, or
+   *         -1 if the column is not dictionary encoded
+   */
+  public int getDictionarySize() {
+    return -1;
+  }
+
+  /**
+   * Reads the dictionary code of a row that is not null, in a dictionary
+   * encoded column.
+   */
+  public int getCode(int row) {
+    throw new UnsupportedOperationException("Not dictionary encoded");
+  }
+
+  /**
+   * @return The value of a dictionary code
+   */
+  public Object decode(int code) {
+    throw new UnsupportedOperationException("Not dictionary encoded");
+  }
+
+  /**
+   * Compiles a SQL LIKE on the column.
+   */
+  public RowPredicate like(final Pattern regex, final boolean negated) {
+    return new RowPredicate() {
+      public boolean test(int row) {
+        final Object v = get(row);
+        return v != null
+            && regex.matcher((CharSequence) v).matches() != negated;
+      }
+    };
+  }
+
+  /**
+   * Builds the column for a getter return type.
+   *
+   * @param type
+   *          The return type of the getter
+   * @param values
+   *          The field of every JavaBean, in list order
+   */
+  public static JavaBeanColumn of(Class<?> type, List<Object> values) {
+    final BitSet nulls = new BitSet(values.size());
+    for (int i = 0; i < values.size(); i++) {
+      if (values.get(i) == null) {
+        nulls.set(i);
+      }
+    }
+    if (type == Integer.class) {
+      final int[] ints = new int[values.size()];
+      for (int i = 0; i < ints.length; i++) {
+        ints[i] = nulls.get(i) ? 0 : (Integer) values.get(i);
+      }
+      return new IntColumn(ints, nulls);
+    } else if (type == Long.class) {
+      final long[] longs = new long[values.size()];
+      for (int i = 0; i < longs.length; i++) {
+        longs[i] = nulls.get(i) ? 0 : (Long) values.get(i);
+      }
+      return new LongColumn(longs, nulls);
+    } else if (type == Double.class) {
+      final double[] doubles = new double[values.size()];
+      for (int i = 0; i < doubles.length; i++) {
+        doubles[i] = nulls.get(i) ? 0 : (Double) values.get(i);
+      }
+      return new DoubleColumn(doubles, nulls);
+    } else if (type == Float.class) {
+      final float[] floats = new float[values.size()];
+      for (int i = 0; i < floats.length; i++) {
+        floats[i] = nulls.get(i) ? 0 : (Float) values.get(i);
+      }
+      return new FloatColumn(floats, nulls);
+    } else if (type == Date.class) {
+      final long[] millis = new long[values.size()];
+      for (int i = 0; i < millis.length; i++) {
+        millis[i] = nulls.get(i) ? 0 : ((Date) values.get(i)).getTime();
+      }
+      return new DateColumn(millis, nulls);
+    } else if (type == String.class) {
+      final JavaBeanColumn column = DictionaryColumn.of(values, nulls);
+      if (column != null) {
+        return column;
+      }
+    }
+    return new ObjectColumn(values.toArray(), nulls);
+  }
+
+  /** Integer column. */
+  static final class IntColumn extends JavaBeanColumn {
+    final int[] values;
+
+    IntColumn(int[] values, BitSet nulls) {
+      super(nulls);
+      this.values = values;
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : values[row];
+    }
+
+    @Override
+    public long getLong(int row) {
+      return values[row];
+    }
+
+    @Override
+    public double getDouble(int row) {
+      return values[row];
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      if (!(literal instanceof Long)) {
+        return super.comparison(op, literal);
+      }
+      final long value = (Long) literal;
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op, Long.compare(values[row], value));
+        }
+      };
+    }
+  }
+
+  /** Long column. */
+  static final class LongColumn extends JavaBeanColumn {
+    final long[] values;
+
+    LongColumn(long[] values, BitSet nulls) {
+      super(nulls);
+      this.values = values;
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : values[row];
+    }
+
+    @Override
+    public long getLong(int row) {
+      return values[row];
+    }
+
+    @Override
+    public double getDouble(int row) {
+      return values[row];
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      if (!(literal instanceof Long)) {
+        return super.comparison(op, literal);
+      }
+      final long value = (Long) literal;
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op, Long.compare(values[row], value));
+        }
+      };
+    }
+  }
+
+  /** Double column. */
+  static final class DoubleColumn extends JavaBeanColumn {
+    final double[] values;
+
+    DoubleColumn(double[] values, BitSet nulls) {
+      super(nulls);
+      this.values = values;
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : values[row];
+    }
+
+    @Override
+    public double getDouble(int row) {
+      return values[row];
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      final double value = ((Number) literal).doubleValue();
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op, Double.compare(values[row], value));
+        }
+      };
+    }
+  }
+
+  /** Float column. */
+  static final class FloatColumn extends JavaBeanColumn {
+    final float[] values;
+
+    FloatColumn(float[] values, BitSet nulls) {
+      super(nulls);
+      this.values = values;
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : values[row];
+    }
+
+    @Override
+    public double getDouble(int row) {
+      return values[row];
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      final double value = ((Number) literal).doubleValue();
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op, Double.compare(values[row], value));
+        }
+      };
+    }
+  }
+
+  /** Date column, held as epoch millis. */
+  static final class DateColumn extends JavaBeanColumn {
+    final long[] millis;
+
+    DateColumn(long[] millis, BitSet nulls) {
+      super(nulls);
+      this.millis = millis;
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : new Date(millis[row]);
+    }
+
+    @Override
+    public long getLong(int row) {
+      return millis[row];
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      final long value = ((Number) literal).longValue();
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op, Long.compare(millis[row], value));
+        }
+      };
+    }
+  }
+
+  /**
+   * String column, dictionary encoded. The dictionary is sorted, so codes
+   * compare like their values and a comparison with a literal is a binary
+   * search followed by integer comparisons. Each distinct value is held once,
+   * and every row of the value reads the same String.
+   */
+  static final class DictionaryColumn extends JavaBeanColumn {
+    final int[] codes;
+    final String[] dictionary;
+
+    DictionaryColumn(int[] codes, String[] dictionary, BitSet nulls) {
+      super(nulls);
+      this.codes = codes;
+      this.dictionary = dictionary;
+    }
+
+    /**
+     * Encodes the values of a String column.
+     *
+     * @return The column, or null if the column has too many distinct values
+     *         to be worth encoding
+     */
+    static DictionaryColumn of(List<Object> values, BitSet nulls) {
+      final int maxSize = Math.max(MIN_DICTIONARY_SIZE,
+          (int) (values.size() * MAX_DICTIONARY_FRACTION));
+      final Map<String, Integer> codeMap = new HashMap<String, Integer>();
+      final int[] codes = new int[values.size()];
+      for (int i = 0; i < codes.length; i++) {
+        if (nulls.get(i)) {
+          continue;
+        }
+        final String value = (String) values.get(i);
+        Integer code = codeMap.get(value);
+        if (code == null) {
+          if (codeMap.size() == maxSize) {
+            return null;
+          }
+          code = codeMap.size();
+          codeMap.put(value, code);
+        }
+        codes[i] = code;
+      }
+      final String[] dictionary = new String[codeMap.size()];
+      for (Map.Entry<String, Integer> entry : codeMap.entrySet()) {
+        dictionary[entry.getValue()] = entry.getKey();
+      }
+      final String[] sorted = dictionary.clone();
+      Arrays.sort(sorted);
+      final int[] sortedCodes = new int[sorted.length];
+      for (int code = 0; code < sorted.length; code++) {
+        sortedCodes[codeMap.get(sorted[code])] = code;
+      }
+      for (int i = 0; i < codes.length; i++) {
+        codes[i] = sortedCodes[codes[i]];
+      }
+      return new DictionaryColumn(codes, sorted, nulls);
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : dictionary[codes[row]];
+    }
+
+    @Override
+    public int getDictionarySize() {
+      return dictionary.length;
+    }
+
+    @Override
+    public int getCode(int row) {
+      return codes[row];
+    }
+
+    @Override
+    public Object decode(int code) {
+      return dictionary[code];
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      // Twice the code of the literal, or between twice the codes around it
+      // if it is not in the dictionary, so doubled codes compare with it
+      // like their values do.
+      final int found = Arrays.binarySearch(dictionary, (String) literal);
+      final int bound = found >= 0 ? 2 * found : 2 * (-found - 1) - 1;
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op,
+                  Integer.compare(2 * codes[row], bound));
+        }
+      };
+    }
+
+    @Override
+    public RowPredicate in(List<Object> literals) {
+      final boolean[] matches = new boolean[dictionary.length];
+      for (Object literal : literals) {
+        final int code = Arrays.binarySearch(dictionary, (String) literal);
+        if (code >= 0) {
+          matches[code] = true;
+        }
+      }
+      return codePredicate(matches);
+    }
+
+    @Override
+    public RowPredicate like(Pattern regex, boolean negated) {
+      final boolean[] matches = new boolean[dictionary.length];
+      for (int i = 0; i < dictionary.length; i++) {
+        matches[i] = regex.matcher(dictionary[i]).matches() != negated;
+      }
+      return codePredicate(matches);
+    }
+
+    private RowPredicate codePredicate(final boolean[] matches) {
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row) && matches[codes[row]];
+        }
+      };
+    }
+  }
+
+  /** Column of any other type, held as objects. */
+  static final class ObjectColumn extends JavaBeanColumn {
+    final Object[] values;
+
+    ObjectColumn(Object[] values, BitSet nulls) {
+      super(nulls);
+      this.values = values;
+    }
+
+    @Override
+    public Object get(int row) {
+      return values[row];
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      if (!(literal instanceof Number)) {
+        return super.comparison(op, literal);
+      }
+      // Other numbers have their own columns, so this is a BigDecimal.
+      final BigDecimal value = JavaBeanFilter.toBigDecimal((Number) literal);
+      return new RowPredicate() {
+        public boolean test(int row) {
+          final Object v = values[row];
+          return v != null
+              && JavaBeanFilter.test(op, ((BigDecimal) v).compareTo(value));
+        }
+      };
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+package io.thedal.optiq.javabean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.hydromatic.linq4j.Enumerator;
+
+/**
+ * JavaBeanColumnEnumerator enumerates the rows of a column store. Like
+ * JavaBeanEnumerator, rows are formed lazily and only for row numbers that pass
+ * the filter, which reads the columns it needs and nothing else.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanColumnEnumerator implements Enumerator<Object> {
+
+  static final Logger logger = LoggerFactory
+      .getLogger(JavaBeanColumnEnumerator.class);
+  private final JavaBeanColumnStore columnStore;
+  private final int[] rowPositions;
+  private final int[] projectFields;
+  private final JavaBeanColumn.RowPredicate filter;
+  private final int end;
+  private int next;
+  private Object current;
+
+  /**
+   * Constructor
+   *
+   * @param columnStore
+   *          The column store
+   * @param rowPositions
+   *          Row numbers to visit, null visits every row.
+   * @param projectFields
+   *          The column ordinals in the select clause of query.
+   * @param filter
+   *          The compiled filter, null selects all rows.
+   */
+  public JavaBeanColumnEnumerator(JavaBeanColumnStore columnStore,
+      int[] rowPositions, int[] projectFields,
+      JavaBeanColumn.RowPredicate filter) {
+    this.columnStore = columnStore;
+    this.rowPositions = rowPositions;
+    this.projectFields = projectFields;
+    this.filter = filter;
+    this.end = rowPositions == null ? columnStore.getRowCount()
+        : rowPositions.length;
+    logger.debug("Created a column enumerator with projects");
+  }
+
+  @Override
+  public Object current() {
+    return current;
+  }
+
+  @Override
+  public boolean moveNext() {
+    while (next < end) {
+      final int row = rowPositions == null ? next : rowPositions[next];
+      next++;
+      if (filter == null || filter.test(row)) {
+        current = columnStore.getRow(row, projectFields);
+        return true;
+      }
+    }
+    current = null;
+    return false;
+  }
+
+  @Override
+  public void reset() {
+    next = 0;
+    current = null;
+  }
+
+  @Override
+  public void close() {
+    next = end;
+    current = null;
+  }
+
+}
@@ -0,0 +1,102 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JavaBeanColumnStore is a columnar snapshot of a JavaBean list: every eligible
+ * field becomes a JavaBeanColumn, in the column order of the accessors. The
+ * snapshot is taken once; later changes to the list or its JavaBeans are not
+ * seen. Row numbers are the positions in the list, so indexes built over the
+ * list apply to the snapshot as well.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanColumnStore {
+
+  static final Logger logger = LoggerFactory
+      .getLogger(JavaBeanColumnStore.class);
+  private final JavaBeanAccessors accessors;
+  private final int rowCount;
+  private final JavaBeanColumn[] columns;
+
+  public JavaBeanColumnStore(JavaBeanAccessors accessors, int rowCount,
+      JavaBeanColumn[] columns) {
+    this.accessors = accessors;
+    this.rowCount = rowCount;
+    this.columns = columns;
+  }
+
+  /**
+   * Takes a columnar snapshot of a JavaBean list.
+   *
+   * @param javaBeanList
+   *          A List of JavaBeans of same type
+   * @param accessors
+   *          The accessors of the bean class
+   * @return The snapshot
+   */
+  public static JavaBeanColumnStore of(List<?> javaBeanList,
+      JavaBeanAccessors accessors) {
+    final JavaBeanColumn[] columns = new JavaBeanColumn[accessors
+        .getFieldCount()];
+    final List<Object> values = new ArrayList<Object>(javaBeanList.size());
+    for (int field = 0; field < columns.length; field++) {
+      values.clear();
+      for (Object javaBean : javaBeanList) {
+        values.add(accessors.get(javaBean, field));
+      }
+      columns[field] = JavaBeanColumn.of(
+          accessors.getFieldTypes().get(field), values);
+    }
+    logger.debug("Created column store of {} rows for: {}",
+        javaBeanList.size(), accessors.getBeanClass().getName());
+    return new JavaBeanColumnStore(accessors, javaBeanList.size(), columns);
+  }
+
+  /**
+   * @return The accessors of the bean class the columns were taken from
+   */
+  public JavaBeanAccessors getAccessors() {
+    return accessors;
+  }
+
+  /**
+   * @return The number of rows
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @return The column of a field
+   */
+  public JavaBeanColumn getColumn(int field) {
+    return columns[field];
+  }
+
+  /**
+   * Frees what the store holds outside the heap, once the schema has replaced
+   * it. A store on the heap holds nothing to free.
+   */
+  void release() {
+  }
+
+  /**
+   * Forms a row holding the projected fields, in the order they are given.
+   */
+  public Object[] getRow(int row, int[] projectFields) {
+    final Object[] values = new Object[projectFields.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = columns[projectFields[i]].get(row);
+    }
+    return values;
+  }
+
+}
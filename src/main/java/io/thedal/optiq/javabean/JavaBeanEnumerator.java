@@ -1,23 +1,23 @@
 package io.thedal.optiq.javabean;
 
-import io.thedal.optiq.javabean.utils.JavaBeanInspector;
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.function.Predicate1;
 
 /**
  * JavaBeanEnumerator converts a JavaBean List into rows. A Row is an Object
- * array of columns. The iterator over every row is called rows.
- * 
+ * array of columns. Rows are formed lazily, one JavaBean per moveNext(), so
+ * nothing is materialized ahead of the consumer and a reset() simply walks the
+ * list again.
+ *
  * @author Abishek Baskaran
  *
  */
@@ -25,109 +25,110 @@ public class JavaBeanEnumerator implements Enumerator<Object> {
 
   static final Logger logger = LoggerFactory
       .getLogger(JavaBeanEnumerator.class);
+  private final List<?> javaBeanList;
+  /** Resolved on the first JavaBean, as the list may be empty until then */
+  private JavaBeanAccessors accessors;
+  private final int[] rowPositions;
+  private final int[] projectFields;
+  private final Predicate1<Object> filter;
+  private Iterator<?> beanIterator;
   private Object current;
-  private Iterator<Object[]> rowIterator;
 
   /**
-   * Constructor - forms the row iterator.
-   * 
+   * Constructor - enumerates all the fields of every JavaBean.
+   *
    * @param javaBeanList
    */
   public <E> JavaBeanEnumerator(List<E> javaBeanList) {
-    List<Object[]> rows = new ArrayList<Object[]>();
-    for (Object javaBean : javaBeanList) {
-      rows.add(getRow(javaBean));
-    }
-    rowIterator = rows.iterator();
-    logger.debug("Created an iterator for the enumerator");
+    this(javaBeanList, null, null);
+    logger.debug("Created an enumerator over all fields");
   }
 
   /**
    * This constructor is for a smart table. Projection fields will tell what
    * columns or fields are required. Filter will select rows.
-   * 
+   *
    * @param javaBeanList
    *          The JavaBean list
-   * @param projectionFields
-   *          The fields or columns in the select clause of query.
+   * @param projectFields
+   *          The column ordinals in the select clause of query, in the order
+   *          the row type of the scan reports them. Null projects all fields.
+   * @param filter
+   *          The compiled filter, null selects all JavaBeans.
    */
-  public <E> JavaBeanEnumerator(List<E> javaBeanList,
-      Set<String> projectFieldNames, String filterExpression) {
-    List<Object[]> rows = new ArrayList<Object[]>();
-    // This is where the query push down happens.
-    // In this example query push down is in the same program, but
-    // in real world case a method on the data source will be called
-    // to push down the query.
-    for (Object javaBean : javaBeanList) {
-      if (filterJavaBean(javaBean, filterExpression))
-        rows.add(getProjectedRow(javaBean, projectFieldNames));
+  public <E> JavaBeanEnumerator(List<E> javaBeanList, int[] projectFields,
+      Predicate1<Object> filter) {
+    this(javaBeanList, null, projectFields, filter);
+  }
+
+  /**
+   * This constructor is for an index probe on a smart table: only the JavaBeans
+   * at the given positions are visited, in the given order.
+   *
+   * @param javaBeanList
+   *          The JavaBean list
+   * @param rowPositions
+   *          Positions in the list to visit, null visits the whole list.
+   * @param projectFields
+   *          The column ordinals in the select clause of query.
+   * @param filter
+   *          The compiled filter, null selects all JavaBeans.
+   */
+  public <E> JavaBeanEnumerator(List<E> javaBeanList, int[] rowPositions,
+      int[] projectFields, Predicate1<Object> filter) {
+    this.javaBeanList = javaBeanList == null ? Collections.<E> emptyList()
+        : javaBeanList;
+    this.rowPositions = rowPositions;
+    this.projectFields = projectFields;
+    this.filter = filter;
+    this.beanIterator = newBeanIterator();
+    logger.debug("Created an enumerator with projects");
+  }
+
+  private Iterator<?> newBeanIterator() {
+    if (rowPositions == null) {
+      return javaBeanList.iterator();
     }
-    // Query push down ends
-    rowIterator = rows.iterator();
-    logger.debug("Created an iterator for the enumerator with projects");
+    return new Iterator<Object>() {
+      private int i = 0;
+
+      public boolean hasNext() {
+        return i < rowPositions.length;
+      }
+
+      public Object next() {
+        return javaBeanList.get(rowPositions[i++]);
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
   }
 
   /**
    * This method will return true if the JavaBean passes the filter condition.
-   * 
+   *
    * @param javaBean
    *          The java bean object
-   * @param filterExpression
    * @return return true on filter condition pass
    */
-  private boolean filterJavaBean(Object javaBean, String filterExpression) {
-    // TODO Auto-generated method stub
-    return true;
+  private boolean filterJavaBean(Object javaBean) {
+    return filter == null || filter.apply(javaBean);
   }
 
-  private Object[] getProjectedRow(Object javaBean,
-      Set<String> projectFieldNames) {
-    List<Object> row = new ArrayList<Object>();
-    Class clazz = javaBean.getClass();
-    Method[] methods = clazz.getMethods();
-    for (Method method : methods) {
-      if (JavaBeanInspector.checkMethodEligiblity(method)) {
-        if (projectFieldNames.contains(method.getName().substring(3))) {
-          try {
-            row.add(method.invoke(javaBean));
-          } catch (IllegalAccessException e) {
-            logger.error("Unable to invoke method via reflection");
-          } catch (IllegalArgumentException e) {
-            logger.error("Unable to invoke method via reflection");
-          } catch (InvocationTargetException e) {
-            logger.error("Unable to invoke method via reflection");
-          }
-        }
-      }
+  private Object[] getProjectedRow(Object javaBean) {
+    if (accessors == null) {
+      accessors = JavaBeanAccessors.of(javaBean.getClass());
     }
-    logger.debug("Formed projected row is: " + row);
-    return row.toArray();
-  }
-
-  private Object[] getRow(Object javaBean) {
-    List<Object> row = new ArrayList<Object>();
-    Class clazz = javaBean.getClass();
-    Method[] methods = clazz.getMethods();
-    for (Method method : methods) {
-      if (JavaBeanInspector.checkMethodEligiblity(method)) {
-        try {
-          row.add(method.invoke(javaBean));
-        } catch (IllegalAccessException e) {
-          logger.error("Unable to invoke method via reflection");
-        } catch (IllegalArgumentException e) {
-          logger.error("Unable to invoke method via reflection");
-        } catch (InvocationTargetException e) {
-          logger.error("Unable to invoke method via reflection");
-        }
-      }
-    }
-    logger.debug("Formed row is: " + row);
-    return row.toArray();
+    return projectFields == null ? accessors.getRow(javaBean) : accessors
+        .getRow(javaBean, projectFields);
   }
 
   @Override
   public void close() {
-    // Nothing to do
+    beanIterator = Collections.emptyIterator();
+    current = null;
   }
 
   @Override
@@ -140,19 +141,24 @@ public class JavaBeanEnumerator implements Enumerator<Object> {
 
   @Override
   public boolean moveNext() {
-    if (this.rowIterator.hasNext()) {
-      final Object[] row = this.rowIterator.next();
-      current = row;
-      return true;
-    } else {
-      current = null;
-      return false;
+    // This is where the query push down happens: beans are filtered and
+    // projected one at a time as the consumer asks for them, so a bean
+    // that fails the filter never gets a row array.
+    while (beanIterator.hasNext()) {
+      final Object javaBean = beanIterator.next();
+      if (filterJavaBean(javaBean)) {
+        current = getProjectedRow(javaBean);
+        return true;
+      }
     }
+    current = null;
+    return false;
   }
 
   @Override
   public void reset() {
-    throw new UnsupportedOperationException();
+    beanIterator = newBeanIterator();
+    current = null;
   }
 
   public static int[] identityList(int fieldCount) {
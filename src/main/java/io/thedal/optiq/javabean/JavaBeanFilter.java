@@ -0,0 +1,882 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import net.hydromatic.linq4j.expressions.Expression;
+import net.hydromatic.linq4j.expressions.Expressions;
+import net.hydromatic.linq4j.function.Predicate1;
+import net.hydromatic.optiq.DataContext;
+
+import org.eigenbase.sql.SqlKind;
+
+/**
+ * JavaBeanFilter is the predicate tree pushed down to a smart table. Fields are
+ * referred to by their column ordinal in the table. The tree is built by
+ * JavaBeanPushDownRule, carried to the generated code by toExpression() and
+ * compiled once per scan into a predicate over the cached getters of the bean,
+ * or over the columns of a column store.
+ *
+ * NOT is not a node of the tree: negations are pushed down to the leaves when
+ * the tree is built, so that a comparison with a null field is false whatever
+ * the polarity, as in SQL.
+ *
+ * A comparison may be with a dynamic parameter ("?") of a prepared statement
+ * instead of a literal. Its generated code reads the bound value from the
+ * DataContext each time the statement is executed, so one plan serves every
+ * binding. Index lookups are chosen at plan time and so are not used for
+ * such comparisons.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public abstract class JavaBeanFilter {
+
+  private static final Predicate1<Object> NONE = new Predicate1<Object>() {
+    public boolean apply(Object javaBean) {
+      return false;
+    }
+  };
+
+  private static final JavaBeanColumn.RowPredicate NO_ROWS = new JavaBeanColumn.RowPredicate() {
+    public boolean test(int row) {
+      return false;
+    }
+  };
+
+  /**
+   * Compiles the filter into a predicate over JavaBeans.
+   *
+   * @param accessors
+   *          The accessors of the bean class being scanned
+   * @return A predicate that returns true when the bean passes the filter
+   */
+  public abstract Predicate1<Object> compile(JavaBeanAccessors accessors);
+
+  /**
+   * Compiles the filter into a predicate over the rows of a column store.
+   *
+   * @param columnStore
+   *          The column store being scanned
+   * @return A predicate that returns true when the row passes the filter
+   */
+  public abstract JavaBeanColumn.RowPredicate compile(
+      JavaBeanColumnStore columnStore);
+
+  /**
+   * @return The filter that selects the rows this filter rejects, nulls aside
+   */
+  public abstract JavaBeanFilter negate();
+
+  /**
+   * @return An expression that rebuilds this filter in generated code
+   */
+  public abstract Expression toExpression();
+
+  /**
+   * Returns the literals a field must equal for the filter to pass: an EQUALS
+   * on the field, an OR of those (which is how IN lists arrive), or an AND
+   * where one of the conjuncts is one of those.
+   *
+   * @param field
+   *          The column ordinal
+   * @return The literals, or null if the filter does not restrict the field
+   *         to a finite set of values
+   */
+  abstract List<Object> getEqualityValues(int field);
+
+  /**
+   * Returns the range a numeric or date field must be within for the filter to
+   * pass. Comparisons give a bound, an AND intersects ranges and an OR spans
+   * them, so the range may hold more than the filter passes but never less.
+   *
+   * @param field
+   *          The column ordinal
+   * @return The range, or null if the filter does not restrict the field
+   */
+  abstract Range getRange(int field);
+
+  /**
+   * Estimates the fraction of the rows of a table that pass the filter.
+   */
+  abstract double selectivity(JavaBeanStatistics statistics);
+
+  /**
+   * Creates a conjunction, either side may be null.
+   */
+  public static JavaBeanFilter and(JavaBeanFilter left, JavaBeanFilter right) {
+    if (left == null) {
+      return right;
+    }
+    if (right == null) {
+      return left;
+    }
+    return new Junction(true, left, right);
+  }
+
+  /**
+   * Creates a disjunction.
+   */
+  public static JavaBeanFilter or(JavaBeanFilter left, JavaBeanFilter right) {
+    return new Junction(false, left, right);
+  }
+
+  /**
+   * Creates a comparison of a field with a literal.
+   *
+   * @param op
+   *          One of EQUALS, NOT_EQUALS, LESS_THAN, LESS_THAN_OR_EQUAL,
+   *          GREATER_THAN or GREATER_THAN_OR_EQUAL
+   * @param field
+   *          The column ordinal
+   * @param value
+   *          A Long, Double, String or Boolean literal; dates are epoch millis
+   */
+  public static JavaBeanFilter compare(SqlKind op, int field, Object value) {
+    return new Comparison(op, field, value);
+  }
+
+  /**
+   * Creates a comparison of a field with a dynamic parameter, whose value is
+   * bound when the prepared statement is executed.
+   *
+   * @param index
+   *          The 0-based ordinal of the parameter in the statement
+   */
+  public static JavaBeanFilter compareParameter(SqlKind op, int field,
+      int index) {
+    return new Comparison(op, field, new Parameter(index));
+  }
+
+  /**
+   * Converts the value bound to a dynamic parameter into the form of a pushed
+   * down literal: integral numbers become Long, other numbers Double and dates
+   * epoch millis. Called by generated code on each execution.
+   */
+  public static Object parameterValue(Object value) {
+    if (value instanceof Long || value instanceof Integer
+        || value instanceof Short || value instanceof Byte) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof BigDecimal) {
+      final BigDecimal decimal = (BigDecimal) value;
+      try {
+        return decimal.longValueExact();
+      } catch (ArithmeticException e) {
+        return decimal.doubleValue();
+      }
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    if (value instanceof Date) {
+      return ((Date) value).getTime();
+    }
+    if (value instanceof Calendar) {
+      return ((Calendar) value).getTimeInMillis();
+    }
+    return value;
+  }
+
+  /**
+   * Creates a SQL LIKE match of a String field with a pattern.
+   */
+  public static JavaBeanFilter like(int field, String pattern, boolean negated) {
+    return new Like(field, pattern, negated);
+  }
+
+  /**
+   * Checks if a literal can be compared with a field of the given type.
+   *
+   * @param fieldType
+   *          The return type of the getter
+   * @param value
+   *          The literal
+   * @return true if compile() knows how to compare them
+   */
+  public static boolean isComparable(Class<?> fieldType, Object value) {
+    if (value instanceof Parameter) {
+      // checked against the bound value when the statement is executed
+      return Comparable.class.isAssignableFrom(fieldType);
+    }
+    if (value instanceof String) {
+      return fieldType == String.class;
+    }
+    if (value instanceof Long) {
+      return Number.class.isAssignableFrom(fieldType)
+          || Date.class.isAssignableFrom(fieldType);
+    }
+    if (value instanceof Number) {
+      return Number.class.isAssignableFrom(fieldType);
+    }
+    return (value instanceof Comparable) && fieldType.isInstance(value);
+  }
+
+  /**
+   * Converts a Long or Double literal to a BigDecimal, to compare it exactly
+   * with a BigDecimal field.
+   */
+  static BigDecimal toBigDecimal(Number value) {
+    if (value instanceof BigDecimal) {
+      return (BigDecimal) value;
+    }
+    return value instanceof Long || value instanceof Integer ? BigDecimal
+        .valueOf(value.longValue()) : BigDecimal.valueOf(value.doubleValue());
+  }
+
+  static boolean isIntegral(Class<?> type) {
+    return type == Integer.class || type == Long.class || type == Short.class
+        || type == Byte.class;
+  }
+
+  /**
+   * Applies a comparison operator to the result of a compareTo.
+   */
+  static boolean test(SqlKind op, int c) {
+    switch (op) {
+    case EQUALS:
+      return c == 0;
+    case NOT_EQUALS:
+      return c != 0;
+    case LESS_THAN:
+      return c < 0;
+    case LESS_THAN_OR_EQUAL:
+      return c <= 0;
+    case GREATER_THAN:
+      return c > 0;
+    case GREATER_THAN_OR_EQUAL:
+      return c >= 0;
+    default:
+      throw new IllegalArgumentException("Not a comparison: " + op);
+    }
+  }
+
+  /**
+   * Returns the operator that gives the same result when the operands are
+   * swapped, so that "29 > Age" can be read as "Age < 29".
+   */
+  static SqlKind reverse(SqlKind op) {
+    switch (op) {
+    case LESS_THAN:
+      return SqlKind.GREATER_THAN;
+    case LESS_THAN_OR_EQUAL:
+      return SqlKind.GREATER_THAN_OR_EQUAL;
+    case GREATER_THAN:
+      return SqlKind.LESS_THAN;
+    case GREATER_THAN_OR_EQUAL:
+      return SqlKind.LESS_THAN_OR_EQUAL;
+    default:
+      return op;
+    }
+  }
+
+  static SqlKind negate(SqlKind op) {
+    switch (op) {
+    case EQUALS:
+      return SqlKind.NOT_EQUALS;
+    case NOT_EQUALS:
+      return SqlKind.EQUALS;
+    case LESS_THAN:
+      return SqlKind.GREATER_THAN_OR_EQUAL;
+    case LESS_THAN_OR_EQUAL:
+      return SqlKind.GREATER_THAN;
+    case GREATER_THAN:
+      return SqlKind.LESS_THAN_OR_EQUAL;
+    case GREATER_THAN_OR_EQUAL:
+      return SqlKind.LESS_THAN;
+    default:
+      throw new IllegalArgumentException("Not a comparison: " + op);
+    }
+  }
+
+  /**
+   * Range of a numeric or date field; a null bound is unbounded. Bounds are the
+   * filter literals, Long or Double, with dates in epoch millis.
+   */
+  public static final class Range {
+    final Number lower;
+    final boolean lowerInclusive;
+    final Number upper;
+    final boolean upperInclusive;
+
+    Range(Number lower, boolean lowerInclusive, Number upper,
+        boolean upperInclusive) {
+      this.lower = lower;
+      this.lowerInclusive = lowerInclusive;
+      this.upper = upper;
+      this.upperInclusive = upperInclusive;
+    }
+
+    /**
+     * @return The values within both ranges
+     */
+    Range intersect(Range other) {
+      Number lo = lower;
+      boolean loInclusive = lowerInclusive;
+      int c = compareBounds(other.lower, lo, false);
+      if (c > 0 || (c == 0 && !other.lowerInclusive)) {
+        lo = other.lower;
+        loInclusive = other.lowerInclusive;
+      }
+      Number hi = upper;
+      boolean hiInclusive = upperInclusive;
+      c = compareBounds(other.upper, hi, true);
+      if (c < 0 || (c == 0 && !other.upperInclusive)) {
+        hi = other.upper;
+        hiInclusive = other.upperInclusive;
+      }
+      return new Range(lo, loInclusive, hi, hiInclusive);
+    }
+
+    /**
+     * @return The smallest range holding both ranges
+     */
+    Range span(Range other) {
+      Number lo = lower;
+      boolean loInclusive = lowerInclusive;
+      if (lo != null) {
+        int c = compareBounds(other.lower, lo, false);
+        if (c < 0 || (c == 0 && other.lowerInclusive)) {
+          lo = other.lower;
+          loInclusive = other.lowerInclusive;
+        }
+      }
+      Number hi = upper;
+      boolean hiInclusive = upperInclusive;
+      if (hi != null) {
+        int c = compareBounds(other.upper, hi, true);
+        if (c > 0 || (c == 0 && other.upperInclusive)) {
+          hi = other.upper;
+          hiInclusive = other.upperInclusive;
+        }
+      }
+      return new Range(lo, loInclusive, hi, hiInclusive);
+    }
+
+    /**
+     * @return False if a field value, a number or a date, is outside the
+     *         range; true if it is within it or can't be compared with it
+     */
+    boolean contains(Object value) {
+      final Object bound = parameterValue(value);
+      if (!(bound instanceof Number)) {
+        return true;
+      }
+      int c = compareBounds((Number) bound, lower, false);
+      if (c < 0 || (c == 0 && !lowerInclusive)) {
+        return false;
+      }
+      c = compareBounds((Number) bound, upper, true);
+      return c < 0 || (c == 0 && upperInclusive);
+    }
+
+    /**
+     * @return False if no value from min to max is within the range
+     */
+    boolean overlaps(Number min, Number max) {
+      int c = compareBounds(upper, min, true);
+      if (c < 0 || (c == 0 && !upperInclusive)) {
+        return false;
+      }
+      c = compareBounds(lower, max, false);
+      return c < 0 || (c == 0 && lowerInclusive);
+    }
+
+    /**
+     * Compares two bounds, a null lower bound being the smallest and a null
+     * upper bound the largest.
+     */
+    private static int compareBounds(Number a, Number b, boolean upper) {
+      if (a == null || b == null) {
+        if (a == b) {
+          return 0;
+        }
+        return (a == null) == upper ? 1 : -1;
+      }
+      if (a instanceof Long && b instanceof Long) {
+        return Long.compare(a.longValue(), b.longValue());
+      }
+      return Double.compare(a.doubleValue(), b.doubleValue());
+    }
+
+    @Override
+    public String toString() {
+      return (lowerInclusive ? "[" : "(") + (lower == null ? "-inf" : lower)
+          + ", " + (upper == null ? "+inf" : upper)
+          + (upperInclusive ? "]" : ")");
+    }
+  }
+
+  /** AND or OR of two filters. */
+  static final class Junction extends JavaBeanFilter {
+    final boolean and;
+    final JavaBeanFilter left;
+    final JavaBeanFilter right;
+
+    Junction(boolean and, JavaBeanFilter left, JavaBeanFilter right) {
+      this.and = and;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public Predicate1<Object> compile(JavaBeanAccessors accessors) {
+      final Predicate1<Object> l = left.compile(accessors);
+      final Predicate1<Object> r = right.compile(accessors);
+      if (and) {
+        return new Predicate1<Object>() {
+          public boolean apply(Object javaBean) {
+            return l.apply(javaBean) && r.apply(javaBean);
+          }
+        };
+      }
+      return new Predicate1<Object>() {
+        public boolean apply(Object javaBean) {
+          return l.apply(javaBean) || r.apply(javaBean);
+        }
+      };
+    }
+
+    @Override
+    public JavaBeanColumn.RowPredicate compile(JavaBeanColumnStore columnStore) {
+      final JavaBeanColumn.RowPredicate in = and ? null
+          : compileIn(columnStore);
+      if (in != null) {
+        return in;
+      }
+      final JavaBeanColumn.RowPredicate l = left.compile(columnStore);
+      final JavaBeanColumn.RowPredicate r = right.compile(columnStore);
+      if (and) {
+        return new JavaBeanColumn.RowPredicate() {
+          public boolean test(int row) {
+            return l.test(row) && r.test(row);
+          }
+        };
+      }
+      return new JavaBeanColumn.RowPredicate() {
+        public boolean test(int row) {
+          return l.test(row) || r.test(row);
+        }
+      };
+    }
+
+    /**
+     * Compiles an OR of EQUALS on a dictionary encoded String column, which is
+     * how IN lists arrive, into one lookup of the row's code.
+     *
+     * @return The predicate, or null if the filter is not such an OR
+     */
+    private JavaBeanColumn.RowPredicate compileIn(
+        JavaBeanColumnStore columnStore) {
+      JavaBeanFilter first = this;
+      while (first instanceof Junction) {
+        first = ((Junction) first).left;
+      }
+      if (!(first instanceof Comparison)) {
+        return null;
+      }
+      final int field = ((Comparison) first).field;
+      final JavaBeanColumn column = columnStore.getColumn(field);
+      final List<Object> literals = inList(this, field);
+      if (column.getDictionarySize() < 0 || literals == null) {
+        return null;
+      }
+      for (Object literal : literals) {
+        if (!(literal instanceof String)) {
+          return null;
+        }
+      }
+      return column.in(literals);
+    }
+
+    /**
+     * @return The literals if the filter is an OR of EQUALS on the field,
+     *         otherwise null
+     */
+    private static List<Object> inList(JavaBeanFilter filter, int field) {
+      if (filter instanceof Comparison) {
+        return filter.getEqualityValues(field);
+      }
+      if (!(filter instanceof Junction) || ((Junction) filter).and) {
+        return null;
+      }
+      final List<Object> l = inList(((Junction) filter).left, field);
+      final List<Object> r = inList(((Junction) filter).right, field);
+      if (l == null || r == null) {
+        return null;
+      }
+      final List<Object> literals = new ArrayList<Object>(l);
+      literals.addAll(r);
+      return literals;
+    }
+
+    @Override
+    List<Object> getEqualityValues(int field) {
+      final List<Object> l = left.getEqualityValues(field);
+      final List<Object> r = right.getEqualityValues(field);
+      if (and) {
+        return l != null ? l : r;
+      }
+      if (l == null || r == null) {
+        return null;
+      }
+      final List<Object> values = new ArrayList<Object>(l);
+      values.addAll(r);
+      return values;
+    }
+
+    @Override
+    Range getRange(int field) {
+      final Range l = left.getRange(field);
+      final Range r = right.getRange(field);
+      if (and) {
+        return l == null ? r : r == null ? l : l.intersect(r);
+      }
+      return l == null || r == null ? null : l.span(r);
+    }
+
+    @Override
+    double selectivity(JavaBeanStatistics statistics) {
+      final double l = left.selectivity(statistics);
+      final double r = right.selectivity(statistics);
+      return and ? l * r : l + r - l * r;
+    }
+
+    @Override
+    public JavaBeanFilter negate() {
+      return new Junction(!and, left.negate(), right.negate());
+    }
+
+    @Override
+    public Expression toExpression() {
+      return Expressions.call(JavaBeanFilter.class, and ? "and" : "or",
+          left.toExpression(), right.toExpression());
+    }
+
+    @Override
+    public String toString() {
+      return (and ? "AND(" : "OR(") + left + ", " + right + ")";
+    }
+  }
+
+  /** Comparison of a field with a literal. */
+  static final class Comparison extends JavaBeanFilter {
+    final SqlKind op;
+    final int field;
+    final Object value;
+
+    Comparison(SqlKind op, int field, Object value) {
+      this.op = op;
+      this.field = field;
+      this.value = value;
+    }
+
+    @Override
+    public Predicate1<Object> compile(final JavaBeanAccessors accessors) {
+      final SqlKind op = this.op;
+      final int field = this.field;
+      final Class<?> type = accessors.getFieldTypes().get(field);
+      if (value == null) {
+        return NONE; // a comparison with a null parameter is never true
+      }
+      if (accessors.isPrimitive(field)) {
+        final Predicate1<Object> predicate = compilePrimitive(accessors, type);
+        if (predicate != null) {
+          return predicate;
+        }
+      }
+      if (type == BigDecimal.class && value instanceof Number) {
+        final BigDecimal literal = toBigDecimal((Number) value);
+        return new Predicate1<Object>() {
+          public boolean apply(Object javaBean) {
+            final Object v = accessors.get(javaBean, field);
+            return v != null
+                && test(op, ((BigDecimal) v).compareTo(literal));
+          }
+        };
+      }
+      if (Date.class.isAssignableFrom(type) && value instanceof Long) {
+        final long millis = (Long) value;
+        return new Predicate1<Object>() {
+          public boolean apply(Object javaBean) {
+            final Object v = accessors.get(javaBean, field);
+            return v != null
+                && test(op, Long.compare(((Date) v).getTime(), millis));
+          }
+        };
+      }
+      if (isIntegral(type) && value instanceof Long) {
+        final long literal = (Long) value;
+        return new Predicate1<Object>() {
+          public boolean apply(Object javaBean) {
+            final Object v = accessors.get(javaBean, field);
+            return v != null
+                && test(op, Long.compare(((Number) v).longValue(), literal));
+          }
+        };
+      }
+      if (Number.class.isAssignableFrom(type) && value instanceof Number) {
+        final double literal = ((Number) value).doubleValue();
+        return new Predicate1<Object>() {
+          public boolean apply(Object javaBean) {
+            final Object v = accessors.get(javaBean, field);
+            return v != null
+                && test(op,
+                    Double.compare(((Number) v).doubleValue(), literal));
+          }
+        };
+      }
+      if (isComparable(type, value)) {
+        final Object literal = value;
+        return new Predicate1<Object>() {
+          @SuppressWarnings("unchecked")
+          public boolean apply(Object javaBean) {
+            final Object v = accessors.get(javaBean, field);
+            return v != null
+                && test(op, ((Comparable<Object>) v).compareTo(literal));
+          }
+        };
+      }
+      throw new IllegalArgumentException("Cannot compare field "
+          + accessors.getFieldNames().get(field) + " of type "
+          + type.getSimpleName() + " with " + value);
+    }
+
+    /**
+     * Compiles the comparison of a primitive field, which is never null, into
+     * a predicate that reads it without boxing.
+     *
+     * @return The predicate, or null if the literal does not fit the field
+     */
+    private Predicate1<Object> compilePrimitive(
+        final JavaBeanAccessors accessors, Class<?> type) {
+      final SqlKind op = this.op;
+      final int field = this.field;
+      if ((type == Integer.class || type == Long.class)
+          && value instanceof Long) {
+        final long literal = (Long) value;
+        return new Predicate1<Object>() {
+          public boolean apply(Object javaBean) {
+            return test(op,
+                Long.compare(accessors.getLong(javaBean, field), literal));
+          }
+        };
+      }
+      if (Number.class.isAssignableFrom(type) && value instanceof Number) {
+        final double literal = ((Number) value).doubleValue();
+        return new Predicate1<Object>() {
+          public boolean apply(Object javaBean) {
+            return test(op, Double.compare(
+                accessors.getDouble(javaBean, field), literal));
+          }
+        };
+      }
+      if (type == Boolean.class && value instanceof Boolean) {
+        final boolean literal = (Boolean) value;
+        return new Predicate1<Object>() {
+          public boolean apply(Object javaBean) {
+            return test(op, Boolean.compare(
+                accessors.getBoolean(javaBean, field), literal));
+          }
+        };
+      }
+      return null;
+    }
+
+    @Override
+    public JavaBeanColumn.RowPredicate compile(JavaBeanColumnStore columnStore) {
+      if (value == null) {
+        return NO_ROWS; // a comparison with a null parameter is never true
+      }
+      final Class<?> type = columnStore.getAccessors().getFieldTypes().get(
+          field);
+      if (!isComparable(type, value)) {
+        throw new IllegalArgumentException("Cannot compare field "
+            + columnStore.getAccessors().getFieldNames().get(field)
+            + " of type " + type.getSimpleName() + " with " + value);
+      }
+      return columnStore.getColumn(field).comparison(op, value);
+    }
+
+    @Override
+    List<Object> getEqualityValues(int field) {
+      if (op == SqlKind.EQUALS && this.field == field
+          && !(value instanceof Parameter)) {
+        return Collections.singletonList(value);
+      }
+      return null;
+    }
+
+    @Override
+    Range getRange(int field) {
+      if (this.field != field || !(value instanceof Number)) {
+        return null;
+      }
+      final Number bound = (Number) value;
+      switch (op) {
+      case EQUALS:
+        return new Range(bound, true, bound, true);
+      case LESS_THAN:
+        return new Range(null, false, bound, false);
+      case LESS_THAN_OR_EQUAL:
+        return new Range(null, false, bound, true);
+      case GREATER_THAN:
+        return new Range(bound, false, null, false);
+      case GREATER_THAN_OR_EQUAL:
+        return new Range(bound, true, null, false);
+      default:
+        return null;
+      }
+    }
+
+    @Override
+    double selectivity(JavaBeanStatistics statistics) {
+      return statistics.comparison(op, field,
+          value instanceof Parameter ? null : value);
+    }
+
+    @Override
+    public JavaBeanFilter negate() {
+      return new Comparison(negate(op), field, value);
+    }
+
+    @Override
+    public Expression toExpression() {
+      final Expression valueExpr = value instanceof Parameter ? Expressions
+          .call(JavaBeanFilter.class, "parameterValue", Expressions.call(
+              DataContext.ROOT, "get",
+              Expressions.constant("?" + ((Parameter) value).index)))
+          : Expressions.constant(value);
+      return Expressions.call(JavaBeanFilter.class, "compare",
+          Expressions.field(null, SqlKind.class, op.name()),
+          Expressions.constant(field, int.class), valueExpr);
+    }
+
+    @Override
+    public String toString() {
+      return op + "($" + field + ", "
+          + (value instanceof String ? "'" + value + "'" : value) + ")";
+    }
+  }
+
+  /** A dynamic parameter in place of a literal, until it is bound. */
+  static final class Parameter {
+    final int index;
+
+    Parameter(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public String toString() {
+      return "?" + index;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Parameter && ((Parameter) obj).index == index;
+    }
+
+    @Override
+    public int hashCode() {
+      return index;
+    }
+  }
+
+  /** SQL LIKE, with % and _ wildcards and no escape character. */
+  static final class Like extends JavaBeanFilter {
+    final int field;
+    final String pattern;
+    final boolean negated;
+
+    Like(int field, String pattern, boolean negated) {
+      this.field = field;
+      this.pattern = pattern;
+      this.negated = negated;
+    }
+
+    @Override
+    public Predicate1<Object> compile(final JavaBeanAccessors accessors) {
+      final int field = this.field;
+      final boolean negated = this.negated;
+      final Pattern regex = Pattern.compile(toRegex(pattern), Pattern.DOTALL);
+      return new Predicate1<Object>() {
+        public boolean apply(Object javaBean) {
+          final Object v = accessors.get(javaBean, field);
+          return v != null
+              && regex.matcher((CharSequence) v).matches() != negated;
+        }
+      };
+    }
+
+    @Override
+    public JavaBeanColumn.RowPredicate compile(JavaBeanColumnStore columnStore) {
+      return columnStore.getColumn(field).like(
+          Pattern.compile(toRegex(pattern), Pattern.DOTALL), negated);
+    }
+
+    static String toRegex(String pattern) {
+      final StringBuilder regex = new StringBuilder();
+      final StringBuilder literal = new StringBuilder();
+      for (int i = 0; i < pattern.length(); i++) {
+        final char c = pattern.charAt(i);
+        if (c == '%' || c == '_') {
+          if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+            literal.setLength(0);
+          }
+          regex.append(c == '%' ? ".*" : ".");
+        } else {
+          literal.append(c);
+        }
+      }
+      if (literal.length() > 0) {
+        regex.append(Pattern.quote(literal.toString()));
+      }
+      return regex.toString();
+    }
+
+    @Override
+    List<Object> getEqualityValues(int field) {
+      return null;
+    }
+
+    @Override
+    Range getRange(int field) {
+      return null;
+    }
+
+    @Override
+    double selectivity(JavaBeanStatistics statistics) {
+      return negated ? 1 - JavaBeanStatistics.LIKE_SELECTIVITY
+          : JavaBeanStatistics.LIKE_SELECTIVITY;
+    }
+
+    @Override
+    public JavaBeanFilter negate() {
+      return new Like(field, pattern, !negated);
+    }
+
+    @Override
+    public Expression toExpression() {
+      return Expressions.call(JavaBeanFilter.class, "like",
+          Expressions.constant(field, int.class),
+          Expressions.constant(pattern),
+          Expressions.constant(negated, boolean.class));
+    }
+
+    @Override
+    public String toString() {
+      return (negated ? "NOT LIKE($" : "LIKE($") + field + ", '" + pattern
+          + "')";
+    }
+  }
+
+}
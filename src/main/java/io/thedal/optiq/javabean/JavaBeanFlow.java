@@ -0,0 +1,55 @@
+package io.thedal.optiq.javabean;
+
+/**
+ * JavaBeanFlow holds the interfaces of a reactive stream with demand driven
+ * back-pressure. They have the same methods and contracts as those of
+ * java.util.concurrent.Flow, which is not available on Java 8, so a one line
+ * adapter connects them to any Reactive Streams library.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public final class JavaBeanFlow {
+
+  private JavaBeanFlow() {
+  }
+
+  /**
+   * A source of items that are sent to each subscriber only as fast as it
+   * asks for them.
+   */
+  public interface Publisher<T> {
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * A receiver of items. onSubscribe is called first, then onNext at most as
+   * many times as requested, then onComplete or onError unless cancelled.
+   * The calls are never concurrent.
+   */
+  public interface Subscriber<T> {
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+  }
+
+  /**
+   * The link between a publisher and one subscriber.
+   */
+  public interface Subscription {
+    /**
+     * Asks for n more items; a non-positive n is an error.
+     */
+    void request(long n);
+
+    /**
+     * Stops the items, and releases what the publisher holds for them.
+     */
+    void cancel();
+  }
+
+}
@@ -0,0 +1,185 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JavaBeanHashIndex maps the values of one column of a smart table to the
+ * positions of the JavaBeans holding them, so that equality and IN filters on
+ * the column are answered without a scan. Null values are not indexed, as they
+ * never pass an equality filter.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanHashIndex {
+
+  static final Logger logger = LoggerFactory.getLogger(JavaBeanHashIndex.class);
+  private static final int[] NO_ROWS = new int[0];
+  private final int field;
+  private final Class<?> fieldType;
+  private final Map<Object, int[]> positions;
+
+  /**
+   * Builds the index with one pass over the JavaBean list.
+   *
+   * @param javaBeanList
+   *          A List of JavaBeans of same type
+   * @param accessors
+   *          The accessors of the bean class
+   * @param field
+   *          The column ordinal to index
+   */
+  public JavaBeanHashIndex(List<?> javaBeanList, JavaBeanAccessors accessors,
+      int field) {
+    this.field = field;
+    this.fieldType = accessors.getFieldTypes().get(field);
+    Map<Object, Positions> builder = new HashMap<Object, Positions>();
+    for (int i = 0; i < javaBeanList.size(); i++) {
+      Object key = normalize(fieldType,
+          accessors.get(javaBeanList.get(i), field));
+      if (key == null) {
+        continue;
+      }
+      Positions rows = builder.get(key);
+      if (rows == null) {
+        rows = new Positions();
+        builder.put(key, rows);
+      }
+      rows.add(i);
+    }
+    positions = new HashMap<Object, int[]>(builder.size() * 4 / 3 + 1);
+    for (Map.Entry<Object, Positions> entry : builder.entrySet()) {
+      positions.put(entry.getKey(), entry.getValue().toArray());
+    }
+    logger.debug("Built hash index on: {} with {} keys", accessors
+        .getFieldNames().get(field), positions.size());
+  }
+
+  /**
+   * @return The column ordinal of the indexed field
+   */
+  public int getField() {
+    return field;
+  }
+
+  /**
+   * Returns the positions of the JavaBeans whose field equals one of the
+   * values, in ascending order.
+   *
+   * @param values
+   *          Literals as held by JavaBeanFilter
+   * @return The positions in the JavaBean list
+   */
+  public int[] lookup(List<Object> values) {
+    Set<Object> keys = new LinkedHashSet<Object>();
+    for (Object value : values) {
+      Object key = normalize(fieldType, value);
+      if (key != null) {
+        keys.add(key);
+      }
+    }
+    if (keys.size() == 1) {
+      int[] rows = positions.get(keys.iterator().next());
+      return rows == null ? NO_ROWS : rows;
+    }
+    int count = 0;
+    for (Object key : keys) {
+      int[] rows = positions.get(key);
+      count += rows == null ? 0 : rows.length;
+    }
+    int[] result = new int[count];
+    int offset = 0;
+    for (Object key : keys) {
+      int[] rows = positions.get(key);
+      if (rows != null) {
+        System.arraycopy(rows, 0, result, offset, rows.length);
+        offset += rows.length;
+      }
+    }
+    // Distinct keys have disjoint positions, so sorting is enough to keep
+    // the scan in list order.
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Returns the positions of the JavaBeans whose field equals a value, in
+   * ascending order. The returned array must not be modified.
+   *
+   * @param value
+   *          A value as held by JavaBeanFilter
+   * @return The positions in the JavaBean list
+   */
+  public int[] lookupValue(Object value) {
+    final int[] rows = positions.get(normalize(fieldType, value));
+    return rows == null ? NO_ROWS : rows;
+  }
+
+  /**
+   * Returns the number of JavaBeans a lookup of the values would return.
+   */
+  public int count(List<Object> values) {
+    int count = 0;
+    for (Object value : new LinkedHashSet<Object>(values)) {
+      int[] rows = positions.get(normalize(fieldType, value));
+      count += rows == null ? 0 : rows.length;
+    }
+    return count;
+  }
+
+  /**
+   * Brings a field value or a filter literal to the form used as key, so that
+   * an Integer field matches a Long literal and a Date matches epoch millis.
+   */
+  static Object normalize(Class<?> fieldType, Object value) {
+    if (value == null) {
+      return null;
+    }
+    if (value instanceof Date) {
+      return ((Date) value).getTime();
+    }
+    if (value instanceof Number) {
+      if (JavaBeanFilter.isIntegral(fieldType)
+          || Date.class.isAssignableFrom(fieldType)) {
+        if ((value instanceof Double || value instanceof Float)
+            && ((Number) value).doubleValue() != ((Number) value).longValue()) {
+          return value; // a fraction never equals an integral field
+        }
+        return ((Number) value).longValue();
+      }
+      if (Number.class.isAssignableFrom(fieldType)) {
+        return ((Number) value).doubleValue();
+      }
+    }
+    return value;
+  }
+
+  /** Growable list of row positions. */
+  private static final class Positions {
+    private int[] rows = new int[2];
+    private int size;
+
+    void add(int row) {
+      if (size == rows.length) {
+        rows = Arrays.copyOf(rows, size * 2);
+      }
+      rows[size++] = row;
+    }
+
+    int[] toArray() {
+      return size == rows.length ? rows : Arrays.copyOf(rows, size);
+    }
+  }
+
+}
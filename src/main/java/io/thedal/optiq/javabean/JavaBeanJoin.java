@@ -0,0 +1,339 @@
+package io.thedal.optiq.javabean;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.expressions.Expression;
+import net.hydromatic.linq4j.expressions.Expressions;
+
+/**
+ * JavaBeanJoin is an inner equi-join of two smart tables pushed down to the
+ * adapter. Keys are column ordinals of their table. Output fields are
+ * ordinals over the columns of the left table followed by those of the right
+ * table, and only they are read into the joined rows.
+ *
+ * The join builds a hash table over the rows of the smaller side that pass
+ * its filter, and probes it with the rows of the other side. When one side
+ * has a hash index on a single join key, the index is the hash table and
+ * nothing is built. Keys compare as JavaBeanFilter compares values, so an
+ * Integer column joins a Long column, and a null key matches nothing.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanJoin {
+
+  final int[] leftKeys;
+  final int[] rightKeys;
+  final int[] outputFields;
+  final int leftFieldCount;
+
+  private JavaBeanJoin(int[] leftKeys, int[] rightKeys, int[] outputFields,
+      int leftFieldCount) {
+    this.leftKeys = leftKeys;
+    this.rightKeys = rightKeys;
+    this.outputFields = outputFields;
+    this.leftFieldCount = leftFieldCount;
+  }
+
+  /**
+   * Creates a join.
+   *
+   * @param leftKeys
+   *          The column ordinals of the keys in the left table
+   * @param rightKeys
+   *          The column ordinals of the keys in the right table, in the same
+   *          order
+   * @param outputFields
+   *          The fields of a joined row: a column ordinal of the left table,
+   *          or leftFieldCount plus a column ordinal of the right table
+   * @param leftFieldCount
+   *          The number of columns of the left table
+   */
+  public static JavaBeanJoin of(int[] leftKeys, int[] rightKeys,
+      int[] outputFields, int leftFieldCount) {
+    if (leftKeys.length == 0 || leftKeys.length != rightKeys.length) {
+      throw new IllegalArgumentException("Join keys don't pair up: "
+          + Arrays.toString(leftKeys) + " and " + Arrays.toString(rightKeys));
+    }
+    return new JavaBeanJoin(leftKeys, rightKeys, outputFields, leftFieldCount);
+  }
+
+  /**
+   * @return An expression that rebuilds this join in generated code
+   */
+  public Expression toExpression() {
+    return Expressions.call(JavaBeanJoin.class, "of",
+        Expressions.constant(leftKeys), Expressions.constant(rightKeys),
+        Expressions.constant(outputFields),
+        Expressions.constant(leftFieldCount, int.class));
+  }
+
+  /**
+   * Joins the rows of two sides.
+   *
+   * @return The joined rows, in the order of the probed side
+   */
+  Enumerable<Object> join(final Side left, final Side right) {
+    final JavaBeanHashIndex leftIndex = leftKeys.length == 1 ? left
+        .getHashIndex(leftKeys[0]) : null;
+    final JavaBeanHashIndex rightIndex = rightKeys.length == 1 ? right
+        .getHashIndex(rightKeys[0]) : null;
+    final boolean buildLeft;
+    final int[] probePositions;
+    final HashTable table;
+    final JavaBeanHashIndex index;
+    if (rightIndex != null || leftIndex != null) {
+      // The larger indexed side is probed through its index
+      buildLeft = rightIndex == null
+          || (leftIndex != null && left.getRowCount() > right.getRowCount());
+      probePositions = (buildLeft ? right : left).rowPositions();
+      table = null;
+      index = buildLeft ? leftIndex : rightIndex;
+    } else {
+      final int[] leftPositions = left.rowPositions();
+      final int[] rightPositions = right.rowPositions();
+      buildLeft = leftPositions.length < rightPositions.length;
+      probePositions = buildLeft ? rightPositions : leftPositions;
+      table = buildLeft ? new HashTable(left, leftPositions, leftKeys)
+          : new HashTable(right, rightPositions, rightKeys);
+      index = null;
+    }
+    final Side buildSide = buildLeft ? left : right;
+    final Side probeSide = buildLeft ? right : left;
+    final int[] probeKeys = buildLeft ? rightKeys : leftKeys;
+    return JavaBeanMetrics.scan(new AbstractEnumerable<Object>() {
+      public Enumerator<Object> enumerator() {
+        return new JoinEnumerator(left, right, buildLeft, probeSide,
+            probeKeys, probePositions, table != null ? new HashProbe(table)
+                : new IndexProbe(buildSide, index));
+      }
+    }, left.getScanned() + right.getScanned());
+  }
+
+  /**
+   * @return The key of a row, or null if a key field is null
+   */
+  static Object key(Side side, int row, int[] keys) {
+    if (keys.length == 1) {
+      return JavaBeanFilter.parameterValue(side.get(row, keys[0]));
+    }
+    final Object[] values = new Object[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      values[i] = JavaBeanFilter.parameterValue(side.get(row, keys[i]));
+      if (values[i] == null) {
+        return null;
+      }
+    }
+    return Arrays.asList(values);
+  }
+
+  @Override
+  public String toString() {
+    return "keys: " + Arrays.toString(leftKeys) + " = "
+        + Arrays.toString(rightKeys) + ", output: "
+        + Arrays.toString(outputFields);
+  }
+
+  /**
+   * One input of a join: the rows of a smart table that pass a filter.
+   */
+  abstract static class Side {
+
+    /**
+     * @return The row numbers of the rows that pass the filter, in scan order
+     */
+    abstract int[] rowPositions();
+
+    /**
+     * @return True if a row passes the filter
+     */
+    abstract boolean test(int row);
+
+    abstract Object get(int row, int field);
+
+    /**
+     * @return The hash index on a column, or null
+     */
+    abstract JavaBeanHashIndex getHashIndex(int field);
+
+    abstract int getRowCount();
+
+    /**
+     * @return The rows visited so far to find the rows that pass the filter
+     */
+    abstract int getScanned();
+  }
+
+  /** Finds the rows of the build side that match a key. */
+  private abstract static class Probe {
+
+    /** Starts the matches of a key. */
+    abstract void start(Object key);
+
+    /**
+     * @return The row number of the next match, or -1 if there is none
+     */
+    abstract int next();
+  }
+
+  /**
+   * A hash table over the rows of a side. Rows with the same key are chained
+   * through an array, so the table holds one entry per key.
+   */
+  private static class HashTable {
+    private final int[] positions;
+    private final int[] chain;
+    private final Map<Object, Integer> heads = new HashMap<Object, Integer>();
+
+    HashTable(Side side, int[] positions, int[] keys) {
+      this.positions = positions;
+      this.chain = new int[positions.length];
+      // Built backwards so that each chain runs in scan order
+      for (int i = positions.length - 1; i >= 0; i--) {
+        final Object key = key(side, positions[i], keys);
+        if (key != null) {
+          final Integer head = heads.put(key, i);
+          chain[i] = head == null ? -1 : head;
+        }
+      }
+    }
+  }
+
+  /** Probes a hash table. */
+  private static class HashProbe extends Probe {
+    private final HashTable table;
+    private int cursor = -1;
+
+    HashProbe(HashTable table) {
+      this.table = table;
+    }
+
+    void start(Object key) {
+      final Integer head = table.heads.get(key);
+      cursor = head == null ? -1 : head;
+    }
+
+    int next() {
+      if (cursor < 0) {
+        return -1;
+      }
+      final int row = table.positions[cursor];
+      cursor = table.chain[cursor];
+      return row;
+    }
+  }
+
+  /** Probes the hash index on the key of a side, checking its filter. */
+  private static class IndexProbe extends Probe {
+    private static final int[] NO_ROWS = new int[0];
+    private final Side side;
+    private final JavaBeanHashIndex index;
+    private int[] matches = NO_ROWS;
+    private int next;
+
+    IndexProbe(Side side, JavaBeanHashIndex index) {
+      this.side = side;
+      this.index = index;
+    }
+
+    void start(Object key) {
+      matches = index.lookupValue(key);
+      next = 0;
+    }
+
+    int next() {
+      while (next < matches.length) {
+        final int row = matches[next++];
+        if (side.test(row)) {
+          return row;
+        }
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Enumerates the joined rows, probing with one row of the probe side at a
+   * time.
+   */
+  private class JoinEnumerator implements Enumerator<Object> {
+    private final Side left;
+    private final Side right;
+    private final boolean buildLeft;
+    private final Side probeSide;
+    private final int[] probeKeys;
+    private final int[] probePositions;
+    private final Probe probe;
+    private int next;
+    private int probeRow = -1;
+    private Object current;
+
+    JoinEnumerator(Side left, Side right, boolean buildLeft, Side probeSide,
+        int[] probeKeys, int[] probePositions, Probe probe) {
+      this.left = left;
+      this.right = right;
+      this.buildLeft = buildLeft;
+      this.probeSide = probeSide;
+      this.probeKeys = probeKeys;
+      this.probePositions = probePositions;
+      this.probe = probe;
+    }
+
+    public Object current() {
+      return current;
+    }
+
+    public boolean moveNext() {
+      for (;;) {
+        if (probeRow >= 0) {
+          final int buildRow = probe.next();
+          if (buildRow >= 0) {
+            current = buildLeft ? row(buildRow, probeRow) : row(probeRow,
+                buildRow);
+            return true;
+          }
+        }
+        if (next >= probePositions.length) {
+          probeRow = -1;
+          current = null;
+          return false;
+        }
+        probeRow = probePositions[next++];
+        final Object key = key(probeSide, probeRow, probeKeys);
+        if (key == null) {
+          probeRow = -1;
+        } else {
+          probe.start(key);
+        }
+      }
+    }
+
+    private Object[] row(int leftRow, int rightRow) {
+      final Object[] row = new Object[outputFields.length];
+      for (int i = 0; i < row.length; i++) {
+        final int field = outputFields[i];
+        row[i] = field < leftFieldCount ? left.get(leftRow, field) : right
+            .get(rightRow, field - leftFieldCount);
+      }
+      return row;
+    }
+
+    public void reset() {
+      next = 0;
+      probeRow = -1;
+      current = null;
+    }
+
+    public void close() {
+      next = probePositions.length;
+      probeRow = -1;
+      current = null;
+    }
+  }
+
+}
@@ -0,0 +1,164 @@
+package io.thedal.optiq.javabean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eigenbase.rel.JoinRel;
+import org.eigenbase.rel.JoinRelType;
+import org.eigenbase.rel.ProjectRel;
+import org.eigenbase.relopt.RelOptRuleCall;
+import org.eigenbase.relopt.RelOptRuleOperand;
+import org.eigenbase.rex.RexCall;
+import org.eigenbase.rex.RexInputRef;
+import org.eigenbase.rex.RexNode;
+import org.eigenbase.sql.SqlKind;
+
+import net.hydromatic.optiq.rules.java.EnumerableConvention;
+
+/**
+ * JavaBeanJoinRule pushes an inner equi-join of two smart table scans of the
+ * same schema down to the adapter, together with the filters of the scans and
+ * the projection above the join, so that the tables join their rows in a hash
+ * table or through an index instead of handing every row to Optiq's join.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanJoinRule extends JavaBeanPushDownRule {
+
+  public static final JavaBeanJoinRule JOIN = new JavaBeanJoinRule(
+      operand(JoinRel.class, operand(JavaBeanTableScan.class, none()),
+          operand(JavaBeanTableScan.class, none())), "Join");
+
+  public static final JavaBeanJoinRule PROJECT_ON_JOIN = new JavaBeanJoinRule(
+      operand(
+          ProjectRel.class,
+          operand(JoinRel.class, operand(JavaBeanTableScan.class, none()),
+              operand(JavaBeanTableScan.class, none()))), "Project on join");
+
+  protected JavaBeanJoinRule(RelOptRuleOperand rule, String id) {
+    super(rule, id);
+  }
+
+  @Override
+  public void onMatch(RelOptRuleCall call) {
+    logger.debug("Rule Match for: {}", description);
+
+    final int relLength = call.rels.length;
+    final ProjectRel projectRel = call.rels[0] instanceof ProjectRel
+        ? (ProjectRel) call.rels[0] : null;
+    final JoinRel joinRel = (JoinRel) call.rels[relLength - 3];
+    final JavaBeanTableScan left =
+        (JavaBeanTableScan) call.rels[relLength - 2];
+    final JavaBeanTableScan right =
+        (JavaBeanTableScan) call.rels[relLength - 1];
+    if (joinRel.getJoinType() != JoinRelType.INNER) {
+      return; // can't handle
+    }
+    if (left.sort != null || right.sort != null) {
+      return; // a limit must apply before the join
+    }
+    if (!sameSchema(left, right) || !left.javaBeanSmartTable.canJoin()
+        || !right.javaBeanSmartTable.canJoin()) {
+      return; // can't handle
+    }
+
+    final int[] leftFields = left.projectFields;
+    final int[] rightFields = right.projectFields;
+    final List<Integer> leftKeys = new ArrayList<Integer>();
+    final List<Integer> rightKeys = new ArrayList<Integer>();
+    if (!getKeys(joinRel.getCondition(), leftFields, rightFields, leftKeys,
+        rightKeys) || leftKeys.isEmpty()) {
+      return; // not an equi-join
+    }
+
+    // Join fields are the left scan fields then the right scan fields; map
+    // them onto the left table columns then the right table columns.
+    final int leftFieldCount = left.javaBeanSmartTable.getAccessors()
+        .getFieldCount();
+    int[] fields = new int[leftFields.length + rightFields.length];
+    for (int i = 0; i < leftFields.length; i++) {
+      fields[i] = leftFields[i];
+    }
+    for (int i = 0; i < rightFields.length; i++) {
+      fields[leftFields.length + i] = leftFieldCount + rightFields[i];
+    }
+    if (projectRel != null) {
+      fields = compose(fields, getProjectFields(projectRel.getProjects()));
+      if (fields == null) {
+        return; // can't handle
+      }
+    }
+
+    final JavaBeanJoin join = JavaBeanJoin.of(toArray(leftKeys),
+        toArray(rightKeys), fields, leftFieldCount);
+    logger.debug("Pushed down join: {}", join);
+    JavaBeanMetrics.ruleMatched(description);
+    call.transformTo(new JavaBeanJoinScan(joinRel.getCluster(), call.rels[0]
+        .getTraitSet().replace(EnumerableConvention.INSTANCE),
+        left.getTable(), left.javaBeanSmartTable, left.filter,
+        right.getTable(), right.javaBeanSmartTable, right.filter, join,
+        call.rels[0].getRowType(), description));
+  }
+
+  /**
+   * Checks if two scans read tables of the same schema.
+   */
+  private boolean sameSchema(JavaBeanTableScan left, JavaBeanTableScan right) {
+    final List<String> leftName = left.getTable().getQualifiedName();
+    final List<String> rightName = right.getTable().getQualifiedName();
+    return leftName.size() == rightName.size()
+        && leftName.subList(0, leftName.size() - 1).equals(
+            rightName.subList(0, rightName.size() - 1));
+  }
+
+  /**
+   * Collects the table columns compared by a conjunction of equalities of a
+   * left field with a right field.
+   *
+   * @return false if the condition is anything else
+   */
+  private boolean getKeys(RexNode node, int[] leftFields, int[] rightFields,
+      List<Integer> leftKeys, List<Integer> rightKeys) {
+    if (!(node instanceof RexCall)) {
+      return false;
+    }
+    final RexCall call = (RexCall) node;
+    final SqlKind kind = call.getOperator().getKind();
+    if (kind == SqlKind.AND) {
+      for (RexNode operand : call.getOperands()) {
+        if (!getKeys(operand, leftFields, rightFields, leftKeys, rightKeys)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (kind != SqlKind.EQUALS
+        || !(call.getOperands().get(0) instanceof RexInputRef)
+        || !(call.getOperands().get(1) instanceof RexInputRef)) {
+      return false;
+    }
+    int first = ((RexInputRef) call.getOperands().get(0)).getIndex();
+    int second = ((RexInputRef) call.getOperands().get(1)).getIndex();
+    if (first > second) {
+      final int swap = first;
+      first = second;
+      second = swap;
+    }
+    if (first >= leftFields.length || second < leftFields.length) {
+      return false; // both fields are on one side
+    }
+    leftKeys.add(leftFields[first]);
+    rightKeys.add(rightFields[second - leftFields.length]);
+    return true;
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    final int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+}
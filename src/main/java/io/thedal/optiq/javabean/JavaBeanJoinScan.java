@@ -0,0 +1,158 @@
+package io.thedal.optiq.javabean;
+
+import java.util.List;
+
+import net.hydromatic.linq4j.expressions.Blocks;
+import net.hydromatic.linq4j.expressions.Expression;
+import net.hydromatic.linq4j.expressions.Expressions;
+import net.hydromatic.optiq.rules.java.EnumerableRel;
+import net.hydromatic.optiq.rules.java.EnumerableRelImplementor;
+import net.hydromatic.optiq.rules.java.JavaRowFormat;
+import net.hydromatic.optiq.rules.java.PhysType;
+import net.hydromatic.optiq.rules.java.PhysTypeImpl;
+
+import org.eigenbase.rel.AbstractRelNode;
+import org.eigenbase.rel.RelNode;
+import org.eigenbase.rel.RelWriter;
+import org.eigenbase.relopt.RelOptCluster;
+import org.eigenbase.relopt.RelOptCost;
+import org.eigenbase.relopt.RelOptPlanner;
+import org.eigenbase.relopt.RelOptTable;
+import org.eigenbase.relopt.RelTraitSet;
+import org.eigenbase.reltype.RelDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JavaBeanJoinScan is a scan of two smart tables that returns the rows of a
+ * pushed down join of them. Its row type is the row type of the join, or of
+ * the projection over it, that it replaces.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanJoinScan extends AbstractRelNode implements
+    EnumerableRel {
+
+  static final Logger logger = LoggerFactory.getLogger(JavaBeanJoinScan.class);
+  final RelOptTable leftTable;
+  final JavaBeanSmartTable leftSmartTable;
+  final JavaBeanFilter leftFilter;
+  final RelOptTable rightTable;
+  final JavaBeanSmartTable rightSmartTable;
+  final JavaBeanFilter rightFilter;
+  final JavaBeanJoin join;
+  final RelDataType joinRowType;
+  final String scanName;
+
+  protected JavaBeanJoinScan(RelOptCluster cluster, RelTraitSet traitSet,
+      RelOptTable leftTable, JavaBeanSmartTable leftSmartTable,
+      JavaBeanFilter leftFilter, RelOptTable rightTable,
+      JavaBeanSmartTable rightSmartTable, JavaBeanFilter rightFilter,
+      JavaBeanJoin join, RelDataType joinRowType, String scanName) {
+    super(cluster, traitSet);
+    this.leftTable = leftTable;
+    this.leftSmartTable = leftSmartTable;
+    this.leftFilter = leftFilter;
+    this.rightTable = rightTable;
+    this.rightSmartTable = rightSmartTable;
+    this.rightFilter = rightFilter;
+    this.join = join;
+    this.joinRowType = joinRowType;
+    this.scanName = scanName;
+    logger.debug("JavaBean join scan created: {}", join);
+  }
+
+  @Override
+  public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+    assert inputs.isEmpty();
+    return new JavaBeanJoinScan(getCluster(), traitSet, leftTable,
+        leftSmartTable, leftFilter, rightTable, rightSmartTable, rightFilter,
+        join, joinRowType, scanName);
+  }
+
+  @Override
+  public RelWriter explainTerms(RelWriter pw) {
+    return super.explainTerms(pw)
+        .item("left", leftTable.getQualifiedName())
+        .itemIf("leftFilter", leftFilter, leftFilter != null)
+        .item("right", rightTable.getQualifiedName())
+        .itemIf("rightFilter", rightFilter, rightFilter != null)
+        .item("join", join);
+  }
+
+  @Override
+  public RelDataType deriveRowType() {
+    return joinRowType;
+  }
+
+  /**
+   * Estimates the joined rows from the rows of each side that pass its filter
+   * and the distinct counts of the join keys: a row matches the rows of the
+   * other side with its key, one in as many as the larger distinct count.
+   */
+  @Override
+  public double getRows() {
+    final JavaBeanStatistics leftStatistics = leftSmartTable.getStatistic();
+    final JavaBeanStatistics rightStatistics = rightSmartTable.getStatistic();
+    final double leftRows = leftStatistics.getRowCount()
+        * leftStatistics.selectivity(leftFilter);
+    final double rightRows = rightStatistics.getRowCount()
+        * rightStatistics.selectivity(rightFilter);
+    if (leftRows == 0 || rightRows == 0) {
+      return 0;
+    }
+    double distinct = 1;
+    for (int i = 0; i < join.leftKeys.length; i++) {
+      distinct = Math.max(distinct, Math.max(
+          distinctCount(leftStatistics, join.leftKeys[i], leftRows),
+          distinctCount(rightStatistics, join.rightKeys[i], rightRows)));
+    }
+    return leftRows * rightRows / distinct;
+  }
+
+  /**
+   * @return The distinct values of a column among the rows that pass a filter
+   */
+  private static double distinctCount(JavaBeanStatistics statistics,
+      int field, double rows) {
+    return Math.min(rows, statistics.getColumn(field).getDistinctCount());
+  }
+
+  /**
+   * Costs the join as the JavaBeans both sides visit, plus the rows that
+   * build the hash table and the rows that probe it, plus the fields it reads
+   * into the rows it returns, in the same units as a JavaBeanTableScan.
+   */
+  @Override
+  public RelOptCost computeSelfCost(RelOptPlanner planner) {
+    final JavaBeanStatistics leftStatistics = leftSmartTable.getStatistic();
+    final JavaBeanStatistics rightStatistics = rightSmartTable.getStatistic();
+    final double leftRows = leftStatistics.getRowCount();
+    final double rightRows = rightStatistics.getRowCount();
+    double cpu = leftRows + rightRows;
+    cpu += leftRows * leftStatistics.selectivity(leftFilter)
+        + rightRows * rightStatistics.selectivity(rightFilter);
+    cpu += getRows() * join.outputFields.length;
+    return planner.getCostFactory().makeCost(cpu, cpu, 0);
+  }
+
+  public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+    // Joined rows are always Object[], even when there is a single field.
+    PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(),
+        getRowType(), JavaRowFormat.ARRAY, false);
+    logger.debug("We are in join scan: {}", scanName);
+
+    final Expression left = leftTable.getExpression(JavaBeanSmartTable.class);
+    final Expression right = rightTable
+        .getExpression(JavaBeanSmartTable.class);
+    return implementor.result(physType, Blocks.toBlock(Expressions.call(left,
+        "hashJoin",
+        leftFilter == null ? Expressions.constant(null, JavaBeanFilter.class)
+            : leftFilter.toExpression(),
+        right,
+        rightFilter == null ? Expressions.constant(null, JavaBeanFilter.class)
+            : rightFilter.toExpression(), join.toExpression())));
+  }
+
+}
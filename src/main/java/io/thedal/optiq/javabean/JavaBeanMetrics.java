@@ -0,0 +1,346 @@
+package io.thedal.optiq.javabean;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JavaBeanMetrics records the metrics of the queries run by the query
+ * executors and hands them to the registered listeners.
+ *
+ * Metrics are on only while a listener is registered. While they are off, a
+ * query pays one read of a volatile flag when it starts and one for each smart
+ * table scan, and its rows are not counted. While they are on, the metrics of
+ * a query follow the thread that runs it through planning and the start of
+ * execution, where the smart table scans pick them up, and its result set
+ * counts the rows read until it is read to the end or closed.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public final class JavaBeanMetrics {
+
+  public static final String MBEAN_NAME =
+      "io.thedal.optiq.javabean:type=Metrics";
+
+  static final Logger logger = LoggerFactory.getLogger(JavaBeanMetrics.class);
+  private static final List<JavaBeanMetricsListener> listeners =
+      new CopyOnWriteArrayList<JavaBeanMetricsListener>();
+  private static final ThreadLocal<JavaBeanQueryMetrics> current =
+      new ThreadLocal<JavaBeanQueryMetrics>();
+  private static final com.sun.management.ThreadMXBean threads = threads();
+  private static volatile boolean enabled;
+  private static JavaBeanMetricsCollector collector;
+
+  private JavaBeanMetrics() {
+  }
+
+  /**
+   * Registers a listener, turning metrics on.
+   */
+  public static synchronized void addListener(
+      JavaBeanMetricsListener listener) {
+    listeners.add(listener);
+    enabled = true;
+  }
+
+  /**
+   * Removes a listener, turning metrics off if it was the last one.
+   */
+  public static synchronized void removeListener(
+      JavaBeanMetricsListener listener) {
+    listeners.remove(listener);
+    enabled = !listeners.isEmpty();
+  }
+
+  /**
+   * @return True while a listener is registered
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Registers a JavaBeanMetricsCollector with the platform MBean server under
+   * MBEAN_NAME, and as a listener, if it is not registered yet.
+   *
+   * @return The registered collector
+   */
+  public static synchronized JavaBeanMetricsCollector registerMBean() {
+    if (collector == null) {
+      final JavaBeanMetricsCollector newCollector =
+          new JavaBeanMetricsCollector();
+      try {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+            newCollector, new ObjectName(MBEAN_NAME));
+      } catch (JMException e) {
+        throw new RuntimeException("Could not register metrics MBean", e);
+      }
+      addListener(newCollector);
+      collector = newCollector;
+      logger.info("Registered metrics MBean: " + MBEAN_NAME);
+    }
+    return collector;
+  }
+
+  /**
+   * Unregisters the MBean registered by registerMBean, if there is one.
+   */
+  public static synchronized void unregisterMBean() {
+    if (collector == null) {
+      return;
+    }
+    removeListener(collector);
+    collector = null;
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.unregisterMBean(new ObjectName(MBEAN_NAME));
+    } catch (JMException e) {
+      logger.error("Could not unregister metrics MBean. " + e);
+    }
+  }
+
+  /**
+   * Records that a smart table rule rewrote the plan of the current query.
+   *
+   * @param rule
+   *          The description of the rule
+   */
+  public static void ruleMatched(String rule) {
+    final JavaBeanQueryMetrics metrics = current();
+    if (metrics != null) {
+      metrics.ruleMatched(rule);
+    }
+  }
+
+  /**
+   * Counts the rows of a smart table scan in the metrics of the current
+   * query. Generated code calls this too, so it is public.
+   *
+   * @param rows
+   *          The rows the scan passes on
+   * @param scanned
+   *          The rows the scan visits
+   * @return The rows, counted as they are read if metrics are on
+   */
+  public static Enumerable<Object> scan(final Enumerable<Object> rows,
+      int scanned) {
+    final JavaBeanQueryMetrics metrics = current();
+    if (metrics == null) {
+      return rows;
+    }
+    metrics.scanned(scanned);
+    return new AbstractEnumerable<Object>() {
+      public Enumerator<Object> enumerator() {
+        final Enumerator<Object> enumerator = rows.enumerator();
+        return new Enumerator<Object>() {
+          public Object current() {
+            return enumerator.current();
+          }
+
+          public boolean moveNext() {
+            if (enumerator.moveNext()) {
+              metrics.emitted();
+              return true;
+            }
+            return false;
+          }
+
+          public void reset() {
+            enumerator.reset();
+          }
+
+          public void close() {
+            enumerator.close();
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Starts the metrics of a query on this thread.
+   *
+   * @return The metrics, or null if metrics are off
+   */
+  static JavaBeanQueryMetrics begin(String sql) {
+    if (!enabled) {
+      return null;
+    }
+    final JavaBeanQueryMetrics metrics = new JavaBeanQueryMetrics(sql);
+    current.set(metrics);
+    return metrics;
+  }
+
+  /**
+   * Takes the metrics of a query off this thread, once its execution has
+   * started. Counting goes on in its scans and result set.
+   */
+  static void detach(JavaBeanQueryMetrics metrics) {
+    if (metrics != null) {
+      current.remove();
+    }
+  }
+
+  /**
+   * @return The metrics of the query running on this thread, or null
+   */
+  static JavaBeanQueryMetrics current() {
+    return enabled ? current.get() : null;
+  }
+
+  /**
+   * Executes a prepared query, timing it and counting the rows read from its
+   * result set if metrics are on.
+   */
+  static ResultSet executeQuery(PreparedStatement prepared,
+      JavaBeanQueryMetrics metrics) throws SQLException {
+    return executeQuery(prepared, null, metrics);
+  }
+
+  /**
+   * Executes a query, or the prepared statement if the SQL is null, timing it
+   * and counting the rows read from its result set if metrics are on.
+   */
+  static ResultSet executeQuery(Statement statement, String sql,
+      JavaBeanQueryMetrics metrics) throws SQLException {
+    if (metrics == null) {
+      return sql == null ? ((PreparedStatement) statement).executeQuery()
+          : statement.executeQuery(sql);
+    }
+    final long start = System.nanoTime();
+    final long allocated = allocatedBytes();
+    final ResultSet results;
+    try {
+      results = sql == null ? ((PreparedStatement) statement).executeQuery()
+          : statement.executeQuery(sql);
+    } catch (SQLException e) {
+      metrics.executed(System.nanoTime() - start, allocatedBytes()
+          - allocated);
+      complete(metrics);
+      throw e;
+    }
+    metrics.executed(System.nanoTime() - start, allocatedBytes() - allocated);
+    return (ResultSet) Proxy.newProxyInstance(
+        JavaBeanMetrics.class.getClassLoader(),
+        new Class<?>[] { ResultSet.class },
+        new CountingResultSet(results, metrics));
+  }
+
+  /**
+   * Hands the metrics of a query to the listeners, the first time only.
+   */
+  static void complete(JavaBeanQueryMetrics metrics) {
+    if (!metrics.complete()) {
+      return;
+    }
+    logger.debug("Query metrics: {}", metrics);
+    for (JavaBeanMetricsListener listener : listeners) {
+      try {
+        listener.queryCompleted(metrics);
+      } catch (RuntimeException e) {
+        logger.error("Metrics listener failed. " + e);
+      }
+    }
+  }
+
+  /**
+   * @return The bytes allocated by this thread so far, or 0 if the JVM can't
+   *         measure them
+   */
+  static long allocatedBytes() {
+    return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread
+        .currentThread().getId());
+  }
+
+  private static com.sun.management.ThreadMXBean threads() {
+    try {
+      final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) bean;
+        if (threads.isThreadAllocatedMemorySupported()
+            && threads.isThreadAllocatedMemoryEnabled()) {
+          return threads;
+        }
+      }
+    } catch (LinkageError e) {
+      // not a HotSpot JVM
+    }
+    logger.debug("Allocated bytes are not measured on this JVM");
+    return null;
+  }
+
+  /**
+   * Times the reads of a result set and counts its rows, completing the
+   * metrics when the last row is read or the result set is closed.
+   */
+  private static class CountingResultSet implements InvocationHandler {
+
+    private final ResultSet results;
+    private final JavaBeanQueryMetrics metrics;
+    private long rows;
+
+    CountingResultSet(ResultSet results, JavaBeanQueryMetrics metrics) {
+      this.results = results;
+      this.metrics = metrics;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      final String name = method.getName();
+      if (name.equals("next")) {
+        final long start = System.nanoTime();
+        final long allocated = allocatedBytes();
+        final boolean next = (Boolean) invoke(method, args);
+        metrics.executed(System.nanoTime() - start, allocatedBytes()
+            - allocated);
+        if (next) {
+          rows++;
+        } else {
+          metrics.returned(rows);
+          complete(metrics);
+        }
+        return next;
+      }
+      if (name.equals("close")) {
+        try {
+          return invoke(method, args);
+        } finally {
+          metrics.returned(rows);
+          complete(metrics);
+        }
+      }
+      return invoke(method, args);
+    }
+
+    private Object invoke(Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(results, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+package io.thedal.optiq.javabean;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JavaBeanMetricsCollector adds up the metrics of the queries it is told of.
+ * JavaBeanMetrics registers one as an MBean, and one can also be added as a
+ * listener on its own.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanMetricsCollector implements JavaBeanMetricsListener,
+    JavaBeanMetricsMXBean {
+
+  private final AtomicLong queries = new AtomicLong();
+  private final AtomicLong planCacheHits = new AtomicLong();
+  private final AtomicLong prepareNanos = new AtomicLong();
+  private final AtomicLong executeNanos = new AtomicLong();
+  private final AtomicLong allocatedBytes = new AtomicLong();
+  private final AtomicLong rowsScanned = new AtomicLong();
+  private final AtomicLong rowsEmitted = new AtomicLong();
+  private final AtomicLong rowsReturned = new AtomicLong();
+  private final ConcurrentMap<String, AtomicLong> ruleMatches =
+      new ConcurrentHashMap<String, AtomicLong>();
+
+  public void queryCompleted(JavaBeanQueryMetrics metrics) {
+    queries.incrementAndGet();
+    if (metrics.isPlanCached()) {
+      planCacheHits.incrementAndGet();
+    }
+    prepareNanos.addAndGet(metrics.getPrepareNanos());
+    executeNanos.addAndGet(metrics.getExecuteNanos());
+    allocatedBytes.addAndGet(metrics.getAllocatedBytes());
+    rowsScanned.addAndGet(metrics.getRowsScanned());
+    rowsEmitted.addAndGet(metrics.getRowsEmitted());
+    rowsReturned.addAndGet(metrics.getRowsReturned());
+    for (String rule : metrics.getRulesMatched()) {
+      AtomicLong count = ruleMatches.get(rule);
+      if (count == null) {
+        final AtomicLong newCount = new AtomicLong();
+        count = ruleMatches.putIfAbsent(rule, newCount);
+        if (count == null) {
+          count = newCount;
+        }
+      }
+      count.incrementAndGet();
+    }
+  }
+
+  public long getQueries() {
+    return queries.get();
+  }
+
+  public long getPlanCacheHits() {
+    return planCacheHits.get();
+  }
+
+  public long getPrepareMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(prepareNanos.get());
+  }
+
+  public long getExecuteMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(executeNanos.get());
+  }
+
+  public long getAllocatedBytes() {
+    return allocatedBytes.get();
+  }
+
+  public long getRowsScanned() {
+    return rowsScanned.get();
+  }
+
+  public long getRowsEmitted() {
+    return rowsEmitted.get();
+  }
+
+  public long getRowsReturned() {
+    return rowsReturned.get();
+  }
+
+  public Map<String, Long> getRuleMatches() {
+    final Map<String, Long> matches = new TreeMap<String, Long>();
+    for (Map.Entry<String, AtomicLong> entry : ruleMatches.entrySet()) {
+      matches.put(entry.getKey(), entry.getValue().get());
+    }
+    return matches;
+  }
+
+  public void reset() {
+    queries.set(0);
+    planCacheHits.set(0);
+    prepareNanos.set(0);
+    executeNanos.set(0);
+    allocatedBytes.set(0);
+    rowsScanned.set(0);
+    rowsEmitted.set(0);
+    rowsReturned.set(0);
+    ruleMatches.clear();
+  }
+
+}
@@ -0,0 +1,24 @@
+package io.thedal.optiq.javabean;
+
+/**
+ * A JavaBeanMetricsListener receives the metrics of each query once it
+ * completes, that is once its result set is read to the end or closed.
+ * Registering a listener with JavaBeanMetrics turns metrics on.
+ *
+ * Listeners are called on the thread that completed the query, so they should
+ * return quickly and must be thread safe.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public interface JavaBeanMetricsListener {
+
+  /**
+   * Called once for each query that completes.
+   *
+   * @param metrics
+   *          The metrics of the query
+   */
+  void queryCompleted(JavaBeanQueryMetrics metrics);
+
+}
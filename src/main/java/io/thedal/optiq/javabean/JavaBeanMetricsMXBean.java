@@ -0,0 +1,63 @@
+package io.thedal.optiq.javabean;
+
+import java.util.Map;
+
+/**
+ * The totals of the query metrics, over JMX.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public interface JavaBeanMetricsMXBean {
+
+  /**
+   * @return The queries completed
+   */
+  long getQueries();
+
+  /**
+   * @return The queries whose plan came from the plan cache
+   */
+  long getPlanCacheHits();
+
+  /**
+   * @return The milliseconds spent parsing, validating and planning
+   */
+  long getPrepareMillis();
+
+  /**
+   * @return The milliseconds spent executing
+   */
+  long getExecuteMillis();
+
+  /**
+   * @return The bytes allocated by query threads
+   */
+  long getAllocatedBytes();
+
+  /**
+   * @return The rows visited by smart table scans
+   */
+  long getRowsScanned();
+
+  /**
+   * @return The rows passed on by smart table scans
+   */
+  long getRowsEmitted();
+
+  /**
+   * @return The rows returned to callers
+   */
+  long getRowsReturned();
+
+  /**
+   * @return The number of matches of each smart table rule
+   */
+  Map<String, Long> getRuleMatches();
+
+  /**
+   * Sets the totals back to zero.
+   */
+  void reset();
+
+}
@@ -0,0 +1,749 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.eigenbase.sql.SqlKind;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JavaBeanOffHeapStore builds a column store whose columns live outside the
+ * Java heap, in direct ByteBuffers or in ByteBuffers mapped from files. Each
+ * column is a sequence of fixed size chunks, so a column is not limited by the
+ * 2GB reach of a single buffer, and the heap holds only the buffer objects.
+ * Integer and Float fields are held as 4 byte values, Long and Double fields
+ * as 8 byte values, Booleans as single bytes, Dates as 8 byte epoch
+ * millis, and Strings as 4 byte dictionary codes into a dictionary of UTF-8
+ * bytes that is also held off-heap. Nulls are kept in an off-heap bitmap that
+ * is only allocated for columns holding a null.
+ * <p>
+ * The JavaBeans are read once, one at a time, so a table can be loaded from an
+ * iterator without ever holding all its JavaBeans on the heap. Memory-mapped
+ * files are created in the given directory and closed once the store is
+ * written; they are deleted when the schema replaces the store, or failing
+ * that when the JVM exits. Direct buffers count against
+ * -XX:MaxDirectMemorySize and are freed when the store is no longer
+ * reachable.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanOffHeapStore {
+
+  static final Logger logger = LoggerFactory
+      .getLogger(JavaBeanOffHeapStore.class);
+  static final int CHUNK_SHIFT = 26;
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final int INITIAL_SIZE = 4096;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private JavaBeanOffHeapStore() {
+  }
+
+  /**
+   * Copies the JavaBeans into an off-heap column store.
+   *
+   * @param accessors
+   *          The accessors of the bean class
+   * @param javaBeans
+   *          The JavaBeans, in row order
+   * @param directory
+   *          The directory to create memory-mapped column files in, or null
+   *          to hold the columns in direct buffers
+   * @return The column store
+   */
+  public static JavaBeanColumnStore of(JavaBeanAccessors accessors,
+      Iterator<?> javaBeans, File directory) {
+    final ColumnWriter[] writers = new ColumnWriter[accessors.getFieldCount()];
+    for (int field = 0; field < writers.length; field++) {
+      writers[field] = ColumnWriter.of(accessors.getFieldTypes().get(field),
+          directory);
+    }
+    int rowCount = 0;
+    final JavaBeanColumn[] columns = new JavaBeanColumn[writers.length];
+    final List<File> files = new ArrayList<File>();
+    try {
+      while (javaBeans.hasNext()) {
+        if (rowCount == Integer.MAX_VALUE) {
+          throw new IllegalArgumentException(
+              "Too many rows for a column store");
+        }
+        final Object javaBean = javaBeans.next();
+        for (int field = 0; field < writers.length; field++) {
+          writers[field].write(rowCount, accessors.get(javaBean, field));
+        }
+        rowCount++;
+      }
+      for (int field = 0; field < writers.length; field++) {
+        columns[field] = writers[field].finish();
+      }
+    } finally {
+      // The mappings stay valid once their files are closed
+      for (ColumnWriter writer : writers) {
+        for (Buffer buffer : writer.buffers) {
+          buffer.close();
+          if (buffer.file != null) {
+            files.add(buffer.file);
+          }
+        }
+      }
+    }
+    logger.debug("Created off-heap column store of {} rows for: {}",
+        rowCount, accessors.getBeanClass().getName());
+    if (files.isEmpty()) {
+      return new JavaBeanColumnStore(accessors, rowCount, columns);
+    }
+    return new MappedColumnStore(accessors, rowCount, columns, files);
+  }
+
+  /** A column store whose columns are mapped from files. */
+  static final class MappedColumnStore extends JavaBeanColumnStore {
+    private final List<File> files;
+
+    MappedColumnStore(JavaBeanAccessors accessors, int rowCount,
+        JavaBeanColumn[] columns, List<File> files) {
+      super(accessors, rowCount, columns);
+      this.files = files;
+    }
+
+    /**
+     * Deletes the column files. Where a mapped file can be deleted, scans
+     * still running keep reading its mapping; elsewhere the file is left to
+     * be deleted when the JVM exits.
+     */
+    @Override
+    void release() {
+      for (File file : files) {
+        if (!file.delete()) {
+          logger.debug("Could not delete column file: {}", file);
+        }
+      }
+      logger.debug("Released {} column files", files.size());
+    }
+  }
+
+  /**
+   * A growable sequence of off-heap chunks, addressed by byte offset. Every
+   * chunk but the last is CHUNK_SIZE bytes; the last one grows as it is
+   * written to.
+   */
+  static final class Buffer {
+    private final File directory;
+    /** The file of a memory-mapped buffer, or null */
+    File file;
+    private FileChannel channel;
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+
+    Buffer(File directory) {
+      this.directory = directory;
+    }
+
+    /**
+     * Closes the file of a memory-mapped buffer once it is written.
+     */
+    void close() {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          logger.error("Could not close column file: " + file + ". " + e);
+        }
+        channel = null;
+      }
+    }
+
+    private ByteBuffer chunkFor(long offset) {
+      return chunks[(int) (offset >>> CHUNK_SHIFT)];
+    }
+
+    int getInt(long offset) {
+      return chunkFor(offset).getInt((int) (offset & CHUNK_MASK));
+    }
+
+    long getLong(long offset) {
+      return chunkFor(offset).getLong((int) (offset & CHUNK_MASK));
+    }
+
+    float getFloat(long offset) {
+      return chunkFor(offset).getFloat((int) (offset & CHUNK_MASK));
+    }
+
+    double getDouble(long offset) {
+      return chunkFor(offset).getDouble((int) (offset & CHUNK_MASK));
+    }
+
+    byte getByte(long offset) {
+      return chunkFor(offset).get((int) (offset & CHUNK_MASK));
+    }
+
+    /**
+     * Reads a byte that may lie past the end written so far, which reads as
+     * zero.
+     */
+    byte getByteOrZero(long offset) {
+      final int chunk = (int) (offset >>> CHUNK_SHIFT);
+      if (chunk >= chunks.length) {
+        return 0;
+      }
+      final int position = (int) (offset & CHUNK_MASK);
+      return position < chunks[chunk].capacity() ? chunks[chunk]
+          .get(position) : 0;
+    }
+
+    void putInt(long offset, int value) {
+      ensure(offset + 4);
+      chunkFor(offset).putInt((int) (offset & CHUNK_MASK), value);
+    }
+
+    void putLong(long offset, long value) {
+      ensure(offset + 8);
+      chunkFor(offset).putLong((int) (offset & CHUNK_MASK), value);
+    }
+
+    void putFloat(long offset, float value) {
+      ensure(offset + 4);
+      chunkFor(offset).putFloat((int) (offset & CHUNK_MASK), value);
+    }
+
+    void putDouble(long offset, double value) {
+      ensure(offset + 8);
+      chunkFor(offset).putDouble((int) (offset & CHUNK_MASK), value);
+    }
+
+    void putByte(long offset, byte value) {
+      ensure(offset + 1);
+      chunkFor(offset).put((int) (offset & CHUNK_MASK), value);
+    }
+
+    /**
+     * Copies bytes out of the buffer; they may span two chunks.
+     */
+    byte[] getBytes(long offset, int length) {
+      final byte[] bytes = new byte[length];
+      if (length > 0 && (offset >>> CHUNK_SHIFT)
+          == ((offset + length - 1) >>> CHUNK_SHIFT)) {
+        final ByteBuffer chunk = chunkFor(offset).duplicate();
+        chunk.position((int) (offset & CHUNK_MASK));
+        chunk.get(bytes);
+      } else {
+        for (int i = 0; i < length; i++) {
+          bytes[i] = getByte(offset + i);
+        }
+      }
+      return bytes;
+    }
+
+    void putBytes(long offset, byte[] bytes) {
+      for (int i = 0; i < bytes.length; i++) {
+        putByte(offset + i, bytes[i]);
+      }
+    }
+
+    /**
+     * Makes the buffer at least size bytes long. Values are never written
+     * across a chunk boundary, as chunks are a multiple of 8 bytes long.
+     */
+    private void ensure(long size) {
+      final int lastChunk = (int) ((size - 1) >>> CHUNK_SHIFT);
+      if (lastChunk < chunks.length - 1
+          || (lastChunk == chunks.length - 1 && chunks[lastChunk].capacity()
+              >= ((size - 1) & CHUNK_MASK) + 1)) {
+        return;
+      }
+      final ByteBuffer[] grown = new ByteBuffer[lastChunk + 1];
+      System.arraycopy(chunks, 0, grown, 0, chunks.length);
+      for (int chunk = Math.max(0, chunks.length - 1); chunk <= lastChunk;
+          chunk++) {
+        int capacity = CHUNK_SIZE;
+        if (chunk == lastChunk) {
+          final long needed = ((size - 1) & CHUNK_MASK) + 1;
+          capacity = INITIAL_SIZE;
+          while (capacity < needed) {
+            capacity <<= 1;
+          }
+        }
+        final ByteBuffer old = chunk < chunks.length ? chunks[chunk] : null;
+        if (old == null || old.capacity() < capacity) {
+          grown[chunk] = allocate(chunk, capacity, old);
+        }
+      }
+      chunks = grown;
+    }
+
+    private ByteBuffer allocate(int chunk, int capacity, ByteBuffer old) {
+      ByteBuffer buffer;
+      if (directory == null) {
+        buffer = ByteBuffer.allocateDirect(capacity);
+        if (old != null) {
+          final ByteBuffer copy = old.duplicate();
+          copy.clear();
+          buffer.put(copy);
+          buffer.clear();
+        }
+      } else {
+        // A larger mapping of the same file region already holds the data.
+        try {
+          if (channel == null) {
+            file = File.createTempFile("javabean", ".col", directory);
+            file.deleteOnExit();
+            channel = new RandomAccessFile(file, "rw").getChannel();
+          }
+          buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+              (long) chunk << CHUNK_SHIFT, capacity);
+        } catch (IOException e) {
+          logger.error("Could not map a column file in: " + directory);
+          throw new RuntimeException(e);
+        }
+      }
+      return buffer.order(ByteOrder.nativeOrder());
+    }
+  }
+
+  /** Writes the field of each row into an off-heap column. */
+  abstract static class ColumnWriter {
+    final File directory;
+    /** Every buffer of the column, to close once it is written */
+    final List<Buffer> buffers = new ArrayList<Buffer>();
+    final Buffer values;
+    Buffer nulls;
+
+    ColumnWriter(File directory) {
+      this.directory = directory;
+      this.values = newBuffer();
+    }
+
+    final Buffer newBuffer() {
+      final Buffer buffer = new Buffer(directory);
+      buffers.add(buffer);
+      return buffer;
+    }
+
+    static ColumnWriter of(Class<?> type, File directory) {
+      if (type == Integer.class) {
+        return new ColumnWriter(directory) {
+          void writeValue(int row, Object value) {
+            values.putInt((long) row << 2, (Integer) value);
+          }
+
+          JavaBeanColumn finish() {
+            return new IntColumn(values, nulls);
+          }
+        };
+      } else if (type == Long.class) {
+        return new ColumnWriter(directory) {
+          void writeValue(int row, Object value) {
+            values.putLong((long) row << 3, (Long) value);
+          }
+
+          JavaBeanColumn finish() {
+            return new LongColumn(values, nulls);
+          }
+        };
+      } else if (type == Double.class) {
+        return new ColumnWriter(directory) {
+          void writeValue(int row, Object value) {
+            values.putDouble((long) row << 3, (Double) value);
+          }
+
+          JavaBeanColumn finish() {
+            return new DoubleColumn(values, nulls);
+          }
+        };
+      } else if (type == Boolean.class) {
+        return new ColumnWriter(directory) {
+          void writeValue(int row, Object value) {
+            values.putByte(row, (byte) ((Boolean) value ? 1 : 0));
+          }
+
+          JavaBeanColumn finish() {
+            return new BooleanColumn(values, nulls);
+          }
+        };
+      } else if (type == Float.class) {
+        return new ColumnWriter(directory) {
+          void writeValue(int row, Object value) {
+            values.putFloat((long) row << 2, (Float) value);
+          }
+
+          JavaBeanColumn finish() {
+            return new FloatColumn(values, nulls);
+          }
+        };
+      } else if (type == Date.class) {
+        return new ColumnWriter(directory) {
+          void writeValue(int row, Object value) {
+            values.putLong((long) row << 3, ((Date) value).getTime());
+          }
+
+          JavaBeanColumn finish() {
+            return new DateColumn(values, nulls);
+          }
+        };
+      } else if (type == String.class) {
+        return new DictionaryWriter(directory);
+      }
+      throw new IllegalArgumentException("Fields of type: "
+          + type.getName() + " can't be stored off-heap");
+    }
+
+    final void write(int row, Object value) {
+      if (value != null) {
+        writeValue(row, value);
+        return;
+      }
+      if (nulls == null) {
+        nulls = newBuffer();
+      }
+      final long offset = row >>> 3;
+      nulls.putByte(offset, (byte) (nulls.getByteOrZero(offset)
+          | (1 << (row & 7))));
+    }
+
+    abstract void writeValue(int row, Object value);
+
+    abstract JavaBeanColumn finish();
+  }
+
+  /**
+   * Writes String codes while the dictionary is built on the heap; the
+   * dictionary is moved off-heap when the column is finished.
+   */
+  static final class DictionaryWriter extends ColumnWriter {
+    private final Map<String, Integer> codes = new HashMap<String, Integer>();
+    private final List<String> dictionary = new ArrayList<String>();
+
+    DictionaryWriter(File directory) {
+      super(directory);
+    }
+
+    @Override
+    void writeValue(int row, Object value) {
+      Integer code = codes.get(value);
+      if (code == null) {
+        code = dictionary.size();
+        codes.put((String) value, code);
+        dictionary.add((String) value);
+      }
+      values.putInt((long) row << 2, code);
+    }
+
+    @Override
+    JavaBeanColumn finish() {
+      final Buffer offsets = newBuffer();
+      final Buffer bytes = newBuffer();
+      long offset = 0;
+      for (int code = 0; code < dictionary.size(); code++) {
+        offsets.putLong((long) code << 3, offset);
+        final byte[] encoded = dictionary.get(code).getBytes(UTF8);
+        bytes.putBytes(offset, encoded);
+        offset += encoded.length;
+      }
+      offsets.putLong((long) dictionary.size() << 3, offset);
+      return new DictionaryColumn(values, nulls, dictionary.size(), offsets,
+          bytes);
+    }
+  }
+
+  /** A column read from off-heap buffers. */
+  abstract static class OffHeapColumn extends JavaBeanColumn {
+    final Buffer values;
+    private final Buffer nullBits;
+
+    OffHeapColumn(Buffer values, Buffer nullBits) {
+      super(new BitSet());
+      this.values = values;
+      this.nullBits = nullBits;
+    }
+
+    @Override
+    public boolean isNull(int row) {
+      return nullBits != null
+          && (nullBits.getByteOrZero(row >>> 3) & (1 << (row & 7))) != 0;
+    }
+  }
+
+  /** Integer column. */
+  static final class IntColumn extends OffHeapColumn {
+    IntColumn(Buffer values, Buffer nullBits) {
+      super(values, nullBits);
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : values.getInt((long) row << 2);
+    }
+
+    @Override
+    public long getLong(int row) {
+      return values.getInt((long) row << 2);
+    }
+
+    @Override
+    public double getDouble(int row) {
+      return values.getInt((long) row << 2);
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      if (!(literal instanceof Long)) {
+        return super.comparison(op, literal);
+      }
+      final long value = (Long) literal;
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op,
+                  Long.compare(values.getInt((long) row << 2), value));
+        }
+      };
+    }
+  }
+
+  /** Long column. */
+  static final class LongColumn extends OffHeapColumn {
+    LongColumn(Buffer values, Buffer nullBits) {
+      super(values, nullBits);
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : values.getLong((long) row << 3);
+    }
+
+    @Override
+    public long getLong(int row) {
+      return values.getLong((long) row << 3);
+    }
+
+    @Override
+    public double getDouble(int row) {
+      return values.getLong((long) row << 3);
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      if (!(literal instanceof Long)) {
+        return super.comparison(op, literal);
+      }
+      final long value = (Long) literal;
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op,
+                  Long.compare(values.getLong((long) row << 3), value));
+        }
+      };
+    }
+  }
+
+  /** Double column. */
+  static final class DoubleColumn extends OffHeapColumn {
+    DoubleColumn(Buffer values, Buffer nullBits) {
+      super(values, nullBits);
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : values.getDouble((long) row << 3);
+    }
+
+    @Override
+    public double getDouble(int row) {
+      return values.getDouble((long) row << 3);
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      final double value = ((Number) literal).doubleValue();
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op,
+                  Double.compare(values.getDouble((long) row << 3), value));
+        }
+      };
+    }
+  }
+
+  /** Boolean column, a byte per row. */
+  static final class BooleanColumn extends OffHeapColumn {
+    BooleanColumn(Buffer values, Buffer nullBits) {
+      super(values, nullBits);
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : values.getByte(row) != 0;
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      final boolean value = (Boolean) literal;
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op,
+                  Boolean.compare(values.getByte(row) != 0, value));
+        }
+      };
+    }
+  }
+
+  /** Float column. */
+  static final class FloatColumn extends OffHeapColumn {
+    FloatColumn(Buffer values, Buffer nullBits) {
+      super(values, nullBits);
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : values.getFloat((long) row << 2);
+    }
+
+    @Override
+    public double getDouble(int row) {
+      return values.getFloat((long) row << 2);
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      final double value = ((Number) literal).doubleValue();
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op,
+                  Double.compare(values.getFloat((long) row << 2), value));
+        }
+      };
+    }
+  }
+
+  /** Date column, held as epoch millis. */
+  static final class DateColumn extends OffHeapColumn {
+    DateColumn(Buffer values, Buffer nullBits) {
+      super(values, nullBits);
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : new Date(values.getLong((long) row << 3));
+    }
+
+    @Override
+    public long getLong(int row) {
+      return values.getLong((long) row << 3);
+    }
+
+    @Override
+    public RowPredicate comparison(final SqlKind op, Object literal) {
+      final long value = ((Number) literal).longValue();
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row)
+              && JavaBeanFilter.test(op,
+                  Long.compare(values.getLong((long) row << 3), value));
+        }
+      };
+    }
+  }
+
+  /**
+   * String column, dictionary encoded. A predicate decodes every distinct
+   * value once and keeps the codes that match, so rows are tested without
+   * decoding their Strings.
+   */
+  static final class DictionaryColumn extends OffHeapColumn {
+    private final int dictionarySize;
+    private final Buffer offsets;
+    private final Buffer bytes;
+
+    DictionaryColumn(Buffer codes, Buffer nullBits, int dictionarySize,
+        Buffer offsets, Buffer bytes) {
+      super(codes, nullBits);
+      this.dictionarySize = dictionarySize;
+      this.offsets = offsets;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public String decode(int code) {
+      final long start = offsets.getLong((long) code << 3);
+      final long end = offsets.getLong((long) (code + 1) << 3);
+      return new String(bytes.getBytes(start, (int) (end - start)), UTF8);
+    }
+
+    @Override
+    public Object get(int row) {
+      return isNull(row) ? null : decode(values.getInt((long) row << 2));
+    }
+
+    @Override
+    public int getDictionarySize() {
+      return dictionarySize;
+    }
+
+    @Override
+    public int getCode(int row) {
+      return values.getInt((long) row << 2);
+    }
+
+    @Override
+    public RowPredicate comparison(SqlKind op, Object literal) {
+      final BitSet matches = new BitSet(dictionarySize);
+      for (int code = 0; code < dictionarySize; code++) {
+        if (JavaBeanFilter.test(op, decode(code).compareTo((String) literal))) {
+          matches.set(code);
+        }
+      }
+      return codePredicate(matches);
+    }
+
+    @Override
+    public RowPredicate in(List<Object> literals) {
+      final BitSet matches = new BitSet(dictionarySize);
+      for (int code = 0; code < dictionarySize; code++) {
+        if (literals.contains(decode(code))) {
+          matches.set(code);
+        }
+      }
+      return codePredicate(matches);
+    }
+
+    @Override
+    public RowPredicate like(Pattern regex, boolean negated) {
+      final BitSet matches = new BitSet(dictionarySize);
+      for (int code = 0; code < dictionarySize; code++) {
+        if (regex.matcher(decode(code)).matches() != negated) {
+          matches.set(code);
+        }
+      }
+      return codePredicate(matches);
+    }
+
+    private RowPredicate codePredicate(final BitSet matches) {
+      return new RowPredicate() {
+        public boolean test(int row) {
+          return !isNull(row) && matches.get(values.getInt((long) row << 2));
+        }
+      };
+    }
+  }
+
+}
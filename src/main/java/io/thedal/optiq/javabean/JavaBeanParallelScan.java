@@ -0,0 +1,210 @@
+package io.thedal.optiq.javabean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.hydromatic.linq4j.Enumerator;
+
+/**
+ * JavaBeanParallelScan splits the rows of a smart table scan into ranges and
+ * filters and projects the ranges on a ForkJoinPool. A scan over fewer rows
+ * than the threshold stays on the calling thread. When the plan needs the
+ * rows in order, ranges are returned in order; otherwise each range is
+ * returned as soon as it is done. Scans of the same parallelism share one
+ * pool, so tables can be added and set up again without leaking threads.
+ * Closing a scan early stops its ranges at the next chunk of rows.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanParallelScan {
+
+  static final Logger logger = LoggerFactory
+      .getLogger(JavaBeanParallelScan.class);
+  private static final int RANGES_PER_THREAD = 4;
+  /** The rows a range scans between checks for the scan being closed */
+  private static final int CHUNK_ROWS = 4096;
+  private static final Map<Integer, ForkJoinPool> POOLS = new HashMap<Integer, ForkJoinPool>();
+  private final ForkJoinPool pool;
+  private final int parallelism;
+  private final int minRows;
+
+  /** Filters and projects a range of the rows of a scan. */
+  public interface RangeScan {
+    /**
+     * Adds the rows in [from, to) that pass the filter to the result, in
+     * order. Called from several threads at once.
+     */
+    void scan(int from, int to, List<Object> result);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param parallelism
+   *          The most threads a scan runs on.
+   * @param minRows
+   *          Scans over fewer rows stay serial.
+   */
+  public JavaBeanParallelScan(int parallelism, int minRows) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    this.pool = getPool(parallelism);
+    this.parallelism = parallelism;
+    this.minRows = minRows;
+  }
+
+  private static synchronized ForkJoinPool getPool(int parallelism) {
+    ForkJoinPool pool = POOLS.get(parallelism);
+    if (pool == null) {
+      pool = new ForkJoinPool(parallelism);
+      POOLS.put(parallelism, pool);
+    }
+    return pool;
+  }
+
+  /**
+   * @return true if a scan over that many rows runs in parallel
+   */
+  public boolean isParallel(int rowCount) {
+    return parallelism > 1 && rowCount >= minRows;
+  }
+
+  /**
+   * Creates an enumerator that scans the rows in parallel on the first call
+   * to moveNext.
+   *
+   * @param rowCount
+   *          The number of rows to scan
+   * @param rangeScan
+   *          Scans a range of the rows
+   * @param ordered
+   *          If true, rows come out in row order
+   */
+  public Enumerator<Object> enumerator(int rowCount, RangeScan rangeScan,
+      boolean ordered) {
+    return new ParallelEnumerator(rowCount, rangeScan, ordered);
+  }
+
+  /** Enumerates the rows of the ranges as their tasks complete. */
+  private class ParallelEnumerator implements Enumerator<Object> {
+    private final int rowCount;
+    private final RangeScan rangeScan;
+    private final boolean ordered;
+    private List<Future<List<Object>>> futures;
+    private CompletionService<List<Object>> completionService;
+    private AtomicBoolean cancelled;
+    private int nextRange;
+    private List<Object> rows;
+    private int nextRow;
+    private Object current;
+
+    ParallelEnumerator(int rowCount, RangeScan rangeScan, boolean ordered) {
+      this.rowCount = rowCount;
+      this.rangeScan = rangeScan;
+      this.ordered = ordered;
+    }
+
+    private void submit() {
+      final int ranges = Math.max(1,
+          Math.min(rowCount, parallelism * RANGES_PER_THREAD));
+      final int rangeSize = (rowCount + ranges - 1) / ranges;
+      final AtomicBoolean cancelled = new AtomicBoolean();
+      this.cancelled = cancelled;
+      futures = new ArrayList<Future<List<Object>>>(ranges);
+      completionService = new ExecutorCompletionService<List<Object>>(pool);
+      for (int from = 0; from < rowCount; from += rangeSize) {
+        final int start = from;
+        final int end = Math.min(rowCount, from + rangeSize);
+        futures.add(completionService.submit(new Callable<List<Object>>() {
+          public List<Object> call() {
+            final List<Object> result = new ArrayList<Object>();
+            for (int chunk = start; chunk < end; chunk += CHUNK_ROWS) {
+              if (cancelled.get() || Thread.currentThread().isInterrupted()) {
+                return Collections.emptyList();
+              }
+              rangeScan.scan(chunk, Math.min(end, chunk + CHUNK_ROWS), result);
+            }
+            return result;
+          }
+        }));
+      }
+      logger.debug("Scanning {} rows in {} ranges", rowCount, futures.size());
+    }
+
+    private List<Object> nextRows() {
+      try {
+        return ordered ? futures.get(nextRange).get() : completionService
+            .take().get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        logger.error("Parallel scan failed: " + e.getCause());
+        throw new RuntimeException(e.getCause());
+      }
+    }
+
+    @Override
+    public Object current() {
+      return current;
+    }
+
+    @Override
+    public boolean moveNext() {
+      if (futures == null) {
+        submit();
+      }
+      while (rows == null || nextRow == rows.size()) {
+        if (nextRange == futures.size()) {
+          current = null;
+          return false;
+        }
+        rows = nextRows();
+        nextRange++;
+        nextRow = 0;
+      }
+      current = rows.get(nextRow++);
+      return true;
+    }
+
+    @Override
+    public void reset() {
+      close();
+      futures = null;
+      nextRange = 0;
+    }
+
+    @Override
+    public void close() {
+      if (futures != null) {
+        cancelled.set(true);
+        for (Future<List<Object>> future : futures) {
+          future.cancel(true);
+        }
+        // drop the rows of the ranges that are done
+        futures = Collections.emptyList();
+        completionService = null;
+        nextRange = 0;
+      }
+      rows = null;
+      nextRow = 0;
+      current = null;
+    }
+  }
+
+}
@@ -0,0 +1,441 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.Linq4j;
+
+/**
+ * JavaBeanPartitionedTable is a smart table made of several JavaBean lists,
+ * its partitions. All the JavaBeans of a partition have the same value of the
+ * partition key column, and each partition has its own hash indexes.
+ *
+ * A scan visits only the partitions whose key can pass its filter: an
+ * equality or IN on the key keeps the partitions of those values, a range on
+ * a numeric or date key keeps the partitions within it. The partitions left
+ * are scanned one after the other, or one per task when the table has a
+ * parallel scan. A partition can be replaced or removed while the table is
+ * queried; a scan sees the partitions as they were when it started.
+ *
+ * @author Abishek Baskaran
+ *
+ * @param <E>
+ *          Table contains items for a specific Class E
+ */
+public class JavaBeanPartitionedTable<E> extends JavaBeanSmartTable<E> {
+
+  static final Logger logger = LoggerFactory
+      .getLogger(JavaBeanPartitionedTable.class);
+  private final Partitions<E> partitions;
+  private final Class<E> beanClass;
+  private final JavaBeanAccessors accessors;
+  private final int keyField;
+  private final Class<?> keyType;
+  private final int[] indexedFields;
+  private volatile JavaBeanParallelScan parallelScan;
+
+  /**
+   * Constructor
+   *
+   * @param beanClass
+   *          The class of the JavaBeans.
+   * @param keyColumn
+   *          The partition key column.
+   * @param indexedColumns
+   *          Columns to build a hash index on in each partition.
+   */
+  public JavaBeanPartitionedTable(Class<E> beanClass, String keyColumn,
+      String... indexedColumns) {
+    this(new Partitions<E>(), beanClass, keyColumn, indexedColumns);
+  }
+
+  private JavaBeanPartitionedTable(Partitions<E> partitions,
+      Class<E> beanClass, String keyColumn, String[] indexedColumns) {
+    super(partitions);
+    this.partitions = partitions;
+    this.beanClass = beanClass;
+    this.accessors = JavaBeanAccessors.of(beanClass);
+    this.keyField = accessors.getFieldIndex(keyColumn);
+    if (keyField < 0) {
+      throw new IllegalArgumentException("No column: " + keyColumn
+          + " in class: " + beanClass.getName());
+    }
+    this.keyType = accessors.getFieldTypes().get(keyField);
+    this.indexedFields = new int[indexedColumns.length];
+    for (int i = 0; i < indexedColumns.length; i++) {
+      indexedFields[i] = accessors.getFieldIndex(indexedColumns[i]);
+      if (indexedFields[i] < 0) {
+        throw new IllegalArgumentException("No column: " + indexedColumns[i]
+            + " in class: " + beanClass.getName());
+      }
+    }
+  }
+
+  /**
+   * Adds a partition, or replaces the partition of the same key. Only that
+   * partition is indexed; the others are left as they are.
+   *
+   * @param key
+   *          The value of the partition key column of every JavaBean of the
+   *          partition.
+   * @param javaBeanList
+   *          The JavaBeans of the partition. The list must not change once
+   *          added.
+   */
+  public synchronized void setPartition(Object key,
+      List<? extends E> javaBeanList) {
+    final Object normalizedKey = JavaBeanHashIndex.normalize(keyType, key);
+    if (normalizedKey == null) {
+      throw new IllegalArgumentException("Partition key must not be null");
+    }
+    for (E javaBean : javaBeanList) {
+      if (!beanClass.isInstance(javaBean)) {
+        throw new IllegalArgumentException("Not a " + beanClass.getName()
+            + ": " + javaBean);
+      }
+      if (!normalizedKey.equals(JavaBeanHashIndex.normalize(keyType,
+          accessors.get(javaBean, keyField)))) {
+        throw new IllegalArgumentException("JavaBean: " + javaBean
+            + " is not in partition: " + key);
+      }
+    }
+    final Partition<E> partition = new Partition<E>(key, normalizedKey,
+        buildTable(javaBeanList));
+    final List<Partition<E>> list = new ArrayList<Partition<E>>(
+        partitions.current.partitions);
+    final int position = indexOf(list, normalizedKey);
+    if (position < 0) {
+      list.add(partition);
+    } else {
+      list.set(position, partition);
+    }
+    partitions.current = new PartitionList<E>(list);
+    setStatistics(null);
+    logger.debug("Set partition: {} of {} rows", key, javaBeanList.size());
+  }
+
+  /**
+   * Removes a partition.
+   *
+   * @return False if there was no partition of the key
+   */
+  public synchronized boolean removePartition(Object key) {
+    final List<Partition<E>> list = new ArrayList<Partition<E>>(
+        partitions.current.partitions);
+    final int position = indexOf(list,
+        JavaBeanHashIndex.normalize(keyType, key));
+    if (position < 0) {
+      return false;
+    }
+    list.remove(position);
+    partitions.current = new PartitionList<E>(list);
+    setStatistics(null);
+    logger.debug("Removed partition: {}", key);
+    return true;
+  }
+
+  /**
+   * @return The keys of the partitions, in scan order
+   */
+  public List<Object> getPartitionKeys() {
+    final List<Object> keys = new ArrayList<Object>();
+    for (Partition<E> partition : partitions.current.partitions) {
+      keys.add(partition.key);
+    }
+    return keys;
+  }
+
+  /**
+   * @return The name of the partition key column
+   */
+  public String getKeyColumn() {
+    return accessors.getFieldNames().get(keyField);
+  }
+
+  /**
+   * Lets the partitions left after pruning be scanned on several threads,
+   * or scans them serially if null.
+   */
+  void setParallelScan(JavaBeanParallelScan parallelScan) {
+    this.parallelScan = parallelScan;
+  }
+
+  private static int indexOf(List<? extends Partition<?>> list,
+      Object normalizedKey) {
+    for (int i = 0; i < list.size(); i++) {
+      if (list.get(i).normalizedKey.equals(normalizedKey)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private JavaBeanSmartTable<E> buildTable(List<? extends E> javaBeanList) {
+    final List<JavaBeanHashIndex> indexes = new ArrayList<JavaBeanHashIndex>();
+    if (javaBeanList instanceof RandomAccess) {
+      for (int field : indexedFields) {
+        indexes.add(new JavaBeanHashIndex(javaBeanList, accessors, field));
+      }
+    } else if (indexedFields.length > 0) {
+      logger.warn("Not indexing a partition as its list has no random access");
+    }
+    return new Slice<E>(Collections.unmodifiableList(javaBeanList), indexes,
+        accessors);
+  }
+
+  @Override
+  public JavaBeanAccessors getAccessors() {
+    return accessors;
+  }
+
+  /**
+   * Scans are never generated for a partitioned table, which has to prune
+   * its partitions first.
+   */
+  @Override
+  public boolean canGenerateScan(JavaBeanFilter filter, JavaBeanSort sort) {
+    return false;
+  }
+
+  @Override
+  public String explainAccessPath(JavaBeanFilter filter, JavaBeanSort sort) {
+    if (filter == null
+        || (filter.getEqualityValues(keyField) == null && filter
+            .getRange(keyField) == null)) {
+      return null;
+    }
+    return "partitions(" + getKeyColumn() + ")";
+  }
+
+  /**
+   * @return The non-empty partitions whose key can pass the filter
+   */
+  List<Partition<E>> prune(JavaBeanFilter filter) {
+    final List<Partition<E>> all = partitions.current.partitions;
+    final List<Object> values = filter == null ? null : filter
+        .getEqualityValues(keyField);
+    final JavaBeanFilter.Range range = filter == null ? null : filter
+        .getRange(keyField);
+    Set<Object> keys = null;
+    if (values != null) {
+      keys = new HashSet<Object>();
+      for (Object value : values) {
+        keys.add(JavaBeanHashIndex.normalize(keyType, value));
+      }
+    }
+    final List<Partition<E>> pruned = new ArrayList<Partition<E>>();
+    for (Partition<E> partition : all) {
+      if (partition.table.getJavaBeanList().isEmpty()
+          || (keys != null && !keys.contains(partition.normalizedKey))
+          || (range != null && !range.contains(partition.normalizedKey))) {
+        continue;
+      }
+      pruned.add(partition);
+    }
+    logger.debug("Scanning {} of {} partitions", pruned.size(), all.size());
+    return pruned;
+  }
+
+  /**
+   * @return A smart table over the JavaBeans of the partitions
+   */
+  private JavaBeanSmartTable<E> slice(List<Partition<E>> pruned) {
+    return new Slice<E>(new PartitionList<E>(pruned),
+        Collections.<JavaBeanHashIndex> emptyList(), accessors);
+  }
+
+  /**
+   * Scans the partitions that can pass the filter. Without a sort each
+   * partition is scanned with its own indexes, and the partitions run in
+   * parallel when the table has a parallel scan and they hold enough rows. A
+   * sort over several partitions sorts their JavaBeans together.
+   */
+  @Override
+  public Enumerable<Object> pushdown(final int[] projectFields,
+      JavaBeanFilter filter, JavaBeanSort sort) {
+    final List<Partition<E>> pruned = prune(filter);
+    if (pruned.size() == 1) {
+      return pruned.get(0).table.pushdown(projectFields, filter, sort);
+    }
+    if (sort != null || pruned.isEmpty()) {
+      return slice(pruned).pushdown(projectFields, filter, sort);
+    }
+    // Scans are made here so that they count in the metrics of this thread
+    final List<Enumerable<Object>> scans = new ArrayList<Enumerable<Object>>();
+    int rowCount = 0;
+    for (Partition<E> partition : pruned) {
+      scans.add(partition.table.pushdown(projectFields, filter, null));
+      rowCount += partition.table.getJavaBeanList().size();
+    }
+    final JavaBeanParallelScan parallel = parallelScan;
+    if (parallel != null && parallel.isParallel(rowCount)) {
+      logger.debug("Scanning {} partitions in parallel", scans.size());
+      return new AbstractEnumerable<Object>() {
+        public Enumerator<Object> enumerator() {
+          return parallel.enumerator(scans.size(),
+              new JavaBeanParallelScan.RangeScan() {
+                public void scan(int from, int to, List<Object> result) {
+                  for (int i = from; i < to; i++) {
+                    for (Object row : scans.get(i)) {
+                      result.add(row);
+                    }
+                  }
+                }
+              }, false);
+        }
+      };
+    }
+    return new AbstractEnumerable<Object>() {
+      public Enumerator<Object> enumerator() {
+        return Linq4j.iterableEnumerator(Iterables.concat(scans));
+      }
+    };
+  }
+
+  @Override
+  public Enumerable<Object> aggregate(JavaBeanFilter filter,
+      JavaBeanAggregate aggregate) {
+    final List<Partition<E>> pruned = prune(filter);
+    if (pruned.size() == 1) {
+      return pruned.get(0).table.aggregate(filter, aggregate);
+    }
+    return slice(pruned).aggregate(filter, aggregate);
+  }
+
+  @Override
+  JavaBeanJoin.Side joinSide(JavaBeanFilter filter) {
+    final List<Partition<E>> pruned = prune(filter);
+    if (pruned.size() == 1) {
+      return pruned.get(0).table.joinSide(filter);
+    }
+    return slice(pruned).joinSide(filter);
+  }
+
+  /** A partition: its key and a smart table over its JavaBeans. */
+  static final class Partition<E> {
+    final Object key;
+    final Object normalizedKey;
+    final JavaBeanSmartTable<E> table;
+
+    Partition(Object key, Object normalizedKey, JavaBeanSmartTable<E> table) {
+      this.key = key;
+      this.normalizedKey = normalizedKey;
+      this.table = table;
+    }
+  }
+
+  /**
+   * A smart table over some JavaBeans of the partitioned table, with its
+   * accessors even when it is empty.
+   */
+  private static final class Slice<E> extends JavaBeanSmartTable<E> {
+    private final JavaBeanAccessors accessors;
+
+    @SuppressWarnings("unchecked")
+    Slice(List<? extends E> javaBeanList,
+        List<JavaBeanHashIndex> hashIndexes, JavaBeanAccessors accessors) {
+      super((List<E>) javaBeanList, hashIndexes,
+          Collections.<JavaBeanSortedIndex> emptyList(), null, null);
+      this.accessors = accessors;
+    }
+
+    @Override
+    public JavaBeanAccessors getAccessors() {
+      return accessors;
+    }
+  }
+
+  /** The JavaBeans of a list of partitions, one partition after the other. */
+  private static final class PartitionList<E> extends AbstractList<E>
+      implements RandomAccess {
+    final List<Partition<E>> partitions;
+    private final int[] starts;
+    private final int size;
+
+    PartitionList(List<Partition<E>> partitions) {
+      this.partitions = partitions;
+      this.starts = new int[partitions.size()];
+      int size = 0;
+      for (int i = 0; i < starts.length; i++) {
+        starts[i] = size;
+        size += partitions.get(i).table.getJavaBeanList().size();
+      }
+      this.size = size;
+    }
+
+    @Override
+    public E get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", size: "
+            + size);
+      }
+      // The last partition starting at or before the index holds it
+      int lo = 0;
+      int hi = starts.length - 1;
+      while (lo < hi) {
+        final int mid = (lo + hi + 1) >>> 1;
+        if (starts[mid] <= index) {
+          lo = mid;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      return partitions.get(lo).table.getJavaBeanList().get(
+          index - starts[lo]);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+      final List<Iterator<E>> iterators = new ArrayList<Iterator<E>>();
+      for (Partition<E> partition : partitions) {
+        iterators.add(partition.table.getJavaBeanList().iterator());
+      }
+      return Iterators.concat(iterators.iterator());
+    }
+  }
+
+  /** The JavaBeans of the current partitions of the table. */
+  private static final class Partitions<E> extends AbstractList<E>
+      implements RandomAccess {
+    volatile PartitionList<E> current = new PartitionList<E>(
+        Collections.<Partition<E>> emptyList());
+
+    @Override
+    public E get(int index) {
+      return current.get(index);
+    }
+
+    @Override
+    public int size() {
+      return current.size();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+      return current.iterator();
+    }
+  }
+
+}
@@ -1,8 +1,10 @@
 package io.thedal.optiq.javabean;
 
-import java.util.ArrayList;
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.math.BigDecimal;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.Calendar;
 import java.util.List;
 import java.util.Set;
 
@@ -12,22 +14,19 @@ import org.eigenbase.relopt.RelOptRule;
 import org.eigenbase.relopt.RelOptRuleCall;
 import org.eigenbase.relopt.RelOptRuleOperand;
 import org.eigenbase.reltype.RelDataType;
-import org.eigenbase.reltype.RelDataTypeField;
 import org.eigenbase.rex.RexCall;
+import org.eigenbase.rex.RexDynamicParam;
 import org.eigenbase.rex.RexInputRef;
 import org.eigenbase.rex.RexLiteral;
 import org.eigenbase.rex.RexNode;
-import org.eigenbase.rex.RexSlot;
-import org.eigenbase.sql.SqlBinaryOperator;
 import org.eigenbase.sql.SqlKind;
-import org.eigenbase.sql.SqlOperator;
-import org.eigenbase.sql.fun.SqlStdOperatorTable;
 import org.eigenbase.sql.type.SqlTypeName;
 import org.eigenbase.util.NlsString;
-import org.eigenbase.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.hydromatic.optiq.rules.java.EnumerableConvention;
+
 import com.google.common.collect.ImmutableSet;
 
 public class JavaBeanPushDownRule extends RelOptRule {
@@ -41,6 +40,9 @@ public class JavaBeanPushDownRule extends RelOptRule {
       SqlKind.GREATER_THAN_OR_EQUAL, SqlKind.NOT_EQUALS, SqlKind.LIKE,
       SqlKind.AND, SqlKind.OR, SqlKind.NOT);
 
+  /** The decimal digits of the largest value of each integer rank */
+  private static final int[] INTEGER_DIGITS = { 0, 3, 5, 10, 19 };
+
   public static final JavaBeanPushDownRule PROJECT_ON_FILTER = new JavaBeanPushDownRule(
       operand(
           ProjectRel.class,
@@ -70,160 +72,82 @@ public class JavaBeanPushDownRule extends RelOptRule {
 
   @Override
   public void onMatch(RelOptRuleCall call) {
-    logger.info("Rule Match for: " + description);
+    logger.debug("Rule Match for: {}", description);
 
     int relLength = call.rels.length;
-    logger.debug("relLength: " + relLength);
+    logger.debug("relLength: {}", relLength);
     JavaBeanTableScan javaBeanRel = (JavaBeanTableScan) call.rels[relLength - 1];
+    JavaBeanAccessors accessors = javaBeanRel.javaBeanSmartTable
+        .getAccessors();
+    if (accessors == null) {
+      return; // empty table, nothing to push down
+    }
 
-    FilterRel filter;
+    FilterRel filter = null;
     ProjectRel topProj = null;
     ProjectRel bottomProj = null;
 
-    RelDataType topRow = javaBeanRel.getRowType();
-
-    int filterIdx = 2;
-    if (call.rels[relLength - 2] instanceof ProjectRel) {
-      bottomProj = (ProjectRel) call.rels[relLength - 2];
-      filterIdx = 3;
-
-      // bottom projection will change the field count/order
-      topRow = bottomProj.getRowType();
+    // Walk up from the scan: [Project] [Filter] [Project]
+    int idx = relLength - 2;
+    if (call.rels[idx] instanceof ProjectRel) {
+      bottomProj = (ProjectRel) call.rels[idx];
+      idx--;
+    }
+    if (idx >= 0 && call.rels[idx] instanceof FilterRel) {
+      filter = (FilterRel) call.rels[idx];
+      idx--;
+    }
+    if (idx >= 0 && call.rels[idx] instanceof ProjectRel) {
+      topProj = (ProjectRel) call.rels[idx];
     }
-    logger.debug("filterIdx: " + filterIdx);
-
-    String filterString;
-
-    if (filterIdx <= relLength
-        && call.rels[relLength - filterIdx] instanceof FilterRel) {
-      filter = (FilterRel) call.rels[relLength - filterIdx];
-
-      int topProjIdx = filterIdx + 1;
-      if (topProjIdx <= relLength
-          && call.rels[relLength - topProjIdx] instanceof ProjectRel) {
-        topProj = (ProjectRel) call.rels[relLength - topProjIdx];
-      }
-
-      RexCall filterCall = (RexCall) filter.getCondition();
-      SqlOperator op = filterCall.getOperator();
-      List<RexNode> operands = filterCall.getOperands();
-
-      logger.info("FieldNames: " + getFieldsString(topRow));
 
-      final StringBuilder buf = new StringBuilder();
-      if (getFilter(op, operands, buf, topRow.getFieldNames())) {
-        filterString = buf.toString();
-      } else {
+    // Table column ordinals of the fields seen at each level
+    int[] fields = javaBeanRel.projectFields;
+    if (bottomProj != null) {
+      fields = compose(fields, getProjectFields(bottomProj.getProjects()));
+      if (fields == null) {
         return; // can't handle
       }
-    } else {
-      filterString = "";
     }
 
-    // top projection will change the field count/order
-    if (topProj != null) {
-      topRow = topProj.getRowType();
-    }
-    logger.info("Pre transformTo fieldNames (top row): "
-        + getFieldsString(topRow));
-    logger.info("Filter String: " + filterString);
-
-    // Testing get topFields and bottom fields
-    List<RelDataTypeField> bottomFields = null;
-    List<RelDataTypeField> topFields = topRow == null ? null : topRow
-        .getFieldList();
-    if (bottomFields == null) {
-      bottomFields = javaBeanRel.getRowType().getFieldList();
+    JavaBeanFilter pushedFilter = javaBeanRel.filter;
+    if (filter != null && javaBeanRel.sort != null
+        && javaBeanRel.sort.hasLimit()) {
+      return; // a filter above a limit can't go below it
     }
-
-    // handle bottom projection (ie choose a subset of the table fields)
-    if (bottomProj != null) {
-      List<RelDataTypeField> tmp = new ArrayList<RelDataTypeField>();
-      List<RelDataTypeField> dRow = bottomProj.getRowType().getFieldList();
-      for (RexNode rn : bottomProj.getProjects()) {
-        RelDataTypeField rdtf;
-        if (rn instanceof RexSlot) {
-          RexSlot rs = (RexSlot) rn;
-          rdtf = bottomFields.get(rs.getIndex());
-        } else {
-          rdtf = dRow.get(tmp.size());
-        }
-        tmp.add(rdtf);
+    if (filter != null) {
+      if (logger.isDebugEnabled()) {
+        logger.debug("FieldNames: {}", getFieldsString(filter.getRowType()));
       }
-      bottomFields = tmp;
-    }
-    for (RelDataTypeField bottomField : bottomFields) {
-      logger.debug("bottomField: " + bottomField.getName());
+      JavaBeanFilter newFilter = getFilter(filter.getCondition(), fields,
+          accessors);
+      if (newFilter == null) {
+        return; // can't handle
+      }
+      pushedFilter = JavaBeanFilter.and(pushedFilter, newFilter);
     }
 
-    // field renaming: to -> from
-    List<Pair<String, String>> renames = new LinkedList<Pair<String, String>>();
-
-    // handle top projection (ie reordering and renaming)
-    List<RelDataTypeField> newFields = bottomFields;
     if (topProj != null) {
-      logger.info("topProj: " + String.valueOf(topProj.getPermutation()));
-      newFields = new ArrayList<RelDataTypeField>();
-      int i = 0;
-      for (RexNode rn : topProj.getProjects()) {
-        RexInputRef rif = (RexInputRef) rn;
-        RelDataTypeField field = bottomFields.get(rif.getIndex());
-        if (!bottomFields.get(rif.getIndex()).getName()
-            .equals(topFields.get(i).getName())) {
-          renames.add(new Pair<String, String>(bottomFields.get(rif.getIndex())
-              .getName(), topFields.get(i).getName()));
-          field = topFields.get(i);
-        }
-        newFields.add(field);
+      fields = compose(fields, getProjectFields(topProj.getProjects()));
+      if (fields == null) {
+        return; // can't handle
       }
     }
-    for (RelDataTypeField topField : topFields) {
-      logger.debug("topField: " + topField.getName());
-    }
-    for (RelDataTypeField newField : newFields) {
-      logger.debug("newField: " + newField.getName());
-    }
-
-
-    // Top row is the projects
-    // int[] intProjections = null;
-    // if (topRow.getFieldCount() > 0) {
-    // intProjections = new int[topRow.getFieldCount()];
-    // List<RelDataTypeField> topProjections = topRow.getFieldList();
-    // int i = 0;
-    // for (RelDataTypeField topProjection : topProjections) {
-    // logger.debug("Extracting project for: " + topProjection.getName()
-    // + " | " + topProjection.getIndex());
-    // intProjections[i] = topProjection.getIndex();
-    // i++;
-    // }
-    // }
-
-    logger.debug("Getting projections.. FilterIdx: " + filterIdx);
-    int[] intProjections = null;
-    if (filterIdx == 3)
-      intProjections = getProjectFields(bottomProj.getProjects());
-    else {
-      if (topRow.getFieldCount() > 0) {
-         intProjections = new int[topRow.getFieldCount()];
-         List<RelDataTypeField> topProjections = topRow.getFieldList();
-         int i = 0;
-         for (RelDataTypeField topProjection : topProjections) {
-         logger.debug("Extracting project for: " + topProjection.getName()
-         + " | " + topProjection.getIndex());
-         intProjections[i] = topProjection.getIndex();
-         i++;
-         }
-         }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Pushed down filter: {}", pushedFilter);
+      logger.debug("Extracted projections: {}", Arrays.toString(fields));
     }
-    logger.debug("Extracted projections: " + Arrays.toString(intProjections));
 
+    // Filtering and projecting keep the order of the scan, so a pushed down
+    // sort stays and the new scan takes the traits of what it replaces.
+    JavaBeanMetrics.ruleMatched(description);
     call.transformTo(new JavaBeanTableScan(javaBeanRel.getCluster(),
-        javaBeanRel.getTable(), javaBeanRel.javaBeanSmartTable, intProjections,
-        filterString, description));
+        call.rels[0].getTraitSet().replace(EnumerableConvention.INSTANCE),
+        javaBeanRel.getTable(), javaBeanRel.javaBeanSmartTable, fields,
+        pushedFilter, javaBeanRel.sort, description));
   }
 
-  private int[] getProjectFields(List<RexNode> exps) {
+  protected int[] getProjectFields(List<RexNode> exps) {
     final int[] fields = new int[exps.size()];
     for (int i = 0; i < exps.size(); i++) {
       final RexNode exp = exps.get(i);
@@ -236,121 +160,255 @@ public class JavaBeanPushDownRule extends RelOptRule {
     return fields;
   }
 
-  // Copied from Splunk Adapter
-  private boolean getFilter(SqlOperator op, List<RexNode> operands,
-      StringBuilder s, List<String> fieldNames) {
-    if (!valid(op.getKind())) {
-      return false;
+  /**
+   * Maps a projection over a row onto the table column ordinals of that row.
+   */
+  protected int[] compose(int[] rowFields, int[] projectFields) {
+    if (projectFields == null) {
+      return null;
     }
+    final int[] fields = new int[projectFields.length];
+    for (int i = 0; i < projectFields.length; i++) {
+      fields[i] = rowFields[projectFields[i]];
+    }
+    return fields;
+  }
 
-    boolean like = false;
-    switch (op.getKind()) {
+  /**
+   * Converts a filter condition into a JavaBeanFilter on table columns.
+   *
+   * @param node
+   *          The condition
+   * @param fields
+   *          Table column ordinals of the fields the condition refers to
+   * @param accessors
+   *          Accessors of the table, to check the literal types
+   * @return The filter, or null if the condition can't be pushed down
+   */
+  protected JavaBeanFilter getFilter(RexNode node, int[] fields,
+      JavaBeanAccessors accessors) {
+    if (!(node instanceof RexCall)) {
+      return null;
+    }
+    final RexCall call = (RexCall) node;
+    SqlKind kind = call.getOperator().getKind();
+    if (!valid(kind)) {
+      return null;
+    }
+    final List<RexNode> operands = call.getOperands();
+    switch (kind) {
+    case AND:
+    case OR:
+      JavaBeanFilter junction = null;
+      for (RexNode operand : operands) {
+        JavaBeanFilter f = getFilter(operand, fields, accessors);
+        if (f == null) {
+          return null;
+        }
+        if (junction == null) {
+          junction = f;
+        } else if (kind == SqlKind.AND) {
+          junction = JavaBeanFilter.and(junction, f);
+        } else {
+          junction = JavaBeanFilter.or(junction, f);
+        }
+      }
+      return junction;
     case NOT:
-      // NOT op pre-pended
-      s = s.append(" NOT ");
-      break;
+      JavaBeanFilter f = getFilter(operands.get(0), fields, accessors);
+      return f == null ? null : f.negate();
     case CAST:
-      return asd(false, operands, s, fieldNames, 0);
+      return keepsValue(operands.get(0).getType(), call.getType())
+          ? getFilter(operands.get(0), fields, accessors) : null;
     case LIKE:
-      like = true;
-      break;
-    }
-
-    for (int i = 0; i < operands.size(); i++) {
-      if (!asd(like, operands, s, fieldNames, i)) {
-        return false;
+      if (operands.size() != 2) {
+        return null; // ESCAPE is not supported
+      }
+      int likeField = getField(operands.get(0), fields);
+      Object pattern = getValue(operands.get(1));
+      if (likeField < 0 || !(pattern instanceof String)
+          || accessors.getFieldTypes().get(likeField) != String.class) {
+        return null;
       }
-      if (op instanceof SqlBinaryOperator && i == 0) {
-        s.append(" ").append(op).append(" ");
+      return JavaBeanFilter.like(likeField, (String) pattern, false);
+    default:
+      if (operands.size() != 2) {
+        return null;
       }
+      int field = getField(operands.get(0), fields);
+      Object value = getValue(operands.get(1));
+      int parameter = getParameter(operands.get(1));
+      if (field < 0) {
+        // literal on the left: "29 > Age" is "Age < 29"
+        field = getField(operands.get(1), fields);
+        value = getValue(operands.get(0));
+        parameter = getParameter(operands.get(0));
+        kind = JavaBeanFilter.reverse(kind);
+      }
+      if (field >= 0 && parameter >= 0) {
+        // bound at execution, so only the field type can be checked here
+        return Comparable.class.isAssignableFrom(accessors.getFieldTypes()
+            .get(field)) ? JavaBeanFilter.compareParameter(kind, field,
+            parameter) : null;
+      }
+      if (field < 0 || value == null
+          || !JavaBeanFilter.isComparable(
+              accessors.getFieldTypes().get(field), value)) {
+        return null;
+      }
+      return JavaBeanFilter.compare(kind, field, value);
     }
-    return true;
   }
 
-  // Copied from Splunk Adapter
-  private boolean asd(boolean like, List<RexNode> operands, StringBuilder s,
-      List<String> fieldNames, int i) {
-    RexNode operand = operands.get(i);
-    if (operand instanceof RexCall) {
-      s.append("(");
-      final RexCall call = (RexCall) operand;
-      boolean b = getFilter(call.getOperator(), call.getOperands(), s,
-          fieldNames);
-      if (!b) {
-        return false;
-      }
-      s.append(")");
-    } else {
-      if (operand instanceof RexInputRef) {
-        if (i != 0) {
-          return false;
-        }
-        int fieldIndex = ((RexInputRef) operand).getIndex();
-        String name = fieldNames.get(fieldIndex);
-        s.append(name);
-      } else { // RexLiteral
-        String tmp = toString(like, (RexLiteral) operand);
-        if (tmp == null) {
-          return false;
-        }
-        s.append(tmp);
-      }
+  /**
+   * @return The table column ordinal of a field reference, -1 if not one
+   */
+  private int getField(RexNode node, int[] fields) {
+    node = stripCast(node);
+    if (node instanceof RexInputRef) {
+      return fields[((RexInputRef) node).getIndex()];
     }
-    return true;
+    return -1;
   }
 
-  // Copied from Splunk Adapter
-  private boolean valid(SqlKind kind) {
-    return SUPPORTED_OPS.contains(kind);
+  /**
+   * @return The ordinal of a dynamic parameter, -1 if not one
+   */
+  private int getParameter(RexNode node) {
+    node = stripCast(node);
+    if (node instanceof RexDynamicParam) {
+      return ((RexDynamicParam) node).getIndex();
+    }
+    return -1;
   }
 
-  // Copied from Splunk adapter
-  private String toString(boolean like, RexLiteral literal) {
-    String value = null;
-    SqlTypeName litSqlType = literal.getTypeName();
-    if (SqlTypeName.NUMERIC_TYPES.contains(litSqlType)) {
-      value = literal.getValue().toString();
-    } else if (litSqlType.equals(SqlTypeName.CHAR)) {
-      value = ((NlsString) literal.getValue()).getValue();
-      if (like) {
-        value = value.replaceAll("%", "*");
+  /**
+   * @return The Java value of a literal, null if not a supported literal
+   */
+  private Object getValue(RexNode node) {
+    node = stripCast(node);
+    if (!(node instanceof RexLiteral)) {
+      return null;
+    }
+    final RexLiteral literal = (RexLiteral) node;
+    final Object value = literal.getValue();
+    if (value instanceof BigDecimal) {
+      final BigDecimal decimal = (BigDecimal) value;
+      try {
+        return decimal.longValueExact();
+      } catch (ArithmeticException e) {
+        return decimal.doubleValue();
       }
-      value = searchEscape(value);
+    } else if (value instanceof NlsString) {
+      return ((NlsString) value).getValue();
+    } else if (value instanceof Calendar) {
+      return ((Calendar) value).getTimeInMillis();
+    } else if (value instanceof Boolean) {
+      return value;
     }
-    return value;
+    return null;
   }
 
-
-  // Copied from Splunk Adapter
-  public static String getFieldsString(RelDataType row) {
-    return row.getFieldNames().toString();
+  /**
+   * Looks through the casts that keep every value of their operand. Any other
+   * cast is left in place, so the node is not taken for a field, literal or
+   * parameter and the condition is not pushed down.
+   */
+  private RexNode stripCast(RexNode node) {
+    while (node instanceof RexCall
+        && ((RexCall) node).getOperator().getKind() == SqlKind.CAST) {
+      final RexNode operand = ((RexCall) node).getOperands().get(0);
+      if (!keepsValue(operand.getType(), node.getType())) {
+        break;
+      }
+      node = operand;
+    }
+    return node;
   }
 
-  // Copied from Splunk adapter
-  public static String searchEscape(String str) {
-    if (str.isEmpty()) {
-      return "\"\"";
+  /**
+   * A cast keeps the value when it only changes nullability or widens the
+   * type within its family: a number to a type holding all its values, a
+   * String to a VARCHAR at least as long. Casts that truncate, round or pad
+   * change the value the filter has to compare.
+   */
+  static boolean keepsValue(RelDataType from, RelDataType to) {
+    final SqlTypeName fromName = from.getSqlTypeName();
+    final SqlTypeName toName = to.getSqlTypeName();
+    if (fromName == null || toName == null) {
+      return false;
     }
-    StringBuilder sb = new StringBuilder(str.length());
-    boolean quote = false;
-
-    for (int i = 0; i < str.length(); i++) {
-      char c = str.charAt(i);
-      if (c == '"' || c == '\\') {
-        sb.append('\\');
+    final int fromRank = integerRank(fromName);
+    switch (toName) {
+    case TINYINT:
+    case SMALLINT:
+    case INTEGER:
+    case BIGINT:
+      return fromRank > 0 && fromRank <= integerRank(toName);
+    case REAL:
+      // a float holds integers of up to 24 bits exactly
+      return fromName == SqlTypeName.REAL || (fromRank > 0 && fromRank <= 2);
+    case FLOAT:
+    case DOUBLE:
+      // a double holds integers of up to 53 bits exactly
+      return fromName == SqlTypeName.REAL || fromName == SqlTypeName.FLOAT
+          || fromName == SqlTypeName.DOUBLE || (fromRank > 0 && fromRank <= 3);
+    case DECIMAL:
+      if (fromName == SqlTypeName.DECIMAL) {
+        return to.getScale() >= from.getScale()
+            && integerDigits(to) >= integerDigits(from);
       }
-      sb.append(c);
-
-      quote |= !(Character.isLetterOrDigit(c) || c == '_');
+      return fromRank > 0 && integerDigits(to) >= INTEGER_DIGITS[fromRank];
+    case VARCHAR:
+      return (fromName == SqlTypeName.CHAR || fromName == SqlTypeName.VARCHAR)
+          && (to.getPrecision() < 0 || (from.getPrecision() >= 0
+              && from.getPrecision() <= to.getPrecision()));
+    case CHAR:
+      // a longer CHAR pads the value with spaces
+      return fromName == SqlTypeName.CHAR
+          && from.getPrecision() == to.getPrecision();
+    case BOOLEAN:
+    case DATE:
+      return fromName == toName;
+    case TIMESTAMP:
+      return fromName == toName
+          && (to.getPrecision() < 0 || (from.getPrecision() >= 0
+              && from.getPrecision() <= to.getPrecision()));
+    default:
+      return false;
     }
+  }
 
-    if (quote || sb.length() != str.length()) {
-      sb.insert(0, '"');
-      sb.append('"');
-      return sb.toString();
+  /**
+   * @return 1 to 4 for TINYINT to BIGINT, 0 for other types
+   */
+  private static int integerRank(SqlTypeName typeName) {
+    switch (typeName) {
+    case TINYINT:
+      return 1;
+    case SMALLINT:
+      return 2;
+    case INTEGER:
+      return 3;
+    case BIGINT:
+      return 4;
+    default:
+      return 0;
     }
-    return str;
   }
 
+  private static long integerDigits(RelDataType type) {
+    return (long) type.getPrecision() - type.getScale();
+  }
+
+  // Copied from Splunk Adapter
+  private boolean valid(SqlKind kind) {
+    return SUPPORTED_OPS.contains(kind);
+  }
+
+  // Copied from Splunk Adapter
+  public static String getFieldsString(RelDataType row) {
+    return row.getFieldNames().toString();
+  }
 
 }
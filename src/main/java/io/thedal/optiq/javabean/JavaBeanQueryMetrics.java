@@ -0,0 +1,153 @@
+package io.thedal.optiq.javabean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of one query, handed to each JavaBeanMetricsListener when the
+ * query completes.
+ *
+ * Optiq parses, validates and plans a query in one call, so the time spent
+ * preparing covers all three. It is zero when the plan comes from the plan
+ * cache, and for a query run without preparing, whose planning is counted in
+ * its execution. The time executing covers running the plan and reading its
+ * rows, but not what the caller does between rows. Bytes allocated are those
+ * of the calling thread over the same spans, when the JVM can measure them.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public final class JavaBeanQueryMetrics {
+
+  private final String sql;
+  private final List<String> rulesMatched = Collections
+      .synchronizedList(new ArrayList<String>());
+  private final AtomicLong rowsScanned = new AtomicLong();
+  private final AtomicLong rowsEmitted = new AtomicLong();
+  private final AtomicBoolean completed = new AtomicBoolean();
+  private volatile boolean planCached;
+  private volatile long prepareNanos;
+  private volatile long executeNanos;
+  private volatile long allocatedBytes;
+  private volatile long rowsReturned;
+
+  JavaBeanQueryMetrics(String sql) {
+    this.sql = sql;
+  }
+
+  /**
+   * @return The SQL of the query
+   */
+  public String getSql() {
+    return sql;
+  }
+
+  /**
+   * @return True if the plan of the query came from the plan cache
+   */
+  public boolean isPlanCached() {
+    return planCached;
+  }
+
+  /**
+   * @return The nanoseconds spent parsing, validating and planning the query
+   */
+  public long getPrepareNanos() {
+    return prepareNanos;
+  }
+
+  /**
+   * @return The nanoseconds spent running the plan and reading its rows
+   */
+  public long getExecuteNanos() {
+    return executeNanos;
+  }
+
+  /**
+   * @return The bytes the calling thread allocated preparing and executing
+   *         the query, or 0 if the JVM can't measure them
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * @return The descriptions of the smart table rules that rewrote the plan,
+   *         in the order they matched
+   */
+  public List<String> getRulesMatched() {
+    synchronized (rulesMatched) {
+      return new ArrayList<String>(rulesMatched);
+    }
+  }
+
+  /**
+   * @return The rows the smart table scans visited
+   */
+  public long getRowsScanned() {
+    return rowsScanned.get();
+  }
+
+  /**
+   * @return The rows the smart table scans passed on to the rest of the plan
+   */
+  public long getRowsEmitted() {
+    return rowsEmitted.get();
+  }
+
+  /**
+   * @return The rows of the result set read by the caller
+   */
+  public long getRowsReturned() {
+    return rowsReturned;
+  }
+
+  void prepared(long nanos, long bytes, boolean cached) {
+    prepareNanos += nanos;
+    allocatedBytes += bytes;
+    planCached = cached;
+  }
+
+  void executed(long nanos, long bytes) {
+    executeNanos += nanos;
+    allocatedBytes += bytes;
+  }
+
+  void returned(long rows) {
+    rowsReturned = rows;
+  }
+
+  void ruleMatched(String rule) {
+    rulesMatched.add(rule);
+  }
+
+  void scanned(long rows) {
+    rowsScanned.addAndGet(rows);
+  }
+
+  void emitted() {
+    rowsEmitted.incrementAndGet();
+  }
+
+  /**
+   * Marks the query complete.
+   *
+   * @return True the first time only
+   */
+  boolean complete() {
+    return completed.compareAndSet(false, true);
+  }
+
+  @Override
+  public String toString() {
+    return "sql: " + sql + ", planCached: " + planCached + ", prepareNanos: "
+        + prepareNanos + ", executeNanos: " + executeNanos
+        + ", allocatedBytes: " + allocatedBytes + ", rulesMatched: "
+        + getRulesMatched() + ", rowsScanned: " + rowsScanned
+        + ", rowsEmitted: " + rowsEmitted + ", rowsReturned: " + rowsReturned;
+  }
+
+}
@@ -0,0 +1,89 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.reltype.RelDataTypeFactory;
+import org.eigenbase.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JavaBeanRowType builds the row type of a JavaBean table and keeps one for
+ * each type factory it is asked with, such as those of the pooled connections
+ * of a query executor, so planning a query does not rebuild it. Row types are
+ * dropped with their type factory. A table of an empty list has no columns,
+ * and its row type is not kept in case JavaBeans are added later.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+final class JavaBeanRowType {
+
+  static final Logger logger = LoggerFactory.getLogger(JavaBeanRowType.class);
+  /** The most type factories row types are kept for */
+  private static final int MAX_ENTRIES = 16;
+  private final Map<RelDataTypeFactory, Entry> cache =
+      new WeakHashMap<RelDataTypeFactory, Entry>();
+
+  /**
+   * Returns the row type of a table.
+   *
+   * @param typeFactory
+   *          The type factory to build the row type with
+   * @param accessors
+   *          The accessors of the table's bean class, or null if the table is
+   *          empty
+   */
+  RelDataType get(RelDataTypeFactory typeFactory, JavaBeanAccessors accessors) {
+    final Entry entry;
+    synchronized (cache) {
+      entry = cache.get(typeFactory);
+    }
+    if (entry != null && entry.accessors == accessors) {
+      return entry.rowType;
+    }
+    List<String> names = new ArrayList<String>();
+    List<RelDataType> types = new ArrayList<RelDataType>();
+    if (accessors != null) {
+      for (int i = 0; i < accessors.getFieldCount(); i++) {
+        String name = accessors.getFieldNames().get(i);
+        Class type = accessors.getFieldTypes().get(i);
+        names.add(name);
+        types.add(typeFactory.createJavaType(type));
+        logger.debug("Added field name: {} of type: {}", name, type);
+      }
+    }
+    final RelDataType rowType = typeFactory.createStructType(Pair.zip(names,
+        types));
+    if (accessors != null) {
+      synchronized (cache) {
+        if (cache.size() >= MAX_ENTRIES && !cache.containsKey(typeFactory)) {
+          cache.clear();
+        }
+        cache.put(typeFactory, new Entry(accessors, rowType));
+      }
+    }
+    return rowType;
+  }
+
+  /**
+   * A row type and the accessors it was built from. It holds no reference to
+   * its type factory, which would keep the factory's entry from being dropped.
+   */
+  private static final class Entry {
+    final JavaBeanAccessors accessors;
+    final RelDataType rowType;
+
+    Entry(JavaBeanAccessors accessors, RelDataType rowType) {
+      this.accessors = accessors;
+      this.rowType = rowType;
+    }
+  }
+
+}
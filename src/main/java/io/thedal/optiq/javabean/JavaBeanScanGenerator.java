@@ -0,0 +1,301 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+import io.thedal.optiq.javabean.utils.JavaBeanInspector;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import net.hydromatic.linq4j.Linq4j;
+import net.hydromatic.linq4j.expressions.BlockStatement;
+import net.hydromatic.linq4j.expressions.Expression;
+import net.hydromatic.linq4j.expressions.Expressions;
+import net.hydromatic.linq4j.expressions.ParameterExpression;
+import net.hydromatic.linq4j.expressions.Statement;
+import net.hydromatic.linq4j.function.Function1;
+import net.hydromatic.linq4j.function.Predicate1;
+import net.hydromatic.optiq.rules.java.EnumerableRel;
+
+import org.eigenbase.sql.SqlKind;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Defaults;
+
+/**
+ * JavaBeanScanGenerator builds the code of a scan over the JavaBeans of a smart
+ * table, specialized to the bean class. The generated code casts each element
+ * to the bean class, calls the getters directly, evaluates the filter inline
+ * and builds the projected row, so once Janino compiles it the JIT can inline
+ * the whole scan loop instead of going through method handles and compiled
+ * predicate trees.
+ *
+ * The filter reads each field where its first comparison on the way through
+ * the condition needs it, so a field behind a short-circuited AND or OR is
+ * not read at all. Comparisons that have no inline form, such as LIKE or a
+ * dynamic parameter, are compiled by JavaBeanFilter once per execution and
+ * called from the generated code. The semantics are those of JavaBeanFilter:
+ * a comparison with a null field is false.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+final class JavaBeanScanGenerator {
+
+  static final Logger logger = LoggerFactory
+      .getLogger(JavaBeanScanGenerator.class);
+  private final Expression table;
+  private final JavaBeanAccessors accessors;
+  private final Class<?> beanClass;
+  private final List<Statement> statements = new ArrayList<Statement>();
+  private int predicateCount;
+
+  private JavaBeanScanGenerator(Expression table, JavaBeanAccessors accessors) {
+    this.table = table;
+    this.accessors = accessors;
+    this.beanClass = accessors.getBeanClass();
+  }
+
+  /**
+   * Checks if generated code can refer to the bean class: it must be a public
+   * top level class that Optiq's class loader sees.
+   */
+  static boolean canGenerate(JavaBeanAccessors accessors) {
+    final Class<?> beanClass = accessors.getBeanClass();
+    if (!Modifier.isPublic(beanClass.getModifiers())
+        || beanClass.getEnclosingClass() != null) {
+      return false;
+    }
+    try {
+      return Class.forName(beanClass.getName(), false,
+          EnumerableRel.class.getClassLoader()) == beanClass;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Generates the block that returns the rows of a scan.
+   *
+   * @param table
+   *          The expression of the JavaBeanSmartTable in generated code
+   * @param accessors
+   *          The accessors of the bean class
+   * @param projectFields
+   *          The column ordinals to project
+   * @param filter
+   *          The filter, or null
+   * @return A block returning an Enumerable of Object[] rows
+   */
+  static BlockStatement generate(Expression table, JavaBeanAccessors accessors,
+      int[] projectFields, JavaBeanFilter filter) {
+    return new JavaBeanScanGenerator(table, accessors).generate(projectFields,
+        filter);
+  }
+
+  private BlockStatement generate(int[] projectFields, JavaBeanFilter filter) {
+    Expression enumerable = Expressions.call(Linq4j.class, "asEnumerable",
+        Expressions.call(table, "getJavaBeanList"));
+    if (filter != null) {
+      final ParameterExpression row = Expressions.parameter(Object.class,
+          "javaBeanRow");
+      final Lambda lambda = new Lambda(row, true);
+      final Expression condition = condition(filter, lambda,
+          new TreeSet<Integer>());
+      enumerable = Expressions.call(enumerable, "where",
+          Expressions.lambda(Predicate1.class, lambda.body(condition), row));
+    }
+    final ParameterExpression row = Expressions.parameter(Object.class,
+        "javaBeanRow");
+    final Lambda lambda = new Lambda(row, false);
+    final List<Expression> values = new ArrayList<Expression>();
+    for (int field : projectFields) {
+      final ParameterExpression value = lambda.field(field);
+      values.add(accessors.isPrimitive(field) ? Expressions.call(accessors
+          .getFieldTypes().get(field), "valueOf", value) : value);
+    }
+    enumerable = Expressions.call(enumerable, "select", Expressions.lambda(
+        Function1.class,
+        lambda.body(Expressions.newArrayInit(Object.class, values)), row));
+    enumerable = Expressions.call(JavaBeanMetrics.class, "scan", enumerable,
+        Expressions.call(Expressions.call(table, "getJavaBeanList"), "size"));
+    statements.add(Expressions.return_(null, Expressions.call(
+        JavaBeanTrace.class, "sample", enumerable, Expressions.constant(null,
+            Class.class), Expressions.constant(beanClass.getSimpleName()
+            + " generated scan"))));
+    logger.debug("Generated scan of: {}", beanClass.getName());
+    return Expressions.block(statements);
+  }
+
+  /**
+   * @param read
+   *          The fields already read whenever the condition is evaluated. The
+   *          fields the condition always reads are added to it.
+   */
+  private Expression condition(JavaBeanFilter filter, Lambda lambda,
+      Set<Integer> read) {
+    if (filter instanceof JavaBeanFilter.Junction) {
+      final JavaBeanFilter.Junction junction = (JavaBeanFilter.Junction) filter;
+      final Expression left = condition(junction.left, lambda, read);
+      // The right side may be skipped, so what it reads is not kept
+      final Expression right = condition(junction.right, lambda,
+          new TreeSet<Integer>(read));
+      return junction.and ? Expressions.andAlso(left, right) : Expressions
+          .orElse(left, right);
+    }
+    if (filter instanceof JavaBeanFilter.Comparison) {
+      final Expression inline = comparison(
+          (JavaBeanFilter.Comparison) filter, lambda, read);
+      if (inline != null) {
+        return inline;
+      }
+    }
+    return compiled(filter, lambda);
+  }
+
+  /**
+   * @return The inline form of a comparison, or null if it has none
+   */
+  private Expression comparison(JavaBeanFilter.Comparison comparison,
+      Lambda lambda, Set<Integer> read) {
+    final Object value = comparison.value;
+    final SqlKind op = comparison.op;
+    final int field = comparison.field;
+    final Class<?> type = accessors.getFieldTypes().get(field);
+    final boolean primitive = accessors.isPrimitive(field);
+    final ParameterExpression local = lambda.field(field);
+    // The first use of the field reads it: the null check, or the test of a
+    // primitive
+    final Expression first = read.contains(field) ? local : lambda.read(field);
+    final Expression v = primitive ? first : local;
+    final Expression test;
+    if (Date.class.isAssignableFrom(type) && value instanceof Long) {
+      test = compare(op, Expressions.call(v, "getTime"),
+          Expressions.constant(value, long.class));
+    } else if (JavaBeanFilter.isIntegral(type) && value instanceof Long) {
+      test = compare(op, primitive ? Expressions.convert_(v, long.class)
+          : Expressions.call(v, "longValue"), Expressions.constant(value,
+          long.class));
+    } else if ((JavaBeanFilter.isIntegral(type) || type == Float.class
+        || type == Double.class) && value instanceof Number) {
+      // Double.compare, as JavaBeanFilter does, so NaN compares the same
+      test = compare(op, Expressions.call(Double.class, "compare",
+          primitive ? Expressions.convert_(v, double.class) : Expressions
+              .call(v, "doubleValue"), Expressions.constant(
+              ((Number) value).doubleValue(), double.class)), Expressions
+          .constant(0));
+    } else if (type == Boolean.class && value instanceof Boolean
+        && (op == SqlKind.EQUALS || op == SqlKind.NOT_EQUALS)) {
+      test = compare(op, primitive ? v : Expressions.call(v, "booleanValue"),
+          Expressions.constant(value, boolean.class));
+    } else if (type == String.class && value instanceof String) {
+      test = compare(op, Expressions.call(v, "compareTo",
+          Expressions.constant(value)), Expressions.constant(0));
+    } else {
+      return null;
+    }
+    read.add(field);
+    return primitive ? test : Expressions.andAlso(
+        Expressions.notEqual(first, Expressions.constant(null)), test);
+  }
+
+  /**
+   * Compiles a filter once per execution, before the scan, and calls it on
+   * the row.
+   */
+  private Expression compiled(JavaBeanFilter filter, Lambda lambda) {
+    final ParameterExpression predicate = Expressions.parameter(
+        Predicate1.class, "javaBeanPredicate" + predicateCount++);
+    statements.add(Expressions.declare(Modifier.FINAL, predicate,
+        Expressions.call(filter.toExpression(), "compile",
+            Expressions.call(table, "getAccessors"))));
+    return Expressions.call(predicate, "apply", lambda.row);
+  }
+
+  private static Expression compare(SqlKind op, Expression left,
+      Expression right) {
+    switch (op) {
+    case EQUALS:
+      return Expressions.equal(left, right);
+    case NOT_EQUALS:
+      return Expressions.notEqual(left, right);
+    case LESS_THAN:
+      return Expressions.lessThan(left, right);
+    case LESS_THAN_OR_EQUAL:
+      return Expressions.lessThanOrEqual(left, right);
+    case GREATER_THAN:
+      return Expressions.greaterThan(left, right);
+    case GREATER_THAN_OR_EQUAL:
+      return Expressions.greaterThanOrEqual(left, right);
+    default:
+      throw new IllegalArgumentException("Not a comparison: " + op);
+    }
+  }
+
+  /**
+   * The body of a lambda over a row: the row is cast to the bean class once,
+   * and each field it uses is read into a local variable, either up front or,
+   * if lazy, where read() is placed.
+   */
+  private final class Lambda {
+    final ParameterExpression row;
+    final ParameterExpression javaBean;
+    private final boolean lazy;
+    private final Map<Integer, ParameterExpression> fields = new TreeMap<Integer, ParameterExpression>();
+
+    Lambda(ParameterExpression row, boolean lazy) {
+      this.row = row;
+      this.lazy = lazy;
+      this.javaBean = Expressions.parameter(beanClass, "javaBean");
+    }
+
+    ParameterExpression field(int field) {
+      ParameterExpression local = fields.get(field);
+      if (local == null) {
+        local = Expressions.parameter(localType(field), "javaBeanField"
+            + field);
+        fields.put(field, local);
+      }
+      return local;
+    }
+
+    /**
+     * @return An expression that reads a field into its local variable and
+     *         yields its value
+     */
+    Expression read(int field) {
+      return Expressions.assign(field(field), getter(field));
+    }
+
+    private Class<?> localType(int field) {
+      final Class<?> type = accessors.getFieldTypes().get(field);
+      return accessors.isPrimitive(field) ? JavaBeanInspector.unbox(type)
+          : type;
+    }
+
+    private Expression getter(int field) {
+      return Expressions.call(javaBean, accessors.getGetterName(field));
+    }
+
+    BlockStatement body(Expression result) {
+      final List<Statement> body = new ArrayList<Statement>();
+      body.add(Expressions.declare(Modifier.FINAL, javaBean,
+          Expressions.convert_(row, beanClass)));
+      for (Map.Entry<Integer, ParameterExpression> entry : fields.entrySet()) {
+        final Class<?> type = localType(entry.getKey());
+        body.add(lazy ? Expressions.declare(0, entry.getValue(), Expressions
+            .constant(Defaults.defaultValue(type), type)) : Expressions
+            .declare(Modifier.FINAL, entry.getValue(), getter(entry.getKey())));
+      }
+      body.add(Expressions.return_(null, result));
+      return Expressions.block(body);
+    }
+  }
+
+}
@@ -1,9 +1,16 @@
 package io.thedal.optiq.javabean;
 
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +32,15 @@ public class JavaBeanSchema extends AbstractSchema {
   private String schemaName;
   private Map<String, List> javaBeanListMap = new HashMap<String, List>();
   private List<String> smartTables = new ArrayList<String>();
+  private Map<String, List<JavaBeanHashIndex>> hashIndexMap = new HashMap<String, List<JavaBeanHashIndex>>();
+  private Map<String, List<JavaBeanSortedIndex>> sortedIndexMap = new HashMap<String, List<JavaBeanSortedIndex>>();
+  private Map<String, JavaBeanColumnStore> columnStoreMap = new HashMap<String, JavaBeanColumnStore>();
+  private Map<String, JavaBeanParallelScan> parallelScanMap = new HashMap<String, JavaBeanParallelScan>();
+  private Map<String, JavaBeanPartitionedTable> partitionedTableMap = new HashMap<String, JavaBeanPartitionedTable>();
+  private Map<String, List<JavaBeanBlockIndex>> blockIndexMap = new HashMap<String, List<JavaBeanBlockIndex>>();
+  private Map<String, JavaBeanStatistics> statisticsMap = new HashMap<String, JavaBeanStatistics>();
+  private Map<String, Table> tableCache = new HashMap<String, Table>();
+  private volatile Map<String, Table> tableMap;
 
   /**
    * Constructor
@@ -45,8 +61,17 @@ public class JavaBeanSchema extends AbstractSchema {
    * @param javaBeanList
    *          A List of JavaBeans of same type that's to be seen as table.
    */
-  public <E> void addAsTable(String tableName, List<E> javaBeanList) {
+  public synchronized <E> void addAsTable(String tableName, List<E> javaBeanList) {
     javaBeanListMap.put(tableName, javaBeanList);
+    smartTables.remove(tableName);
+    partitionedTableMap.remove(tableName);
+    hashIndexMap.remove(tableName);
+    sortedIndexMap.remove(tableName);
+    setColumnStore(tableName, null);
+    parallelScanMap.remove(tableName);
+    statisticsMap.put(tableName, collectStatistics(tableName, 0));
+    blockIndexMap.remove(tableName);
+    invalidate(tableName);
     logger.info("Added table: " + tableName + " to Schema: " + schemaName);
   }
 
@@ -57,14 +82,490 @@ public class JavaBeanSchema extends AbstractSchema {
    *          The name of the table, has to be unique else will overwrite.
    * @param javaBeanList
    *          A List of JavaBeans of same type that's to be seen as table.
+   * @param indexedColumns
+   *          Columns to build a hash index on. Equality and IN filters on an
+   *          indexed column look up the matching JavaBeans instead of scanning
+   *          the list. The list must not change once indexed.
    */
-  public <E> void addAsSmartTable(String tableName, List<E> javaBeanList) {
+  public synchronized <E> void addAsSmartTable(String tableName, List<E> javaBeanList,
+      String... indexedColumns) {
     javaBeanListMap.put(tableName, javaBeanList);
-    smartTables.add(tableName);
+    if (!smartTables.contains(tableName)) {
+      smartTables.add(tableName);
+    }
+    hashIndexMap.put(tableName,
+        buildHashIndexes(tableName, javaBeanList, indexedColumns));
+    sortedIndexMap.put(tableName, new ArrayList<JavaBeanSortedIndex>());
+    setColumnStore(tableName, null);
+    partitionedTableMap.remove(tableName);
+    statisticsMap.put(tableName, collectStatistics(tableName, 0));
+    blockIndexMap.remove(tableName);
+    invalidate(tableName);
     logger
         .info("Added smart table: " + tableName + " to Schema: " + schemaName);
   }
 
+  /**
+   * Adds a smart table whose data is held only outside the heap. The JavaBeans
+   * are read once from the iterator and copied into off-heap columns, so they
+   * need never all be on the heap at the same time. The table can't be
+   * indexed, and its storage mode can't be changed.
+   * 
+   * @param tableName
+   *          The name of the table, has to be unique else will overwrite.
+   * @param beanClass
+   *          The class of the JavaBeans.
+   * @param javaBeans
+   *          The JavaBeans of the table, in row order.
+   * @param directory
+   *          The directory to create memory-mapped column files in, or null to
+   *          hold the columns in direct buffers.
+   */
+  public synchronized <E> void addAsOffHeapTable(String tableName, Class<E> beanClass,
+      Iterator<? extends E> javaBeans, File directory) {
+    JavaBeanColumnStore columnStore = JavaBeanOffHeapStore.of(
+        JavaBeanAccessors.of(beanClass), javaBeans, directory);
+    javaBeanListMap.put(tableName, Collections.emptyList());
+    if (!smartTables.contains(tableName)) {
+      smartTables.add(tableName);
+    }
+    hashIndexMap.put(tableName, new ArrayList<JavaBeanHashIndex>());
+    sortedIndexMap.put(tableName, new ArrayList<JavaBeanSortedIndex>());
+    setColumnStore(tableName, columnStore);
+    partitionedTableMap.remove(tableName);
+    statisticsMap.put(tableName, collectStatistics(tableName, 0));
+    blockIndexMap.remove(tableName);
+    invalidate(tableName);
+    logger.info("Added off-heap table: " + tableName + " of "
+        + columnStore.getRowCount() + " rows to Schema: " + schemaName);
+  }
+
+  /**
+   * Adds a smart table made of partitions, one for each value of the
+   * partition key column, initially none. Scans skip the partitions whose key
+   * can't pass their filter. Partitions are added and replaced with
+   * setPartition, without rebuilding the other partitions. The table can't
+   * have sorted indexes or another storage mode.
+   * 
+   * @param tableName
+   *          The name of the table, has to be unique else will overwrite.
+   * @param beanClass
+   *          The class of the JavaBeans.
+   * @param keyColumn
+   *          The partition key column.
+   * @param indexedColumns
+   *          Columns to build a hash index on in each partition.
+   */
+  public synchronized <E> void addAsPartitionedTable(String tableName,
+      Class<E> beanClass, String keyColumn, String... indexedColumns) {
+    JavaBeanPartitionedTable<E> table = new JavaBeanPartitionedTable<E>(
+        beanClass, keyColumn, indexedColumns);
+    javaBeanListMap.put(tableName, table.getJavaBeanList());
+    if (!smartTables.contains(tableName)) {
+      smartTables.add(tableName);
+    }
+    hashIndexMap.remove(tableName);
+    sortedIndexMap.remove(tableName);
+    setColumnStore(tableName, null);
+    parallelScanMap.remove(tableName);
+    partitionedTableMap.put(tableName, table);
+    statisticsMap.remove(tableName);
+    blockIndexMap.remove(tableName);
+    invalidate(tableName);
+    logger.info("Added partitioned table: " + tableName + " on column: "
+        + keyColumn + " to Schema: " + schemaName);
+  }
+
+  /**
+   * Adds a partition to a partitioned table, or replaces the partition of the
+   * same key. Queries already running keep the partitions they started with.
+   * 
+   * @param tableName
+   *          The name of a partitioned table already added to the schema.
+   * @param key
+   *          The value of the partition key column of every JavaBean of the
+   *          partition.
+   * @param javaBeanList
+   *          The JavaBeans of the partition. The list must not change once
+   *          added.
+   */
+  public <E> void setPartition(String tableName, Object key,
+      List<E> javaBeanList) {
+    getPartitionedTable(tableName).setPartition(key, javaBeanList);
+    forgetStatistics(tableName);
+    logger.info("Set partition: " + key + " of table: " + tableName);
+  }
+
+  /**
+   * Removes a partition from a partitioned table.
+   * 
+   * @param tableName
+   *          The name of a partitioned table already added to the schema.
+   * @param key
+   *          The key of the partition.
+   */
+  public void removePartition(String tableName, Object key) {
+    if (getPartitionedTable(tableName).removePartition(key)) {
+      forgetStatistics(tableName);
+      logger.info("Removed partition: " + key + " of table: " + tableName);
+    }
+  }
+
+  private synchronized JavaBeanPartitionedTable getPartitionedTable(
+      String tableName) {
+    JavaBeanPartitionedTable table = partitionedTableMap.get(tableName);
+    if (table == null) {
+      throw new IllegalArgumentException("No partitioned table: "
+          + tableName);
+    }
+    return table;
+  }
+
+  /**
+   * Adds a sorted index on an integral, Float, Double or Date column of a
+   * smart table. Range filters on the column look up the JavaBeans within the
+   * range, and an ORDER BY on the column is served in index order.
+   * 
+   * @param tableName
+   *          The name of a smart table already added to the schema.
+   * @param column
+   *          The column to index.
+   */
+  public synchronized void addSortedIndex(String tableName, String column) {
+    List javaBeanList = javaBeanListMap.get(tableName);
+    if (javaBeanList == null || !smartTables.contains(tableName)) {
+      throw new IllegalArgumentException("No smart table: " + tableName);
+    }
+    if (partitionedTableMap.containsKey(tableName)) {
+      throw new IllegalArgumentException("Partitioned table: " + tableName
+          + " can't have a sorted index");
+    }
+    JavaBeanAccessors accessors = JavaBeanAccessors.of(javaBeanList);
+    if (accessors == null) {
+      return;
+    }
+    if (!(javaBeanList instanceof RandomAccess)) {
+      logger.warn("Not indexing table: " + tableName
+          + " as its list has no random access");
+      return;
+    }
+    int field = accessors.getFieldIndex(column);
+    if (field < 0) {
+      throw new IllegalArgumentException("No column: " + column
+          + " in table: " + tableName);
+    }
+    sortedIndexMap.get(tableName).add(
+        new JavaBeanSortedIndex(javaBeanList, accessors, field));
+    invalidate(tableName);
+    logger.info("Added sorted index on column: " + column + " of table: "
+        + tableName);
+  }
+
+  /**
+   * Adds zone maps to a smart table: its rows are split into blocks and the
+   * smallest and largest value of each numeric, date and String column is
+   * kept for each block. Scans skip the blocks whose values can't pass an
+   * equality, IN or range filter, which on a table loaded roughly in the
+   * order of a column skips most of it for a filter on that column. The list
+   * must not change once mapped.
+   * 
+   * @param tableName
+   *          The name of a smart table already added to the schema.
+   * @param blockSize
+   *          The rows of a block.
+   */
+  public synchronized void addZoneMaps(String tableName, int blockSize) {
+    List javaBeanList = getBlockIndexedList(tableName, "zone maps");
+    JavaBeanColumnStore columnStore = columnStoreMap.get(tableName);
+    JavaBeanAccessors accessors = JavaBeanAccessors.of(javaBeanList);
+    JavaBeanZoneMap zoneMap;
+    if (columnStore != null) {
+      zoneMap = JavaBeanZoneMap.of(columnStore, blockSize);
+    } else if (accessors != null) {
+      zoneMap = JavaBeanZoneMap.of(javaBeanList, accessors, blockSize);
+    } else {
+      return;
+    }
+    addBlockIndex(tableName, zoneMap);
+    logger.info("Added zone maps of " + zoneMap.getBlockCount()
+        + " blocks to table: " + tableName);
+  }
+
+  /**
+   * Adds Bloom filters to a smart table: its rows are split into blocks and
+   * the values of each chosen String column in a block are kept in a Bloom
+   * filter. Equality and IN filters on the columns skip the blocks that
+   * definitely hold none of their values, which pays off on high-cardinality
+   * columns that zone maps can't help with. With the block size of the zone
+   * maps, a scan skips the blocks that either rules out. The list must not
+   * change once filtered.
+   * 
+   * @param tableName
+   *          The name of a smart table already added to the schema.
+   * @param blockSize
+   *          The rows of a block.
+   * @param falsePositiveRate
+   *          The chance that a block without a value is scanned anyway, such
+   *          as 0.01. Lower rates take more bits per row.
+   * @param columns
+   *          The String columns to filter.
+   */
+  public synchronized void addBloomFilters(String tableName, int blockSize,
+      double falsePositiveRate, String... columns) {
+    List javaBeanList = getBlockIndexedList(tableName, "Bloom filters");
+    JavaBeanColumnStore columnStore = columnStoreMap.get(tableName);
+    JavaBeanAccessors accessors = columnStore != null ? columnStore
+        .getAccessors() : JavaBeanAccessors.of(javaBeanList);
+    if (accessors == null) {
+      return;
+    }
+    int[] fields = new int[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      fields[i] = accessors.getFieldIndex(columns[i]);
+      if (fields[i] < 0) {
+        throw new IllegalArgumentException("No column: " + columns[i]
+            + " in table: " + tableName);
+      }
+    }
+    JavaBeanBloomFilter bloomFilter;
+    if (columnStore != null) {
+      bloomFilter = JavaBeanBloomFilter.of(columnStore, blockSize,
+          falsePositiveRate, fields);
+    } else {
+      bloomFilter = JavaBeanBloomFilter.of(javaBeanList, accessors,
+          blockSize, falsePositiveRate, fields);
+    }
+    addBlockIndex(tableName, bloomFilter);
+    logger.info("Added Bloom filters of " + bloomFilter.getBlockCount()
+        + " blocks on columns: " + Arrays.toString(columns) + " of table: "
+        + tableName);
+  }
+
+  private List getBlockIndexedList(String tableName, String what) {
+    List javaBeanList = javaBeanListMap.get(tableName);
+    if (javaBeanList == null || !smartTables.contains(tableName)) {
+      throw new IllegalArgumentException("No smart table: " + tableName);
+    }
+    if (partitionedTableMap.containsKey(tableName)) {
+      throw new IllegalArgumentException("Partitioned table: " + tableName
+          + " can't have " + what);
+    }
+    return javaBeanList;
+  }
+
+  /**
+   * Adds a block index to a table, replacing its block index of the same
+   * kind.
+   */
+  private void addBlockIndex(String tableName, JavaBeanBlockIndex index) {
+    List<JavaBeanBlockIndex> indexes = new ArrayList<JavaBeanBlockIndex>();
+    for (JavaBeanBlockIndex existing : getBlockIndexes(tableName)) {
+      if (existing.getClass() != index.getClass()) {
+        indexes.add(existing);
+      }
+    }
+    indexes.add(index);
+    blockIndexMap.put(tableName, indexes);
+    invalidate(tableName);
+  }
+
+  private List<JavaBeanBlockIndex> getBlockIndexes(String tableName) {
+    List<JavaBeanBlockIndex> indexes = blockIndexMap.get(tableName);
+    return indexes != null ? indexes : Collections
+        .<JavaBeanBlockIndex> emptyList();
+  }
+
+
+  /**
+   * Sets how a smart table holds its data. COLUMNAR converts the JavaBean list
+   * once into a column store: Integer and Float fields become primitive
+   * arrays, Dates epoch millis and Strings of few distinct values dictionary
+   * codes, so scans read only the columns they touch and filter and group on
+   * codes. The snapshot does not see later changes to
+   * the list; set the mode again to take a new one. OFF_HEAP and
+   * MEMORY_MAPPED take the same snapshot into direct buffers or into files in
+   * the temporary directory.
+   * 
+   * @param tableName
+   *          The name of a smart table already added to the schema.
+   * @param storageMode
+   *          The storage mode.
+   */
+  public void setStorageMode(String tableName, JavaBeanStorageMode storageMode) {
+    setStorageMode(tableName, storageMode,
+        new File(System.getProperty("java.io.tmpdir")));
+  }
+
+  /**
+   * Sets how a smart table holds its data.
+   * 
+   * @param tableName
+   *          The name of a smart table already added to the schema.
+   * @param storageMode
+   *          The storage mode.
+   * @param directory
+   *          The directory to create column files in for MEMORY_MAPPED.
+   */
+  public synchronized void setStorageMode(String tableName,
+      JavaBeanStorageMode storageMode, File directory) {
+    List javaBeanList = javaBeanListMap.get(tableName);
+    if (javaBeanList == null || !smartTables.contains(tableName)) {
+      throw new IllegalArgumentException("No smart table: " + tableName);
+    }
+    if (partitionedTableMap.containsKey(tableName)) {
+      throw new IllegalArgumentException("Partitioned table: " + tableName
+          + " can't change its storage mode");
+    }
+    JavaBeanAccessors accessors = JavaBeanAccessors.of(javaBeanList);
+    if (accessors == null) {
+      logger.warn("Not changing storage of table: " + tableName
+          + " as its list is empty");
+      return;
+    }
+    switch (storageMode) {
+    case BEANS:
+      setColumnStore(tableName, null);
+      break;
+    case COLUMNAR:
+      setColumnStore(tableName,
+          JavaBeanColumnStore.of(javaBeanList, accessors));
+      break;
+    case OFF_HEAP:
+      setColumnStore(tableName,
+          JavaBeanOffHeapStore.of(accessors, javaBeanList.iterator(), null));
+      break;
+    default:
+      setColumnStore(tableName, JavaBeanOffHeapStore.of(accessors,
+          javaBeanList.iterator(), directory));
+    }
+    invalidate(tableName);
+    logger.info("Storage mode of table: " + tableName + " set to: "
+        + storageMode);
+  }
+
+  /**
+   * Lets scans of a smart table run on several threads. A scan over at least
+   * minRows rows is split into ranges that are filtered and projected on a
+   * ForkJoinPool shared by the tables of the same parallelism; rows come out
+   * in table order only when the query sorts on a pushed down ORDER BY. A
+   * JavaBean list must have random access to be scanned in parallel. A
+   * partitioned table scans one partition per task instead, when the
+   * partitions left after pruning hold minRows rows.
+   * 
+   * @param tableName
+   *          The name of a smart table already added to the schema.
+   * @param parallelism
+   *          The most threads a scan runs on, 1 to always scan serially.
+   * @param minRows
+   *          Scans over fewer rows stay on the calling thread.
+   */
+  public synchronized void setParallelScan(String tableName, int parallelism, int minRows) {
+    if (!smartTables.contains(tableName)) {
+      throw new IllegalArgumentException("No smart table: " + tableName);
+    }
+    JavaBeanParallelScan parallelScan = parallelism <= 1 ? null
+        : new JavaBeanParallelScan(parallelism, minRows);
+    if (partitionedTableMap.containsKey(tableName)) {
+      partitionedTableMap.get(tableName).setParallelScan(parallelScan);
+    } else if (parallelScan == null) {
+      parallelScanMap.remove(tableName);
+    } else {
+      parallelScanMap.put(tableName, parallelScan);
+    }
+    invalidate(tableName);
+    logger.info("Parallelism of table: " + tableName + " set to: "
+        + parallelism);
+  }
+
+  /**
+   * Collects the statistics of a table again. Statistics are otherwise
+   * collected once, when the table is added, or for a partitioned table when
+   * it is first planned after its partitions change, and don't follow later
+   * changes to its JavaBeans; analyze the table again after changing them.
+   * Plans already cached by a query executor are not planned again.
+   * 
+   * @param tableName
+   *          The name of a table already added to the schema.
+   * @param histogramBuckets
+   *          The buckets of an equi-depth histogram of each numeric or date
+   *          column, giving closer estimates of range filters, or 0 for none.
+   */
+  public synchronized void analyze(String tableName, int histogramBuckets) {
+    Table table = getTableMap().get(tableName);
+    if (table == null) {
+      throw new IllegalArgumentException("No table: " + tableName);
+    }
+    JavaBeanStatistics statistics = collectStatistics(tableName,
+        histogramBuckets);
+    statisticsMap.put(tableName, statistics);
+    setStatistics(table, statistics);
+    logger.info("Analyzed table: " + tableName + ", " + statistics);
+  }
+
+  private JavaBeanStatistics collectStatistics(String tableName,
+      int histogramBuckets) {
+    JavaBeanColumnStore columnStore = columnStoreMap.get(tableName);
+    if (columnStore != null) {
+      return JavaBeanStatistics.of(columnStore, histogramBuckets);
+    }
+    List javaBeanList = javaBeanListMap.get(tableName);
+    JavaBeanPartitionedTable partitionedTable = partitionedTableMap
+        .get(tableName);
+    return JavaBeanStatistics.of(javaBeanList, partitionedTable != null
+        ? partitionedTable.getAccessors() : JavaBeanAccessors.of(javaBeanList),
+        histogramBuckets);
+  }
+
+  /**
+   * Sets the column store of a table, or removes it if null, and releases
+   * the store it replaces.
+   */
+  private void setColumnStore(String tableName,
+      JavaBeanColumnStore columnStore) {
+    JavaBeanColumnStore replaced = columnStore == null ? columnStoreMap
+        .remove(tableName) : columnStoreMap.put(tableName, columnStore);
+    if (replaced != null && replaced != columnStore) {
+      replaced.release();
+    }
+  }
+
+  private synchronized void forgetStatistics(String tableName) {
+    statisticsMap.remove(tableName);
+  }
+
+  private static void setStatistics(Table table,
+      JavaBeanStatistics statistics) {
+    if (table instanceof JavaBeanSmartTable) {
+      ((JavaBeanSmartTable) table).setStatistics(statistics);
+    } else if (table instanceof JavaBeanTable) {
+      ((JavaBeanTable) table).setStatistics(statistics);
+    }
+  }
+
+  private <E> List<JavaBeanHashIndex> buildHashIndexes(String tableName,
+      List<E> javaBeanList, String[] indexedColumns) {
+    List<JavaBeanHashIndex> indexes = new ArrayList<JavaBeanHashIndex>();
+    JavaBeanAccessors accessors = JavaBeanAccessors.of(javaBeanList);
+    if (accessors == null || indexedColumns.length == 0) {
+      return indexes;
+    }
+    if (!(javaBeanList instanceof RandomAccess)) {
+      logger.warn("Not indexing table: " + tableName
+          + " as its list has no random access");
+      return indexes;
+    }
+    for (String column : indexedColumns) {
+      int field = accessors.getFieldIndex(column);
+      if (field < 0) {
+        throw new IllegalArgumentException("No column: " + column
+            + " in table: " + tableName);
+      }
+      indexes.add(new JavaBeanHashIndex(javaBeanList, accessors, field));
+      logger.info("Indexed column: " + column + " of table: " + tableName);
+    }
+    return indexes;
+  }
+
   /**
    * @return The name of the schema
    */
@@ -72,19 +573,55 @@ public class JavaBeanSchema extends AbstractSchema {
     return schemaName;
   }
 
+  /**
+   * Drops the cached table of a name that was added, replaced or changed, so
+   * that it is built again on the next lookup.
+   */
+  private void invalidate(String tableName) {
+    tableCache.remove(tableName);
+    tableMap = null;
+  }
+
+  /**
+   * Returns the tables of the schema. A table is built on the first lookup
+   * after it was added or changed, and the same instance is returned after
+   * that, so its row type is built only once as well.
+   */
   @Override
   protected Map<String, Table> getTableMap() {
-    final ImmutableMap.Builder<String, Table> builder = ImmutableMap.builder();
-    for (String tableName : javaBeanListMap.keySet()) {
-      Table javaBeanTable = null;
-      if (smartTables.contains(tableName))
-        javaBeanTable = new JavaBeanSmartTable(javaBeanListMap.get(tableName));
-      else
-        javaBeanTable = new JavaBeanTable(javaBeanListMap.get(tableName));
-      builder.put(tableName, javaBeanTable);
-      logger.debug("Initialized JavaBeanTable for: " + tableName);
-    }
-    return builder.build();
+    Map<String, Table> map = tableMap;
+    if (map != null) {
+      return map;
+    }
+    synchronized (this) {
+      if (tableMap != null) {
+        return tableMap;
+      }
+      final ImmutableMap.Builder<String, Table> builder = ImmutableMap
+          .builder();
+      for (String tableName : javaBeanListMap.keySet()) {
+        Table javaBeanTable = tableCache.get(tableName);
+        if (javaBeanTable == null) {
+          if (partitionedTableMap.containsKey(tableName))
+            javaBeanTable = partitionedTableMap.get(tableName);
+          else if (smartTables.contains(tableName))
+            javaBeanTable = new JavaBeanSmartTable(
+                javaBeanListMap.get(tableName), hashIndexMap.get(tableName),
+                sortedIndexMap.get(tableName), columnStoreMap.get(tableName),
+                parallelScanMap.get(tableName), getBlockIndexes(tableName));
+          else
+            javaBeanTable = new JavaBeanTable(javaBeanListMap.get(tableName));
+          if (statisticsMap.containsKey(tableName)) {
+            setStatistics(javaBeanTable, statisticsMap.get(tableName));
+          }
+          tableCache.put(tableName, javaBeanTable);
+          logger.debug("Initialized JavaBeanTable for: {}", tableName);
+        }
+        builder.put(tableName, javaBeanTable);
+      }
+      tableMap = builder.build();
+      return tableMap;
+    }
   }
 
 }
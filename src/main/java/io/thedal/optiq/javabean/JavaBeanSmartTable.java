@@ -1,12 +1,12 @@
 package io.thedal.optiq.javabean;
 
-import io.thedal.optiq.javabean.utils.JavaBeanInspector;
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
 
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.RandomAccess;
 
 import org.eigenbase.rel.RelNode;
 import org.eigenbase.relopt.RelOptCluster;
@@ -14,15 +14,16 @@ import org.eigenbase.relopt.RelOptTable;
 import org.eigenbase.relopt.RelOptTable.ToRelContext;
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.reltype.RelDataTypeFactory;
-import org.eigenbase.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.hydromatic.linq4j.AbstractEnumerable;
 import net.hydromatic.linq4j.Enumerable;
 import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.Linq4j;
 import net.hydromatic.linq4j.QueryProvider;
 import net.hydromatic.linq4j.Queryable;
+import net.hydromatic.linq4j.function.Predicate1;
 import net.hydromatic.optiq.SchemaPlus;
 import net.hydromatic.optiq.TranslatableTable;
 import net.hydromatic.optiq.impl.AbstractTableQueryable;
@@ -45,7 +46,13 @@ public class JavaBeanSmartTable<E> extends AbstractQueryableTable implements
 
   static final Logger logger = LoggerFactory.getLogger(JavaBeanSmartTable.class);
   private List<E> javaBeanList;
-  private List<String> fieldNames = new ArrayList<String>();
+  private List<JavaBeanHashIndex> hashIndexes;
+  private List<JavaBeanSortedIndex> sortedIndexes;
+  private JavaBeanColumnStore columnStore;
+  private JavaBeanParallelScan parallelScan;
+  private List<JavaBeanBlockIndex> blockIndexes;
+  private final JavaBeanRowType rowType = new JavaBeanRowType();
+  private volatile JavaBeanStatistics statistics;
 
   /**
    * Constructor
@@ -54,41 +61,75 @@ public class JavaBeanSmartTable<E> extends AbstractQueryableTable implements
    *          A JavaBean List
    */
   public JavaBeanSmartTable(List<E> javaBeanList) {
+    this(javaBeanList, Collections.<JavaBeanHashIndex> emptyList(),
+        Collections.<JavaBeanSortedIndex> emptyList(), null, null);
+  }
+
+  /**
+   * Constructor
+   * 
+   * @param javaBeanList
+   *          A JavaBean List
+   * @param hashIndexes
+   *          Hash indexes built over the list, used for equality filters.
+   * @param sortedIndexes
+   *          Sorted indexes built over the list, used for range filters and
+   *          ORDER BY.
+   * @param columnStore
+   *          A columnar snapshot of the list to scan instead of the JavaBeans,
+   *          or null. A table loaded straight into a column store has an
+   *          empty list.
+   * @param parallelScan
+   *          Runs large scans in parallel, or null to always scan serially.
+   */
+  public JavaBeanSmartTable(List<E> javaBeanList,
+      List<JavaBeanHashIndex> hashIndexes,
+      List<JavaBeanSortedIndex> sortedIndexes,
+      JavaBeanColumnStore columnStore, JavaBeanParallelScan parallelScan) {
+    this(javaBeanList, hashIndexes, sortedIndexes, columnStore, parallelScan,
+        Collections.<JavaBeanBlockIndex> emptyList());
+  }
+
+  /**
+   * Constructor
+   * 
+   * @param blockIndexes
+   *          Zone maps and Bloom filters of blocks of rows, used to skip the
+   *          blocks that no row of can pass a filter.
+   */
+  public JavaBeanSmartTable(List<E> javaBeanList,
+      List<JavaBeanHashIndex> hashIndexes,
+      List<JavaBeanSortedIndex> sortedIndexes,
+      JavaBeanColumnStore columnStore, JavaBeanParallelScan parallelScan,
+      List<JavaBeanBlockIndex> blockIndexes) {
     super(Object[].class);
     this.javaBeanList = javaBeanList;
+    this.hashIndexes = hashIndexes;
+    this.sortedIndexes = sortedIndexes;
+    this.columnStore = columnStore;
+    this.parallelScan = parallelScan;
+    this.blockIndexes = blockIndexes;
   }
 
 
   @Override
   public RelDataType getRowType(RelDataTypeFactory typeFactory) {
-    List<String> names = new ArrayList<String>();
-    List<RelDataType> types = new ArrayList<RelDataType>();
-    if ((javaBeanList != null) && (javaBeanList.size() > 0)) {
-      Class sample = javaBeanList.get(0).getClass();
-      Method[] methods = sample.getMethods();
-      for (Method method : methods) {
-        if (JavaBeanInspector.checkMethodEligiblity(method)) {
-          String name = method.getName().substring(3);
-          Class type = method.getReturnType();
-          names.add(name);
-          types.add(typeFactory.createJavaType(type));
-          logger.info("Added field name: " + name + " of type: "
-              + type.getSimpleName());
-          fieldNames.add(name);
-        }
-      }
-    }
-    return typeFactory.createStructType(Pair.zip(names, types));
+    return rowType.get(typeFactory, getAccessors());
   }
 
   @Override
   public <T> Queryable<T> asQueryable(QueryProvider queryProvider,
       SchemaPlus schema, String tableName) {
-    logger.info("Got query request for: " + tableName);
+    logger.debug("Got query request for: {}", tableName);
     return new AbstractTableQueryable<T>(queryProvider, schema, this, tableName) {
       public Enumerator<T> enumerator() {
         // noinspection unchecked
         try {
+          if (columnStore != null) {
+            return (Enumerator<T>) pushdown(
+                JavaBeanEnumerator.identityList(columnStore.getAccessors()
+                    .getFieldCount()), null, null).enumerator();
+          }
           JavaBeanEnumerator enumerator = new JavaBeanEnumerator(javaBeanList);
           return (Enumerator<T>) enumerator;
         } catch (Exception e) {
@@ -115,28 +156,520 @@ public class JavaBeanSmartTable<E> extends AbstractQueryableTable implements
     final int fieldCount = relOptTable.getRowType().getFieldCount();
     final int[] projectFields = JavaBeanEnumerator.identityList(fieldCount);
     return new JavaBeanTableScan(cluster, relOptTable, this, projectFields,
-        null, "Rule register scan");
+        null, null, "Rule register scan");
+  }
+
+  /**
+   * Returns the statistics of the table, set by JavaBeanSchema when the table
+   * is added or analyzed, or collected on the first call otherwise.
+   */
+  @Override
+  public JavaBeanStatistics getStatistic() {
+    JavaBeanStatistics current = statistics;
+    if (current == null) {
+      current = columnStore != null ? JavaBeanStatistics.of(columnStore, 0)
+          : JavaBeanStatistics.of(javaBeanList, getAccessors(), 0);
+      statistics = current;
+      logger.debug("Collected statistics: {}", current);
+    }
+    return current;
+  }
+
+  /**
+   * Replaces the statistics of the table, or drops them to be collected
+   * again on the next call to getStatistic if null.
+   */
+  void setStatistics(JavaBeanStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  /**
+   * @return The accessors of the bean class, or null for an empty table
+   */
+  public JavaBeanAccessors getAccessors() {
+    if (columnStore != null) {
+      return columnStore.getAccessors();
+    }
+    return JavaBeanAccessors.of(javaBeanList);
+  }
+
+  /**
+   * @return The JavaBeans of the table, empty if it was loaded straight into
+   *         a column store
+   */
+  public List<E> getJavaBeanList() {
+    return javaBeanList;
+  }
+
+  /**
+   * Checks if a scan can be generated as code specialized to the bean class
+   * by JavaBeanScanGenerator. That is the case for an unsorted serial scan
+   * of the JavaBeans that no index can help.
+   */
+  public boolean canGenerateScan(JavaBeanFilter filter, JavaBeanSort sort) {
+    final JavaBeanAccessors accessors = getAccessors();
+    return accessors != null && columnStore == null && parallelScan == null
+        && sort == null && chooseAccessPath(filter, null) == null
+        && JavaBeanScanGenerator.canGenerate(accessors);
+  }
+
+  /**
+   * @return The sorted index on a column, or null if it has none
+   */
+  public JavaBeanSortedIndex getSortedIndex(int field) {
+    for (JavaBeanSortedIndex index : sortedIndexes) {
+      if (index.getField() == field) {
+        return index;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks if a sort can be pushed down, that is if every sort field has
+   * comparable values.
+   */
+  public boolean canSort(JavaBeanSort sort) {
+    final JavaBeanAccessors accessors = getAccessors();
+    if (accessors == null) {
+      return false;
+    }
+    for (int field : sort.fields) {
+      if (!Comparable.class.isAssignableFrom(accessors.getFieldTypes().get(
+          field))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The sorted index that gives the order of a sort, or null
+   */
+  private JavaBeanSortedIndex getOrderingIndex(JavaBeanSort sort) {
+    return sort == null || sort.fields.length != 1 ? null
+        : getSortedIndex(sort.fields[0]);
+  }
+
+  /**
+   * Describes how a scan with the filter and sort reaches its JavaBeans.
+   *
+   * @return The index used, or null for a full scan
+   */
+  public String explainAccessPath(JavaBeanFilter filter, JavaBeanSort sort) {
+    AccessPath path = chooseAccessPath(filter, sort);
+    return path == null ? null : path.toString();
+  }
+
+  /**
+   * Picks the index that answers the filter with the fewest JavaBeans, or the
+   * sorted index that gives the order of the sort. The blocks that the zone
+   * maps and Bloom filters can't rule out count as an index over their rows.
+   */
+  private AccessPath chooseAccessPath(JavaBeanFilter filter, JavaBeanSort sort) {
+    final JavaBeanAccessors accessors = getAccessors();
+    final JavaBeanSortedIndex orderingIndex = getOrderingIndex(sort);
+    if (orderingIndex != null) {
+      final JavaBeanSortedIndex index = orderingIndex;
+      final JavaBeanFilter.Range range = filter == null ? null : filter
+          .getRange(index.getField());
+      return new AccessPath("sorted", accessors, index.getField()) {
+        int[] rowPositions() {
+          return index.lookup(range, sort.descending[0]);
+        }
+      };
+    }
+    if (filter == null) {
+      return null;
+    }
+    AccessPath best = null;
+    int bestCount = Integer.MAX_VALUE;
+    for (final JavaBeanHashIndex index : hashIndexes) {
+      final List<Object> values = filter.getEqualityValues(index.getField());
+      if (values != null && index.count(values) < bestCount) {
+        bestCount = index.count(values);
+        best = new AccessPath("hash", accessors, index.getField()) {
+          int[] rowPositions() {
+            return index.lookup(values);
+          }
+        };
+      }
+    }
+    for (final JavaBeanSortedIndex index : sortedIndexes) {
+      final JavaBeanFilter.Range range = filter.getRange(index.getField());
+      if (range != null && index.count(range) < bestCount) {
+        bestCount = index.count(range);
+        best = new AccessPath("range", accessors, index.getField()) {
+          int[] rowPositions() {
+            return index.lookup(range, false);
+          }
+        };
+      }
+    }
+    final AccessPath blocks = chooseBlocks(filter, bestCount);
+    if (blocks != null) {
+      best = blocks;
+    }
+    return best;
+  }
+
+  /**
+   * Finds the blocks of rows that no block index can rule out. The skips of
+   * block indexes of the same block size add up; of block indexes of other
+   * sizes the one scanning fewest rows is used.
+   *
+   * @return The blocks to scan, or null unless they hold fewer rows than
+   *         bestCount
+   */
+  private AccessPath chooseBlocks(JavaBeanFilter filter, int bestCount) {
+    JavaBeanBlockIndex chosen = null;
+    boolean[] chosenBlocks = null;
+    for (JavaBeanBlockIndex index : blockIndexes) {
+      final boolean[] blocks = index.blocks(filter);
+      if (blocks == null) {
+        continue;
+      }
+      if (chosen != null && chosen.getBlockSize() == index.getBlockSize()) {
+        for (int block = 0; block < blocks.length; block++) {
+          chosenBlocks[block] &= blocks[block];
+        }
+      } else if (chosen == null
+          || index.count(blocks) < chosen.count(chosenBlocks)) {
+        chosen = index;
+        chosenBlocks = blocks;
+      }
+    }
+    if (chosen == null || chosen.count(chosenBlocks) >= bestCount) {
+      return null;
+    }
+    final JavaBeanBlockIndex index = chosen;
+    final boolean[] blocks = chosenBlocks;
+    return new AccessPath("blocks(" + index.count(blocks) + " of "
+        + rowCount() + " rows)") {
+      int[] rowPositions() {
+        return index.rowPositions(blocks);
+      }
+    };
+  }
+
+  private int rowCount() {
+    return columnStore != null ? columnStore.getRowCount() : javaBeanList
+        .size();
   }
 
-  /** Returns an enumerable over a given projection of the fields. */
-  public Enumerable<Object> pushdown(int[] projectFields,
-      String filterExpression) {
+  /** An index lookup giving the positions of the JavaBeans to visit. */
+  private abstract static class AccessPath {
+    private final String description;
+    /** true if the positions come in the order of the sort */
+    final boolean ordered;
+
+    AccessPath(String kind, JavaBeanAccessors accessors, int field) {
+      this.ordered = kind.equals("sorted");
+      this.description = kind + "(" + accessors.getFieldNames().get(field)
+          + ")";
+    }
+
+    AccessPath(String description) {
+      this.ordered = false;
+      this.description = description;
+    }
+
+    abstract int[] rowPositions();
+
+    @Override
+    public String toString() {
+      return description;
+    }
+  }
+
+  /**
+   * Returns an enumerable over a given projection of the fields, holding only
+   * the JavaBeans that pass the filter. The filter is compiled once here and
+   * shared by every enumerator of the scan. When an index covers the filter,
+   * only the JavaBeans it points to are visited. A sort is served in the
+   * order of a sorted index on its key when there is one; otherwise the
+   * JavaBeans that pass the filter are sorted here, and with a fetch only the
+   * top ones are kept while scanning. A table with a column store is scanned
+   * over its columns instead of its JavaBeans. Scans over enough rows run in
+   * parallel when the table has a parallel scan, keeping row order only when
+   * a sort is pushed down.
+   */
+  public Enumerable<Object> pushdown(final int[] projectFields,
+      JavaBeanFilter filter, JavaBeanSort sort) {
     logger.debug("Smart table pushdown call received.");
-    logger.debug("No. of projection field ids: " + projectFields.length);
-    logger.debug("Filter Expression: " + filterExpression);
-    Set<String> projectFieldNames = new HashSet<String>();
-    for (int i : projectFields) {
-      logger.debug("Adding name for project number: " + i);
-      projectFieldNames.add(fieldNames.get(i));
+    logger.debug("No. of projection field ids: {}", projectFields.length);
+    logger.debug("Filter: {}", filter);
+    final JavaBeanAccessors accessors = getAccessors();
+    final AccessPath path = accessors == null ? null : chooseAccessPath(
+        filter, sort);
+    final int[] rowPositions = path == null ? null : path.rowPositions();
+    if (rowPositions != null) {
+      logger.debug("Probed index: {}, rows: {}", path, rowPositions.length);
+    }
+    if (sort != null && sort.fields.length > 0
+        && (path == null || !path.ordered)) {
+      final int[] sorted = accessors == null ? new int[0] : sortPositions(
+          rowPositions, filter, sort, accessors);
+      logger.debug("Sorted rows: {}", sorted.length);
+      return observe(scan(projectFields, sorted, null, true, true),
+          rowPositions, "sorted scan");
     }
+    final Enumerable<Object> rows = observe(scan(projectFields, rowPositions,
+        filter, sort != null, sort == null || !sort.hasLimit()), rowPositions,
+        "scan");
+    if (sort == null) {
+      return rows;
+    }
+    // Rows come in index or scan order; skip and stop as the sort asks.
+    Enumerable<Object> limited = rows;
+    if (sort.offset > 0) {
+      limited = limited.skip(sort.offset);
+    }
+    if (sort.fetch >= 0) {
+      limited = limited.take(sort.fetch);
+    }
+    return limited;
+  }
+
+  /**
+   * Returns the row numbers of the rows that pass the filter in the order of
+   * the sort, with its offset and fetch applied.
+   */
+  private int[] sortPositions(int[] rowPositions, JavaBeanFilter filter,
+      JavaBeanSort sort, JavaBeanAccessors accessors) {
+    final JavaBeanSort.Collector collector = sort.collector();
+    final Object[] keys = new Object[sort.fields.length];
+    if (columnStore != null) {
+      final JavaBeanColumn.RowPredicate rowPredicate = filter == null ? null
+          : filter.compile(columnStore);
+      final int end = rowPositions == null ? columnStore.getRowCount()
+          : rowPositions.length;
+      for (int i = 0; i < end; i++) {
+        final int row = rowPositions == null ? i : rowPositions[i];
+        if (rowPredicate == null || rowPredicate.test(row)) {
+          for (int k = 0; k < keys.length; k++) {
+            keys[k] = columnStore.getColumn(sort.fields[k]).get(row);
+          }
+          collector.offer(row, keys);
+        }
+      }
+      return collector.finish();
+    }
+    final Predicate1<Object> predicate = filter == null ? null : filter
+        .compile(accessors);
+    final int end = rowPositions == null ? javaBeanList.size()
+        : rowPositions.length;
+    final Iterator<E> iterator = rowPositions == null ? javaBeanList
+        .iterator() : null;
+    for (int i = 0; i < end; i++) {
+      final int row = rowPositions == null ? i : rowPositions[i];
+      final Object javaBean = iterator != null ? iterator.next()
+          : javaBeanList.get(row);
+      if (predicate == null || predicate.apply(javaBean)) {
+        for (int k = 0; k < keys.length; k++) {
+          keys[k] = accessors.get(javaBean, sort.fields[k]);
+        }
+        collector.offer(row, keys);
+      }
+    }
+    return collector.finish();
+  }
+
+  /**
+   * Scans the rows at the positions, or every row, keeping those that pass
+   * the filter.
+   */
+  private Enumerable<Object> scan(final int[] projectFields,
+      final int[] rowPositions, JavaBeanFilter filter, boolean ordered,
+      boolean allowParallel) {
+    final JavaBeanAccessors accessors = getAccessors();
+    if (columnStore != null) {
+      final JavaBeanColumn.RowPredicate rowPredicate = filter == null ? null
+          : filter.compile(columnStore);
+      final int rowCount = rowPositions == null ? columnStore.getRowCount()
+          : rowPositions.length;
+      if (allowParallel && parallelScan != null
+          && parallelScan.isParallel(rowCount)) {
+        return parallel(rowCount, new JavaBeanParallelScan.RangeScan() {
+          public void scan(int from, int to, List<Object> result) {
+            for (int i = from; i < to; i++) {
+              final int row = rowPositions == null ? i : rowPositions[i];
+              if (rowPredicate == null || rowPredicate.test(row)) {
+                result.add(columnStore.getRow(row, projectFields));
+              }
+            }
+          }
+        }, ordered);
+      }
+      return new AbstractEnumerable<Object>() {
+        public Enumerator<Object> enumerator() {
+          return new JavaBeanColumnEnumerator(columnStore, rowPositions,
+              projectFields, rowPredicate);
+        }
+      };
+    }
+
+    final Predicate1<Object> predicate = (filter == null || accessors == null)
+        ? null : filter.compile(accessors);
+    final int rowCount = rowPositions == null ? javaBeanList.size()
+        : rowPositions.length;
+    if (allowParallel && parallelScan != null && accessors != null
+        && javaBeanList instanceof RandomAccess
+        && parallelScan.isParallel(rowCount)) {
+      return parallel(rowCount, new JavaBeanParallelScan.RangeScan() {
+        public void scan(int from, int to, List<Object> result) {
+          for (int i = from; i < to; i++) {
+            final Object javaBean = javaBeanList.get(rowPositions == null ? i
+                : rowPositions[i]);
+            if (predicate == null || predicate.apply(javaBean)) {
+              result.add(accessors.getRow(javaBean, projectFields));
+            }
+          }
+        }
+      }, ordered);
+    }
+    return new AbstractEnumerable<Object>() {
+      public Enumerator<Object> enumerator() {
+        return new JavaBeanEnumerator(javaBeanList, rowPositions,
+            projectFields, predicate);
+      }
+    };
+  }
 
+  private Enumerable<Object> parallel(final int rowCount,
+      final JavaBeanParallelScan.RangeScan rangeScan, final boolean ordered) {
+    logger.debug("Scanning {} rows in parallel", rowCount);
     return new AbstractEnumerable<Object>() {
       public Enumerator<Object> enumerator() {
-        // TODO apply push down
-        return new JavaBeanEnumerator(javaBeanList, projectFieldNames,
-            filterExpression);
+        return parallelScan.enumerator(rowCount, rangeScan, ordered);
       }
     };
   }
 
+  /**
+   * Returns an enumerable over the groups of an aggregate of the JavaBeans
+   * that pass the filter. As for pushdown, an index covering the filter limits
+   * the JavaBeans visited, and a table with a column store is aggregated over
+   * its columns.
+   */
+  public Enumerable<Object> aggregate(JavaBeanFilter filter,
+      JavaBeanAggregate aggregate) {
+    logger.debug("Smart table aggregate call received: {}", aggregate);
+    final JavaBeanAccessors accessors = getAccessors();
+    final AccessPath path = chooseAccessPath(filter, null);
+    final int[] rowPositions = path == null ? null : path.rowPositions();
+    if (columnStore != null) {
+      return observe(Linq4j.asEnumerable(aggregate.aggregate(columnStore,
+          rowPositions, filter == null ? null : filter.compile(columnStore))),
+          rowPositions, "aggregate");
+    }
+    return observe(Linq4j.asEnumerable(aggregate.aggregate(javaBeanList,
+        rowPositions, accessors, filter == null ? null : filter
+            .compile(accessors))), rowPositions, "aggregate");
+  }
+
+  /**
+   * Checks if the table can be an input of a join pushed down by
+   * JavaBeanJoinRule, that is if its rows can be read by row number.
+   */
+  public boolean canJoin() {
+    return getAccessors() != null
+        && (columnStore != null || javaBeanList instanceof RandomAccess);
+  }
+
+  /**
+   * Returns an enumerable over the rows of an inner equi-join of the rows of
+   * this table that pass the filter, on the left, with the rows of another
+   * smart table that pass its filter, on the right. See JavaBeanJoin.
+   */
+  public Enumerable<Object> hashJoin(JavaBeanFilter filter,
+      JavaBeanSmartTable<?> right, JavaBeanFilter rightFilter,
+      JavaBeanJoin join) {
+    logger.debug("Smart table join call received: {}", join);
+    return JavaBeanTrace.sample(join.join(joinSide(filter), right
+        .joinSide(rightFilter)), getAccessors().getBeanClass(), "join");
+  }
+
+  /**
+   * @return The rows of this table that pass the filter, as an input of a
+   *         join
+   */
+  JavaBeanJoin.Side joinSide(final JavaBeanFilter filter) {
+    final JavaBeanAccessors accessors = getAccessors();
+    final JavaBeanColumn.RowPredicate rowPredicate = columnStore == null
+        || filter == null ? null : filter.compile(columnStore);
+    final Predicate1<Object> predicate = columnStore != null
+        || filter == null ? null : filter.compile(accessors);
+    return new JavaBeanJoin.Side() {
+      private int scanned;
+
+      int[] rowPositions() {
+        final AccessPath path = chooseAccessPath(filter, null);
+        final int[] candidates = path == null ? null : path.rowPositions();
+        final int end = candidates == null ? getRowCount()
+            : candidates.length;
+        int[] positions = new int[filter == null ? end : Math.min(end, 16)];
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+          final int row = candidates == null ? i : candidates[i];
+          if (test(row)) {
+            if (count == positions.length) {
+              positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = row;
+          }
+        }
+        scanned += end;
+        return count == positions.length ? positions : Arrays.copyOf(
+            positions, count);
+      }
+
+      boolean test(int row) {
+        if (rowPredicate != null) {
+          return rowPredicate.test(row);
+        }
+        return predicate == null || predicate.apply(javaBeanList.get(row));
+      }
+
+      Object get(int row, int field) {
+        return columnStore != null ? columnStore.getColumn(field).get(row)
+            : accessors.get(javaBeanList.get(row), field);
+      }
+
+      JavaBeanHashIndex getHashIndex(int field) {
+        for (JavaBeanHashIndex index : hashIndexes) {
+          if (index.getField() == field) {
+            return index;
+          }
+        }
+        return null;
+      }
+
+      int getRowCount() {
+        return rowCount();
+      }
+
+      int getScanned() {
+        return scanned;
+      }
+    };
+  }
+
+  /**
+   * Counts the rows of a scan of the row positions, or of every row, in the
+   * query metrics and samples them into the trace, when either is on.
+   */
+  private Enumerable<Object> observe(Enumerable<Object> rows,
+      int[] rowPositions, String scan) {
+    final int scanned;
+    if (rowPositions != null) {
+      scanned = rowPositions.length;
+    } else {
+      scanned = rowCount();
+    }
+    final JavaBeanAccessors accessors = getAccessors();
+    return JavaBeanTrace.sample(JavaBeanMetrics.scan(rows, scanned),
+        accessors == null ? null : accessors.getBeanClass(), scan);
+  }
+
 }
@@ -0,0 +1,229 @@
+package io.thedal.optiq.javabean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import net.hydromatic.linq4j.expressions.Expression;
+import net.hydromatic.linq4j.expressions.Expressions;
+
+/**
+ * JavaBeanSort is the ORDER BY, OFFSET and FETCH pushed down to a smart table.
+ * Fields are referred to by their column ordinal in the table. A sort with no
+ * fields keeps the order of the scan and only limits its rows. Nulls sort
+ * last when ascending and first when descending.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanSort {
+
+  final int[] fields;
+  final boolean[] descending;
+  final int offset;
+  final int fetch;
+
+  private JavaBeanSort(int[] fields, boolean[] descending, int offset,
+      int fetch) {
+    this.fields = fields;
+    this.descending = descending;
+    this.offset = offset;
+    this.fetch = fetch;
+  }
+
+  /**
+   * Creates a sort.
+   *
+   * @param fields
+   *          The column ordinals of the sort keys, major key first
+   * @param descending
+   *          For each key, true if it is sorted largest first
+   */
+  public static JavaBeanSort of(int[] fields, boolean[] descending) {
+    return new JavaBeanSort(fields, descending, 0, -1);
+  }
+
+  /**
+   * Creates a sort that skips and limits its rows.
+   *
+   * @param fields
+   *          The column ordinals of the sort keys, major key first
+   * @param descending
+   *          For each key, true if it is sorted largest first
+   * @param offset
+   *          The number of rows to skip
+   * @param fetch
+   *          The most rows to return after the offset, -1 for all
+   */
+  public static JavaBeanSort of(int[] fields, boolean[] descending,
+      int offset, int fetch) {
+    return new JavaBeanSort(fields, descending, offset, fetch);
+  }
+
+  /**
+   * @return true if the sort skips or limits rows
+   */
+  public boolean hasLimit() {
+    return offset > 0 || fetch >= 0;
+  }
+
+  /**
+   * @return An expression that rebuilds this sort in generated code
+   */
+  public Expression toExpression() {
+    return Expressions.call(JavaBeanSort.class, "of",
+        Expressions.constant(fields), Expressions.constant(descending),
+        Expressions.constant(offset, int.class),
+        Expressions.constant(fetch, int.class));
+  }
+
+  /**
+   * Creates a collector of the rows to sort. With a fetch, it keeps only the
+   * best offset + fetch rows in a bounded heap, so n rows are sorted in
+   * O(n log k) time and O(k) memory.
+   */
+  public Collector collector() {
+    return new Collector();
+  }
+
+  /**
+   * Gathers the row numbers and sort keys of the rows that pass the filter,
+   * and returns the row numbers in sorted order with the offset and fetch
+   * applied. Rows with equal keys stay in the order they were offered.
+   */
+  public final class Collector {
+    private final int limit;
+    private final Comparator<Entry> comparator;
+    private final PriorityQueue<Entry> heap;
+    private final List<Entry> entries;
+    private int sequence;
+
+    Collector() {
+      this.comparator = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+          final int c = compareKeys(a.keys, b.keys);
+          return c != 0 ? c : Integer.compare(a.sequence, b.sequence);
+        }
+      };
+      if (fetch >= 0) {
+        this.limit = (int) Math.min(Integer.MAX_VALUE, (long) offset + fetch);
+        this.heap = new PriorityQueue<Entry>(Math.max(1,
+            Math.min(limit, 1024)), Collections.reverseOrder(comparator));
+        this.entries = null;
+      } else {
+        this.limit = -1;
+        this.heap = null;
+        this.entries = new ArrayList<Entry>();
+      }
+    }
+
+    /**
+     * Offers a row. The keys array is copied only if the row is kept, so
+     * the caller can reuse it.
+     *
+     * @param row
+     *          The row number
+     * @param keys
+     *          The values of the sort fields of the row
+     */
+    public void offer(int row, Object[] keys) {
+      final int seq = sequence++;
+      if (heap == null) {
+        entries.add(new Entry(row, keys.clone(), seq));
+        return;
+      }
+      if (heap.size() < limit) {
+        heap.add(new Entry(row, keys.clone(), seq));
+      } else if (limit > 0 && compareKeys(keys, heap.peek().keys) < 0) {
+        // Ties keep the earlier row, which is already in the heap.
+        heap.poll();
+        heap.add(new Entry(row, keys.clone(), seq));
+      }
+    }
+
+    /**
+     * @return The row numbers in sorted order, after the offset and fetch
+     */
+    public int[] finish() {
+      final List<Entry> sorted = heap == null ? entries
+          : new ArrayList<Entry>(heap);
+      Collections.sort(sorted, comparator);
+      final int from = Math.min(offset, sorted.size());
+      final int to = fetch < 0 ? sorted.size() : (int) Math.min(
+          sorted.size(), (long) from + fetch);
+      final int[] rows = new int[to - from];
+      for (int i = from; i < to; i++) {
+        rows[i - from] = sorted.get(i).row;
+      }
+      return rows;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private int compareKeys(Object[] a, Object[] b) {
+    for (int i = 0; i < fields.length; i++) {
+      int c;
+      if (a[i] == null || b[i] == null) {
+        // nulls are larger than any value
+        c = a[i] == null ? (b[i] == null ? 0 : 1) : -1;
+      } else {
+        c = ((Comparable<Object>) a[i]).compareTo(b[i]);
+      }
+      if (c != 0) {
+        return descending[i] ? -c : c;
+      }
+    }
+    return 0;
+  }
+
+  /** A row kept for sorting. */
+  private static final class Entry {
+    final int row;
+    final Object[] keys;
+    final int sequence;
+
+    Entry(int row, Object[] keys, int sequence) {
+      this.row = row;
+      this.keys = keys;
+      this.sequence = sequence;
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder("[");
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        buf.append(", ");
+      }
+      buf.append("$").append(fields[i]).append(descending[i] ? " DESC" : "");
+    }
+    buf.append("]");
+    if (offset > 0) {
+      buf.append(" offset ").append(offset);
+    }
+    if (fetch >= 0) {
+      buf.append(" fetch ").append(fetch);
+    }
+    return buf.toString();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof JavaBeanSort
+        && Arrays.equals(fields, ((JavaBeanSort) obj).fields)
+        && Arrays.equals(descending, ((JavaBeanSort) obj).descending)
+        && offset == ((JavaBeanSort) obj).offset
+        && fetch == ((JavaBeanSort) obj).fetch;
+  }
+
+  @Override
+  public int hashCode() {
+    return (Arrays.hashCode(fields) * 31 + Arrays.hashCode(descending)) * 31
+        + offset * 17 + fetch;
+  }
+
+}
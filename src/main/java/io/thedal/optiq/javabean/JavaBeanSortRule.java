@@ -0,0 +1,123 @@
+package io.thedal.optiq.javabean;
+
+import java.util.List;
+
+import org.eigenbase.rel.RelFieldCollation;
+import org.eigenbase.rel.SortRel;
+import org.eigenbase.relopt.RelOptRule;
+import org.eigenbase.relopt.RelOptRuleCall;
+import org.eigenbase.relopt.RelOptRuleOperand;
+import org.eigenbase.rex.RexLiteral;
+import org.eigenbase.rex.RexNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.hydromatic.optiq.rules.java.EnumerableConvention;
+
+/**
+ * JavaBeanSortRule pushes an ORDER BY, with its OFFSET and FETCH, down to a
+ * smart table scan. The table reads rows in the order of a sorted index on
+ * the sort key when it has one, and otherwise sorts the rows that pass the
+ * filter itself, keeping only the top rows in a bounded heap when there is a
+ * FETCH.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanSortRule extends RelOptRule {
+
+  static final Logger logger = LoggerFactory.getLogger(JavaBeanSortRule.class);
+
+  public static final JavaBeanSortRule SORT = new JavaBeanSortRule(
+      operand(SortRel.class, operand(JavaBeanTableScan.class, none())),
+      "Sort");
+
+  protected JavaBeanSortRule(RelOptRuleOperand rule, String id) {
+    super(rule, "JBSortRule: " + id);
+  }
+
+  @Override
+  public void onMatch(RelOptRuleCall call) {
+    logger.debug("Rule Match for: {}", description);
+    final SortRel sortRel = (SortRel) call.rels[0];
+    final JavaBeanTableScan javaBeanRel = (JavaBeanTableScan) call.rels[1];
+    if (javaBeanRel.sort != null) {
+      return; // can't handle
+    }
+    final int offset = getLimit(sortRel.offset, 0);
+    final int fetch = getLimit(sortRel.fetch, -1);
+    if (offset < -1 || fetch < -1) {
+      return; // not a literal
+    }
+    final JavaBeanSort sort = getSort(sortRel, javaBeanRel.projectFields,
+        offset, fetch);
+    if (sort == null || (sort.fields.length == 0 && !sort.hasLimit())
+        || !javaBeanRel.javaBeanSmartTable.canSort(sort)) {
+      return; // can't sort on these fields
+    }
+    logger.debug("Pushed down sort: {}", sort);
+    JavaBeanMetrics.ruleMatched(description);
+    call.transformTo(new JavaBeanTableScan(javaBeanRel.getCluster(), sortRel
+        .getTraitSet().replace(EnumerableConvention.INSTANCE), javaBeanRel
+        .getTable(), javaBeanRel.javaBeanSmartTable,
+        javaBeanRel.projectFields, javaBeanRel.filter, sort, description));
+  }
+
+  /**
+   * @return The value of an OFFSET or FETCH, the default if there is none,
+   *         or -2 if it is not a literal
+   */
+  private int getLimit(RexNode node, int defaultValue) {
+    if (node == null) {
+      return defaultValue;
+    }
+    if (!(node instanceof RexLiteral)) {
+      return -2;
+    }
+    return RexLiteral.intValue(node);
+  }
+
+  /**
+   * Converts the collation of a sort into a JavaBeanSort on table columns.
+   *
+   * @param sortRel
+   *          The sort
+   * @param fields
+   *          Table column ordinals of the fields of the sort's input
+   * @param offset
+   *          The rows to skip
+   * @param fetch
+   *          The most rows to return, -1 for all
+   * @return The sort, or null if the collation can't be pushed down
+   */
+  private JavaBeanSort getSort(SortRel sortRel, int[] fields, int offset,
+      int fetch) {
+    final List<RelFieldCollation> collations = sortRel.getCollation()
+        .getFieldCollations();
+    final int[] sortFields = new int[collations.size()];
+    final boolean[] descending = new boolean[collations.size()];
+    for (int i = 0; i < collations.size(); i++) {
+      final RelFieldCollation collation = collations.get(i);
+      sortFields[i] = fields[collation.getFieldIndex()];
+      switch (collation.getDirection()) {
+      case Ascending:
+        descending[i] = false;
+        break;
+      case Descending:
+        descending[i] = true;
+        break;
+      default:
+        return null;
+      }
+      // Nulls come last ascending and first descending, as Optiq puts them
+      // when no direction is given.
+      final RelFieldCollation.NullDirection nulls = collation.nullDirection;
+      if (nulls != RelFieldCollation.NullDirection.UNSPECIFIED
+          && (nulls == RelFieldCollation.NullDirection.FIRST) != descending[i]) {
+        return null;
+      }
+    }
+    return JavaBeanSort.of(sortFields, descending, offset, fetch);
+  }
+
+}
@@ -0,0 +1,237 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JavaBeanSortedIndex keeps the positions of the JavaBeans of a smart table
+ * sorted by the value of one integral, Float, Double or Date column. Keys are
+ * held in a primitive array (epoch millis for dates), so range filters are
+ * answered with two binary searches and an ORDER BY on the column is served by
+ * walking the positions in order. JavaBeans with a null value are kept apart,
+ * after the others in ascending order as Optiq sorts them. BigDecimal columns
+ * are not indexed, as a double key would lose the exact comparison the filter
+ * makes.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanSortedIndex {
+
+  static final Logger logger = LoggerFactory
+      .getLogger(JavaBeanSortedIndex.class);
+  private final int field;
+  private final long[] longKeys;
+  private final double[] doubleKeys;
+  private final int[] positions;
+  private final int[] nullPositions;
+
+  /**
+   * Builds the index with one pass over the JavaBean list and a sort.
+   *
+   * @param javaBeanList
+   *          A List of JavaBeans of same type
+   * @param accessors
+   *          The accessors of the bean class
+   * @param field
+   *          The column ordinal to index
+   */
+  public JavaBeanSortedIndex(List<?> javaBeanList, JavaBeanAccessors accessors,
+      int field) {
+    this.field = field;
+    final Class<?> type = accessors.getFieldTypes().get(field);
+    if (!isIndexable(type)) {
+      throw new IllegalArgumentException("Cannot build a sorted index on: "
+          + accessors.getFieldNames().get(field) + " of type: "
+          + type.getSimpleName());
+    }
+    final boolean floating = !JavaBeanFilter.isIntegral(type)
+        && !Date.class.isAssignableFrom(type);
+    final int size = javaBeanList.size();
+    final long[] longValues = floating ? null : new long[size];
+    final double[] doubleValues = floating ? new double[size] : null;
+    int[] order = new int[size];
+    int[] nulls = new int[0];
+    int count = 0;
+    int nullCount = 0;
+    for (int i = 0; i < size; i++) {
+      Object value = accessors.get(javaBeanList.get(i), field);
+      if (value == null) {
+        if (nullCount == nulls.length) {
+          nulls = Arrays.copyOf(nulls, Math.max(4, nullCount * 2));
+        }
+        nulls[nullCount++] = i;
+        continue;
+      }
+      if (floating) {
+        doubleValues[i] = ((Number) value).doubleValue();
+      } else {
+        longValues[i] = value instanceof Date ? ((Date) value).getTime()
+            : ((Number) value).longValue();
+      }
+      order[count++] = i;
+    }
+    order = Arrays.copyOf(order, count);
+    sort(order, new PositionComparator() {
+      public int compare(int a, int b) {
+        return floating ? Double.compare(doubleValues[a], doubleValues[b])
+            : Long.compare(longValues[a], longValues[b]);
+      }
+    });
+    this.positions = order;
+    this.nullPositions = Arrays.copyOf(nulls, nullCount);
+    if (floating) {
+      this.longKeys = null;
+      this.doubleKeys = new double[count];
+      for (int i = 0; i < count; i++) {
+        doubleKeys[i] = doubleValues[order[i]];
+      }
+    } else {
+      this.doubleKeys = null;
+      this.longKeys = new long[count];
+      for (int i = 0; i < count; i++) {
+        longKeys[i] = longValues[order[i]];
+      }
+    }
+    logger.debug("Built sorted index on: {} with {} keys", accessors
+        .getFieldNames().get(field), count);
+  }
+
+  /**
+   * @return true if a sorted index can be built on a column of the type
+   */
+  public static boolean isIndexable(Class<?> type) {
+    return JavaBeanFilter.isIntegral(type) || type == Float.class
+        || type == Double.class || Date.class.isAssignableFrom(type);
+  }
+
+  /**
+   * @return The column ordinal of the indexed field
+   */
+  public int getField() {
+    return field;
+  }
+
+  /**
+   * Returns the number of JavaBeans within a range.
+   */
+  public int count(JavaBeanFilter.Range range) {
+    return Math.max(0, upperPosition(range) - lowerPosition(range));
+  }
+
+  /**
+   * Returns the positions of the JavaBeans within a range, in the order of the
+   * field. A null range returns every JavaBean, including those with a null
+   * value.
+   *
+   * @param range
+   *          The range, null for no restriction
+   * @param descending
+   *          true to return the largest value first
+   * @return The positions in the JavaBean list
+   */
+  public int[] lookup(JavaBeanFilter.Range range, boolean descending) {
+    final int lo = range == null ? 0 : lowerPosition(range);
+    final int hi = range == null ? positions.length : upperPosition(range);
+    final int nulls = range == null ? nullPositions.length : 0;
+    final int[] result = new int[Math.max(0, hi - lo) + nulls];
+    if (descending) {
+      System.arraycopy(nullPositions, 0, result, 0, nulls);
+      for (int i = hi - 1, j = nulls; i >= lo; i--, j++) {
+        result[j] = positions[i];
+      }
+    } else {
+      System.arraycopy(positions, lo, result, 0, Math.max(0, hi - lo));
+      System.arraycopy(nullPositions, 0, result, result.length - nulls, nulls);
+    }
+    return result;
+  }
+
+  /**
+   * @return The first index in positions that is within the lower bound
+   */
+  private int lowerPosition(JavaBeanFilter.Range range) {
+    if (range.lower == null) {
+      return 0;
+    }
+    // first key > lower, or >= lower when inclusive
+    return search(range.lower, range.lowerInclusive);
+  }
+
+  /**
+   * @return The index in positions past the upper bound
+   */
+  private int upperPosition(JavaBeanFilter.Range range) {
+    if (range.upper == null) {
+      return positions.length;
+    }
+    return search(range.upper, !range.upperInclusive);
+  }
+
+  /**
+   * Binary search for the first key >= bound (orEqual) or > bound.
+   */
+  private int search(Number bound, boolean orEqual) {
+    int lo = 0;
+    int hi = positions.length;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int c = compareKey(mid, bound);
+      if (c < 0 || (c == 0 && !orEqual)) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private int compareKey(int i, Number bound) {
+    if (longKeys != null && bound instanceof Long) {
+      return Long.compare(longKeys[i], bound.longValue());
+    }
+    final double key = longKeys != null ? longKeys[i] : doubleKeys[i];
+    return Double.compare(key, bound.doubleValue());
+  }
+
+  /** Compares two positions of the JavaBean list. */
+  private interface PositionComparator {
+    int compare(int a, int b);
+  }
+
+  /**
+   * Stable merge sort of positions, so that equal keys stay in list order.
+   */
+  private static void sort(int[] order, PositionComparator comparator) {
+    int[] src = order;
+    int[] dst = new int[order.length];
+    for (int width = 1; width < order.length; width *= 2) {
+      for (int lo = 0; lo < order.length; lo += 2 * width) {
+        final int mid = Math.min(lo + width, order.length);
+        final int hi = Math.min(lo + 2 * width, order.length);
+        int i = lo;
+        int j = mid;
+        for (int k = lo; k < hi; k++) {
+          if (i < mid && (j >= hi || comparator.compare(src[i], src[j]) <= 0)) {
+            dst[k] = src[i++];
+          } else {
+            dst[k] = src[j++];
+          }
+        }
+      }
+      int[] tmp = src;
+      src = dst;
+      dst = tmp;
+    }
+    if (src != order) {
+      System.arraycopy(src, 0, order, 0, order.length);
+    }
+  }
+
+}
@@ -0,0 +1,473 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eigenbase.sql.SqlKind;
+
+import net.hydromatic.optiq.Statistic;
+
+/**
+ * JavaBeanStatistics holds the statistics of a table that the planner uses to
+ * cost its scans: the row count and, for each column, the distinct values,
+ * the nulls, the smallest and largest values and, when asked for, an
+ * equi-depth histogram of a numeric or date column.
+ *
+ * Statistics are collected in one pass over the table when it is added to
+ * the schema, or when JavaBeanSchema.analyze is called, and are not kept up to
+ * date as the JavaBeans change. Distinct values are counted exactly up to
+ * DistinctCounter.EXACT_LIMIT per column and estimated with a HyperLogLog
+ * sketch beyond, so collecting takes bounded memory on any number of rows.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanStatistics implements Statistic {
+
+  /** The selectivity of a comparison that the statistics can't estimate */
+  static final double DEFAULT_SELECTIVITY = 1d / 3;
+  /** The selectivity of a LIKE */
+  static final double LIKE_SELECTIVITY = 0.25;
+
+  private final int rowCount;
+  private final List<ColumnStatistics> columns;
+  private final List<BitSet> keys;
+
+  private JavaBeanStatistics(int rowCount, List<ColumnStatistics> columns,
+      boolean keyed) {
+    this.rowCount = rowCount;
+    this.columns = columns;
+    final List<BitSet> keys = new ArrayList<BitSet>();
+    for (int i = 0; keyed && i < columns.size(); i++) {
+      final ColumnStatistics column = columns.get(i);
+      if (rowCount > 0 && column.nullCount == 0 && column.exact
+          && column.distinctCount == rowCount) {
+        final BitSet key = new BitSet();
+        key.set(i);
+        keys.add(key);
+      }
+    }
+    this.keys = keys;
+  }
+
+  /**
+   * Collects the statistics of a list of JavaBeans.
+   *
+   * @param accessors
+   *          The accessors of the bean class, or null for an empty list
+   * @param histogramBuckets
+   *          The buckets of the histogram of each numeric or date column, or
+   *          0 for none
+   */
+  public static JavaBeanStatistics of(List<?> javaBeanList,
+      JavaBeanAccessors accessors, int histogramBuckets) {
+    if (accessors == null) {
+      return new JavaBeanStatistics(0,
+          Collections.<ColumnStatistics> emptyList(), false);
+    }
+    final Collector collector = new Collector(accessors, histogramBuckets);
+    final Object[] row = new Object[accessors.getFieldCount()];
+    for (Object javaBean : javaBeanList) {
+      for (int field = 0; field < row.length; field++) {
+        row[field] = accessors.get(javaBean, field);
+      }
+      collector.add(row);
+    }
+    return collector.finish();
+  }
+
+  /**
+   * Collects the statistics of the columns of a column store.
+   */
+  public static JavaBeanStatistics of(JavaBeanColumnStore columnStore,
+      int histogramBuckets) {
+    final Collector collector = new Collector(columnStore.getAccessors(),
+        histogramBuckets);
+    final Object[] row = new Object[columnStore.getAccessors()
+        .getFieldCount()];
+    for (int i = 0; i < columnStore.getRowCount(); i++) {
+      for (int field = 0; field < row.length; field++) {
+        row[field] = columnStore.getColumn(field).get(i);
+      }
+      collector.add(row);
+    }
+    return collector.finish();
+  }
+
+  public Double getRowCount() {
+    return (double) rowCount;
+  }
+
+  /**
+   * @return The same column statistics for a list that may have changed
+   *         since they were collected: the given row count and no keys, as
+   *         duplicates may have been added
+   */
+  JavaBeanStatistics unkeyed(int rowCount) {
+    return new JavaBeanStatistics(rowCount, columns, false);
+  }
+
+  /**
+   * @return True if the statistics have no columns, as they were collected
+   *         on an empty list
+   */
+  boolean isEmpty() {
+    return columns.isEmpty();
+  }
+
+  /**
+   * A set of columns is a key if it holds a column whose values are all
+   * distinct and not null, as counted exactly.
+   */
+  public boolean isKey(BitSet columns) {
+    for (BitSet key : keys) {
+      final BitSet common = (BitSet) key.clone();
+      common.and(columns);
+      if (common.equals(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The statistics of a column
+   */
+  public ColumnStatistics getColumn(int field) {
+    return columns.get(field);
+  }
+
+  /**
+   * Estimates the fraction of the rows that pass a filter.
+   *
+   * @param filter
+   *          The filter, or null for none
+   */
+  public double selectivity(JavaBeanFilter filter) {
+    if (filter == null || rowCount == 0) {
+      return 1;
+    }
+    return Math.max(0, Math.min(1, filter.selectivity(this)));
+  }
+
+  /**
+   * Estimates the fraction of the rows where a comparison of a field with a
+   * value is true.
+   *
+   * @param value
+   *          A pushed down literal, or null for a dynamic parameter
+   */
+  double comparison(SqlKind op, int field, Object value) {
+    final ColumnStatistics column = columns.get(field);
+    final double nonNull = 1 - (double) column.nullCount / rowCount;
+    final double distinct = Math.max(1, column.distinctCount);
+    final double bound = toDouble(value);
+    switch (op) {
+    case EQUALS:
+      if (!Double.isNaN(bound) && !Double.isNaN(column.low)
+          && (bound < column.low || bound > column.high)) {
+        return 0;
+      }
+      return nonNull / distinct;
+    case NOT_EQUALS:
+      return nonNull * (1 - 1 / distinct);
+    case LESS_THAN:
+    case LESS_THAN_OR_EQUAL:
+      return Double.isNaN(bound) || Double.isNaN(column.low)
+          ? DEFAULT_SELECTIVITY : nonNull * column.fractionBelow(bound);
+    case GREATER_THAN:
+    case GREATER_THAN_OR_EQUAL:
+      return Double.isNaN(bound) || Double.isNaN(column.low)
+          ? DEFAULT_SELECTIVITY
+          : nonNull * (1 - column.fractionBelow(bound));
+    default:
+      return DEFAULT_SELECTIVITY;
+    }
+  }
+
+  /**
+   * @return The value of a number or date, or NaN for anything else
+   */
+  private static double toDouble(Object value) {
+    if (value instanceof Date) {
+      return ((Date) value).getTime();
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    return Double.NaN;
+  }
+
+  @Override
+  public String toString() {
+    return "rows: " + rowCount + ", columns: " + columns;
+  }
+
+  /** The statistics of a column. */
+  public static final class ColumnStatistics {
+    private final int distinctCount;
+    /** False if distinctCount is an estimate */
+    private final boolean exact;
+    private final int nullCount;
+    private final Object min;
+    private final Object max;
+    /** min and max of a numeric or date column, NaN for other columns */
+    private final double low;
+    private final double high;
+    /** The bounds of equally full buckets, or null */
+    private final double[] histogram;
+
+    ColumnStatistics(int distinctCount, boolean exact, int nullCount,
+        Object min, Object max, double[] histogram) {
+      this.distinctCount = distinctCount;
+      this.exact = exact;
+      this.nullCount = nullCount;
+      this.min = min;
+      this.max = max;
+      this.low = toDouble(min);
+      this.high = toDouble(max);
+      this.histogram = histogram;
+    }
+
+    public int getDistinctCount() {
+      return distinctCount;
+    }
+
+    public int getNullCount() {
+      return nullCount;
+    }
+
+    /**
+     * @return The smallest value, or null if the column has no comparable
+     *         values
+     */
+    public Object getMin() {
+      return min;
+    }
+
+    /**
+     * @return The largest value, or null if the column has no comparable
+     *         values
+     */
+    public Object getMax() {
+      return max;
+    }
+
+    /**
+     * @return The bounds of the histogram buckets, each holding as many
+     *         values, or null if there is no histogram
+     */
+    public double[] getHistogram() {
+      return histogram == null ? null : histogram.clone();
+    }
+
+    /**
+     * Estimates the fraction of the values of a numeric or date column below
+     * a bound, from the histogram if there is one, otherwise assuming values
+     * are spread evenly between min and max.
+     */
+    double fractionBelow(double bound) {
+      if (bound <= low) {
+        return 0;
+      }
+      if (bound >= high) {
+        return 1;
+      }
+      if (histogram == null) {
+        return (bound - low) / (high - low);
+      }
+      final int buckets = histogram.length - 1;
+      int bucket = Arrays.binarySearch(histogram, bound);
+      if (bucket < 0) {
+        bucket = -bucket - 2;
+      }
+      bucket = Math.min(bucket, buckets - 1);
+      final double from = histogram[bucket];
+      final double to = histogram[bucket + 1];
+      final double within = to > from ? (bound - from) / (to - from) : 1;
+      return (bucket + within) / buckets;
+    }
+
+    @Override
+    public String toString() {
+      return "{distinct: " + distinctCount + ", nulls: " + nullCount
+          + ", min: " + min + ", max: " + max + "}";
+    }
+  }
+
+  /** Collects the statistics of a table one row at a time. */
+  private static class Collector {
+    private final List<Class<?>> fieldTypes;
+    private final int histogramBuckets;
+    private final List<DistinctCounter> distinct =
+        new ArrayList<DistinctCounter>();
+    private final int[] nulls;
+    private final Comparable[] min;
+    private final Comparable[] max;
+    private final double[][] values;
+    private int rowCount;
+
+    Collector(JavaBeanAccessors accessors, int histogramBuckets) {
+      this.fieldTypes = accessors.getFieldTypes();
+      this.histogramBuckets = histogramBuckets;
+      final int fieldCount = accessors.getFieldCount();
+      for (int field = 0; field < fieldCount; field++) {
+        distinct.add(new DistinctCounter());
+      }
+      this.nulls = new int[fieldCount];
+      this.min = new Comparable[fieldCount];
+      this.max = new Comparable[fieldCount];
+      this.values = new double[fieldCount][];
+      if (histogramBuckets > 0) {
+        for (int field = 0; field < fieldCount; field++) {
+          final Class<?> type = fieldTypes.get(field);
+          if (Number.class.isAssignableFrom(type)
+              || Date.class.isAssignableFrom(type)) {
+            values[field] = new double[16];
+          }
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    void add(Object[] row) {
+      for (int field = 0; field < row.length; field++) {
+        final Object value = row[field];
+        if (value == null) {
+          nulls[field]++;
+          continue;
+        }
+        distinct.get(field).add(
+            JavaBeanHashIndex.normalize(fieldTypes.get(field), value));
+        if (value instanceof Comparable) {
+          final Comparable comparable = (Comparable) value;
+          if (min[field] == null || comparable.compareTo(min[field]) < 0) {
+            min[field] = comparable;
+          }
+          if (max[field] == null || comparable.compareTo(max[field]) > 0) {
+            max[field] = comparable;
+          }
+        }
+        if (values[field] != null) {
+          final int count = rowCount - nulls[field];
+          if (count == values[field].length) {
+            values[field] = Arrays.copyOf(values[field], count * 2);
+          }
+          values[field][count] = toDouble(value);
+        }
+      }
+      rowCount++;
+    }
+
+    JavaBeanStatistics finish() {
+      final List<ColumnStatistics> columns = new ArrayList<ColumnStatistics>();
+      for (int field = 0; field < nulls.length; field++) {
+        final DistinctCounter counter = distinct.get(field);
+        columns.add(new ColumnStatistics(
+            Math.min(counter.count(), rowCount - nulls[field]),
+            counter.isExact(), nulls[field], min[field], max[field],
+            histogram(field)));
+      }
+      return new JavaBeanStatistics(rowCount, columns, true);
+    }
+
+    /**
+     * @return The bounds of equally full buckets of the values of a field
+     */
+    private double[] histogram(int field) {
+      final int count = rowCount - nulls[field];
+      if (values[field] == null || count == 0) {
+        return null;
+      }
+      final double[] sorted = Arrays.copyOf(values[field], count);
+      Arrays.sort(sorted);
+      final int buckets = Math.min(histogramBuckets, count);
+      final double[] bounds = new double[buckets + 1];
+      for (int i = 0; i < buckets; i++) {
+        bounds[i] = sorted[(int) ((long) i * count / buckets)];
+      }
+      bounds[buckets] = sorted[count - 1];
+      return bounds;
+    }
+  }
+
+  /**
+   * Counts the distinct values of a column: exactly while there are at most
+   * EXACT_LIMIT of them, then with a HyperLogLog sketch of 2^REGISTER_BITS
+   * registers, within about 2% of the true count.
+   */
+  static final class DistinctCounter {
+    static final int EXACT_LIMIT = 1 << 14;
+    static final int REGISTER_BITS = 12;
+    private Set<Object> exact = new HashSet<Object>();
+    private byte[] registers;
+
+    void add(Object value) {
+      if (exact == null) {
+        addHash(value);
+        return;
+      }
+      exact.add(value);
+      if (exact.size() > EXACT_LIMIT) {
+        registers = new byte[1 << REGISTER_BITS];
+        for (Object seen : exact) {
+          addHash(seen);
+        }
+        exact = null;
+      }
+    }
+
+    private void addHash(Object value) {
+      final long hash = mix(value.hashCode());
+      final int register = (int) (hash >>> (64 - REGISTER_BITS));
+      final int rank = Math.min(Long.numberOfLeadingZeros(
+          hash << REGISTER_BITS), 64 - REGISTER_BITS) + 1;
+      if (rank > registers[register]) {
+        registers[register] = (byte) rank;
+      }
+    }
+
+    /** Spreads the bits of a hash code over a long, as in MurmurHash3 */
+    private static long mix(long hash) {
+      hash ^= hash >>> 33;
+      hash *= 0xff51afd7ed558ccdL;
+      hash ^= hash >>> 33;
+      hash *= 0xc4ceb9fe1a85ec53L;
+      hash ^= hash >>> 33;
+      return hash;
+    }
+
+    boolean isExact() {
+      return exact != null;
+    }
+
+    int count() {
+      if (exact != null) {
+        return exact.size();
+      }
+      final int m = registers.length;
+      double sum = 0;
+      int zeros = 0;
+      for (byte rank : registers) {
+        sum += Math.scalb(1d, -rank);
+        if (rank == 0) {
+          zeros++;
+        }
+      }
+      double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+      if (estimate <= 2.5 * m && zeros > 0) {
+        estimate = m * Math.log((double) m / zeros); // linear counting
+      }
+      return (int) Math.min(Integer.MAX_VALUE, Math.round(estimate));
+    }
+  }
+
+}
@@ -0,0 +1,31 @@
+package io.thedal.optiq.javabean;
+
+/**
+ * How a smart table holds its data.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public enum JavaBeanStorageMode {
+
+  /** Rows are read from the JavaBeans through their getters. */
+  BEANS,
+
+  /**
+   * Rows are read from a columnar snapshot of the JavaBeans, taken once when
+   * the mode is set.
+   */
+  COLUMNAR,
+
+  /**
+   * As COLUMNAR, with the columns held outside the heap in direct buffers.
+   */
+  OFF_HEAP,
+
+  /**
+   * As COLUMNAR, with the columns held outside the heap in memory-mapped
+   * files, so the operating system pages them in and out as needed.
+   */
+  MEMORY_MAPPED
+
+}
@@ -1,9 +1,7 @@
 package io.thedal.optiq.javabean;
 
-import io.thedal.optiq.javabean.utils.JavaBeanInspector;
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
 
-import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.eigenbase.rel.RelNode;
@@ -11,7 +9,6 @@ import org.eigenbase.relopt.RelOptTable;
 import org.eigenbase.relopt.RelOptTable.ToRelContext;
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.reltype.RelDataTypeFactory;
-import org.eigenbase.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +37,8 @@ public class JavaBeanTable<E> extends AbstractQueryableTable implements
 
   static final Logger logger = LoggerFactory.getLogger(JavaBeanTable.class);
   private List<E> javaBeanList;
+  private final JavaBeanRowType rowType = new JavaBeanRowType();
+  private volatile JavaBeanStatistics statistics;
 
   /**
    * Constructor
@@ -54,29 +53,39 @@ public class JavaBeanTable<E> extends AbstractQueryableTable implements
 
   @Override
   public RelDataType getRowType(RelDataTypeFactory typeFactory) {
-    List<String> names = new ArrayList<String>();
-    List<RelDataType> types = new ArrayList<RelDataType>();
-    if ((javaBeanList != null) && (javaBeanList.size() > 0)) {
-      Class sample = javaBeanList.get(0).getClass();
-      Method[] methods = sample.getMethods();
-      for (Method method : methods) {
-        if (JavaBeanInspector.checkMethodEligiblity(method)) {
-          String name = method.getName().substring(3);
-          Class type = method.getReturnType();
-          names.add(name);
-          types.add(typeFactory.createJavaType(type));
-          logger.info("Added field name: " + name + " of type: "
-              + type.getSimpleName());
-        }
-      }
+    return rowType.get(typeFactory, JavaBeanAccessors.of(javaBeanList));
+  }
+
+  /**
+   * Returns the statistics of the table, set by JavaBeanSchema when the table
+   * is added or analyzed, or collected on the first call otherwise. The list
+   * may change after, so the row count follows its size and no column is
+   * reported as a key.
+   */
+  @Override
+  public JavaBeanStatistics getStatistic() {
+    JavaBeanStatistics current = statistics;
+    final int rowCount = javaBeanList.size();
+    if (current == null || current.isEmpty() && rowCount > 0) {
+      current = JavaBeanStatistics.of(javaBeanList,
+          JavaBeanAccessors.of(javaBeanList), 0).unkeyed(rowCount);
+      statistics = current;
+    } else if (current.getRowCount() != rowCount) {
+      current = current.unkeyed(rowCount);
+      statistics = current;
     }
-    return typeFactory.createStructType(Pair.zip(names, types));
+    return current;
+  }
+
+  void setStatistics(JavaBeanStatistics statistics) {
+    this.statistics = statistics == null ? null : statistics
+        .unkeyed(javaBeanList.size());
   }
 
   @Override
   public <T> Queryable<T> asQueryable(QueryProvider queryProvider,
       SchemaPlus schema, String tableName) {
-    logger.info("Got query request for: " + tableName);
+    logger.debug("Got query request for: {}", tableName);
     return new AbstractTableQueryable<T>(queryProvider, schema, this, tableName) {
       public Enumerator<T> enumerator() {
         // noinspection unchecked
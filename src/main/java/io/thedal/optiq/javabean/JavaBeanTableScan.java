@@ -6,10 +6,12 @@ import java.util.List;
 import java.util.Set;
 
 import net.hydromatic.linq4j.expressions.Blocks;
+import net.hydromatic.linq4j.expressions.Expression;
 import net.hydromatic.linq4j.expressions.Expressions;
 import net.hydromatic.optiq.rules.java.EnumerableConvention;
 import net.hydromatic.optiq.rules.java.EnumerableRel;
 import net.hydromatic.optiq.rules.java.EnumerableRelImplementor;
+import net.hydromatic.optiq.rules.java.JavaRowFormat;
 import net.hydromatic.optiq.rules.java.PhysType;
 import net.hydromatic.optiq.rules.java.PhysTypeImpl;
 import net.hydromatic.linq4j.expressions.Primitive;
@@ -18,6 +20,7 @@ import org.eigenbase.rel.RelNode;
 import org.eigenbase.rel.RelWriter;
 import org.eigenbase.rel.TableAccessRelBase;
 import org.eigenbase.relopt.RelOptCluster;
+import org.eigenbase.relopt.RelOptCost;
 import org.eigenbase.relopt.RelOptPlanner;
 import org.eigenbase.relopt.RelOptTable;
 import org.eigenbase.relopt.RelTraitSet;
@@ -34,18 +37,32 @@ public class JavaBeanTableScan extends TableAccessRelBase implements
   final JavaBeanSmartTable javaBeanSmartTable;
   final int[] projectFields;
   final Set<String> projectFieldNames;
-  final String filterExpression; 
+  final JavaBeanFilter filter;
+  final JavaBeanSort sort;
   final String scanName;
 
   protected JavaBeanTableScan(RelOptCluster cluster, RelOptTable table,
       JavaBeanSmartTable javaBeanSmartTable, int[] projectFields,
-      String filterExpression,
+      JavaBeanFilter filter, JavaBeanSort sort, String scanName) {
+    this(cluster, cluster.traitSetOf(EnumerableConvention.INSTANCE), table,
+        javaBeanSmartTable, projectFields, filter, sort, scanName);
+  }
+
+  /**
+   * Constructor for a scan that replaces a relational expression, which takes
+   * the traits of the replaced expression (such as its collation) so the
+   * planner sees them as equivalent.
+   */
+  protected JavaBeanTableScan(RelOptCluster cluster, RelTraitSet traitSet,
+      RelOptTable table, JavaBeanSmartTable javaBeanSmartTable,
+      int[] projectFields, JavaBeanFilter filter, JavaBeanSort sort,
       String scanName) {
-    super(cluster, cluster.traitSetOf(EnumerableConvention.INSTANCE), table);
+    super(cluster, traitSet, table);
     this.javaBeanSmartTable = javaBeanSmartTable;
     this.projectFields = projectFields;
     this.scanName = scanName;
-    this.filterExpression = filterExpression;
+    this.filter = filter;
+    this.sort = sort;
     HashSet<String> fieldNames = new HashSet<String>();
     if (projectFields != null) {
       List<String> allFields = table.getRowType().getFieldNames();
@@ -56,17 +73,17 @@ public class JavaBeanTableScan extends TableAccessRelBase implements
     projectFieldNames = fieldNames;
 
     assert javaBeanSmartTable != null;
-    logger.debug("JavaBean table scan created. Projected field Names: "
-        + projectFieldNames);
-    logger.debug("Table scan name: " + scanName);
+    logger.debug("JavaBean table scan created. Projected field Names: {}",
+        projectFieldNames);
+    logger.debug("Table scan name: {}", scanName);
   }
 
   @Override
   public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
     logger.debug("JavaBean table scan copy call received.");
     assert inputs.isEmpty();
-    return new JavaBeanTableScan(getCluster(), table, javaBeanSmartTable,
-        projectFields, filterExpression, scanName);
+    return new JavaBeanTableScan(getCluster(), traitSet, table,
+        javaBeanSmartTable, projectFields, filter, sort, scanName);
   }
 
 
@@ -75,11 +92,56 @@ public class JavaBeanTableScan extends TableAccessRelBase implements
     logger.debug("Table Scan explain terms call received.");
     return super.explainTerms(pw)
         .item("projectFields", Primitive.asList(projectFields))
-        .item("filterExpression", filterExpression);
+        .itemIf("filter", filter, filter != null)
+        .itemIf("sort", sort, sort != null)
+        .itemIf("index", getAccessPath(), getAccessPath() != null)
+        .itemIf("generated", true,
+            javaBeanSmartTable.canGenerateScan(filter, sort));
+  }
+
+  /**
+   * @return The index the scan will probe, null for a full scan
+   */
+  private String getAccessPath() {
+    return javaBeanSmartTable.explainAccessPath(filter, sort);
   }
 
+  /**
+   * Estimates the rows the scan returns from the statistics of the table and
+   * the selectivity of the filter, capped by the fetch of the sort.
+   */
+  @Override
+  public double getRows() {
+    final JavaBeanStatistics statistics = javaBeanSmartTable.getStatistic();
+    double rows = statistics.getRowCount() * statistics.selectivity(filter);
+    if (sort != null && sort.fetch >= 0) {
+      rows = Math.min(rows, sort.fetch);
+    }
+    return rows;
+  }
+
+  /**
+   * Costs the scan as the JavaBeans it visits, all of them unless an index
+   * finds those that pass the filter, plus the fields it reads into the rows
+   * it returns, plus n log n for a sort that no index serves. A scan that
+   * filters or projects more so costs less than the scan it replaces. The
+   * planner compares costs by their row figure, which holds the whole sum.
+   */
+  @Override
+  public RelOptCost computeSelfCost(RelOptPlanner planner) {
+    final JavaBeanStatistics statistics = javaBeanSmartTable.getStatistic();
+    final double tableRows = statistics.getRowCount();
+    final double selected = tableRows * statistics.selectivity(filter);
+    final String accessPath = getAccessPath();
+    double cpu = accessPath == null ? tableRows : selected;
+    if (sort != null && sort.fields.length > 0
+        && (accessPath == null || !accessPath.startsWith("sorted"))) {
+      cpu += selected * Math.log(Math.max(2, selected)) / Math.log(2);
+    }
+    cpu += getRows() * projectFields.length;
+    return planner.getCostFactory().makeCost(cpu, cpu, 0);
+  }
 
-  
   @Override
   public RelDataType deriveRowType() {
     logger.debug("Table scan derive row type call received.");
@@ -89,10 +151,10 @@ public class JavaBeanTableScan extends TableAccessRelBase implements
     // Return only projected fields
     for (int i : projectFields) {
         builder.add(fieldList.get(i));
-      logger.debug("Project field type resolved as: "
-          + fieldList.get(i).getType().getSqlTypeName().getName());
-        logger
-            .debug("Adding project field name: " + fieldList.get(i).getName());
+        logger.debug("Project field type resolved as: {}", fieldList.get(i)
+            .getType());
+        logger.debug("Adding project field name: {}", fieldList.get(i)
+            .getName());
         projectFieldNames.add(fieldList.get(i).getName());
     }
     return builder.build();
@@ -105,21 +167,41 @@ public class JavaBeanTableScan extends TableAccessRelBase implements
     planner.addRule(JavaBeanPushDownRule.FILTER_ON_PROJECT);
     planner.addRule(JavaBeanPushDownRule.FILTER);
     planner.addRule(JavaBeanPushDownRule.PROJECT);
+    planner.addRule(JavaBeanSortRule.SORT);
+    planner.addRule(JavaBeanAggregateRule.AGGREGATE);
+    planner.addRule(JavaBeanAggregateRule.AGGREGATE_ON_PROJECT);
+    planner.addRule(JavaBeanAggregateRule.AGGREGATE_ON_FILTER);
+    planner.addRule(JavaBeanAggregateRule.AGGREGATE_ON_PROJECT_ON_FILTER);
+    planner.addRule(JavaBeanJoinRule.JOIN);
+    planner.addRule(JavaBeanJoinRule.PROJECT_ON_JOIN);
     logger.debug("JavaBean Smart Table rules added.");
   }
 
 
   public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+    // Rows are always Object[]: a scan of a single field must not be typed
+    // as a scalar, or Optiq casts the array to the field's class.
     PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(),
-        getRowType(), pref.preferCustom());
-    logger.debug("Table scan implement call received. Project fields length: "
-        + projectFieldNames.size());
-    logger.debug("We are in table scan: " + scanName);
-
+        getRowType(), JavaRowFormat.ARRAY, false);
+    logger.debug("Table scan implement call received. Project fields "
+        + "length: {}", projectFieldNames.size());
+    logger.debug("We are in table scan: {}", scanName);
+
+    final Expression smartTable = table
+        .getExpression(JavaBeanSmartTable.class);
+    if (javaBeanSmartTable.canGenerateScan(filter, sort)) {
+      // A plain scan of the JavaBeans: generate it for the bean class.
+      return implementor.result(physType, JavaBeanScanGenerator.generate(
+          smartTable, javaBeanSmartTable.getAccessors(), projectFields,
+          filter));
+    }
     return implementor.result(physType, Blocks.toBlock(Expressions.call(
-        table.getExpression(JavaBeanSmartTable.class), "pushdown",
+        smartTable, "pushdown",
         Expressions.constant(projectFields),
-        Expressions.constant(filterExpression))));
+        filter == null ? Expressions.constant(null, JavaBeanFilter.class)
+            : filter.toExpression(),
+        sort == null ? Expressions.constant(null, JavaBeanSort.class)
+            : sort.toExpression())));
   }
 
 }
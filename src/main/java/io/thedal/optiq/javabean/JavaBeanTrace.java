@@ -0,0 +1,159 @@
+package io.thedal.optiq.javabean;
+
+import java.util.Arrays;
+
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JavaBeanTrace logs a sample of the rows that smart table scans pass on, at
+ * TRACE level, for debugging a query without logging every row.
+ *
+ * Tracing is off by default. It is turned on for every query by a sample rate,
+ * set with setSampleRate() or the system property SAMPLE_PROPERTY, or for the
+ * queries run on one thread with setThreadSampleRate(). A rate of n logs every
+ * n-th row of each scan. Scans pick up the rate when a query starts executing,
+ * so while tracing is off they pay one read of a volatile field and their rows
+ * are not touched.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public final class JavaBeanTrace {
+
+  public static final String SAMPLE_PROPERTY =
+      "io.thedal.optiq.javabean.traceSample";
+
+  static final Logger logger = LoggerFactory.getLogger(JavaBeanTrace.class);
+  private static final ThreadLocal<Integer> threadSampleRate =
+      new ThreadLocal<Integer>();
+  private static volatile int sampleRate = Math.max(0,
+      Integer.getInteger(SAMPLE_PROPERTY, 0));
+  private static volatile int tracedThreads;
+
+  private JavaBeanTrace() {
+  }
+
+  /**
+   * Sets the sample rate of every query.
+   *
+   * @param rate
+   *          Log every rate-th row, or none if 0.
+   */
+  public static void setSampleRate(int rate) {
+    if (rate < 0) {
+      throw new IllegalArgumentException("Sample rate must not be negative: "
+          + rate);
+    }
+    sampleRate = rate;
+  }
+
+  /**
+   * @return The sample rate of every query, 0 if off
+   */
+  public static int getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * Sets the sample rate of the queries run on this thread, overriding the
+   * rate of every query.
+   *
+   * @param rate
+   *          Log every rate-th row, or none if 0.
+   */
+  public static void setThreadSampleRate(int rate) {
+    if (rate < 0) {
+      throw new IllegalArgumentException("Sample rate must not be negative: "
+          + rate);
+    }
+    synchronized (JavaBeanTrace.class) {
+      if (threadSampleRate.get() == null) {
+        tracedThreads++;
+      }
+      threadSampleRate.set(rate);
+    }
+  }
+
+  /**
+   * Clears the sample rate set for this thread.
+   */
+  public static void clearThreadSampleRate() {
+    synchronized (JavaBeanTrace.class) {
+      if (threadSampleRate.get() != null) {
+        tracedThreads--;
+        threadSampleRate.remove();
+      }
+    }
+  }
+
+  /**
+   * Logs a sample of the rows of a scan if tracing is on for this thread.
+   * Generated code calls this too, so it is public.
+   *
+   * @param rows
+   *          The rows the scan passes on
+   * @param beanClass
+   *          The bean class of the table, or null
+   * @param scan
+   *          The kind of scan, for the log
+   * @return The rows, sampled as they are read if tracing is on
+   */
+  public static Enumerable<Object> sample(final Enumerable<Object> rows,
+      Class<?> beanClass, String scan) {
+    int rate = sampleRate;
+    if (tracedThreads > 0) {
+      final Integer threadRate = threadSampleRate.get();
+      if (threadRate != null) {
+        rate = threadRate;
+      }
+    }
+    if (rate == 0 || !logger.isTraceEnabled()) {
+      return rows;
+    }
+    final int every = rate;
+    final String name = beanClass == null ? scan : beanClass.getSimpleName()
+        + " " + scan;
+    logger.trace("Sampling every {} rows of {}", every, name);
+    return new AbstractEnumerable<Object>() {
+      public Enumerator<Object> enumerator() {
+        final Enumerator<Object> enumerator = rows.enumerator();
+        return new Enumerator<Object>() {
+          private long count;
+
+          public Object current() {
+            return enumerator.current();
+          }
+
+          public boolean moveNext() {
+            if (!enumerator.moveNext()) {
+              logger.trace("{} passed on {} rows", name, count);
+              return false;
+            }
+            if (++count % every == 0) {
+              final Object row = enumerator.current();
+              logger.trace("{} row {}: {}", name, count,
+                  row instanceof Object[] ? Arrays.toString((Object[]) row)
+                      : row);
+            }
+            return true;
+          }
+
+          public void reset() {
+            enumerator.reset();
+            count = 0;
+          }
+
+          public void close() {
+            enumerator.close();
+          }
+        };
+      }
+    };
+  }
+
+}
@@ -0,0 +1,201 @@
+package io.thedal.optiq.javabean;
+
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
+
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JavaBeanZoneMap splits the rows of a smart table into blocks of a fixed
+ * number of rows and keeps the smallest and largest value of each integral,
+ * Float, Double, Date and String column in each block. A scan skips the blocks
+ * whose values can't pass the equality, IN or range filters on those columns,
+ * so that on a table loaded roughly in the order of a column, a filter on it
+ * visits few blocks. It takes two values per block and column, far less than
+ * an index. BigDecimal columns are not mapped, as their values compare here
+ * as doubles while the filter compares them exactly.
+ *
+ * Like an index, the zone map is built once and does not see later changes
+ * to the JavaBeans.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public class JavaBeanZoneMap extends JavaBeanBlockIndex {
+
+  static final Logger logger = LoggerFactory.getLogger(JavaBeanZoneMap.class);
+  private final List<Class<?>> fieldTypes;
+  /** The smallest value of each block of each field, null if not mapped */
+  private final Comparable[][] mins;
+  private final Comparable[][] maxs;
+
+  private JavaBeanZoneMap(int blockSize, int rowCount,
+      List<Class<?>> fieldTypes) {
+    super(blockSize, rowCount);
+    this.fieldTypes = fieldTypes;
+    final int blockCount = getBlockCount();
+    this.mins = new Comparable[fieldTypes.size()][];
+    this.maxs = new Comparable[fieldTypes.size()][];
+    for (int field = 0; field < mins.length; field++) {
+      if (isMapped(fieldTypes.get(field))) {
+        mins[field] = new Comparable[blockCount];
+        maxs[field] = new Comparable[blockCount];
+      }
+    }
+  }
+
+  /**
+   * Builds the zone map with one pass over the JavaBean list.
+   *
+   * @param blockSize
+   *          The rows of a block
+   */
+  public static JavaBeanZoneMap of(List<?> javaBeanList,
+      JavaBeanAccessors accessors, int blockSize) {
+    final JavaBeanZoneMap zoneMap = new JavaBeanZoneMap(blockSize,
+        javaBeanList.size(), accessors.getFieldTypes());
+    int row = 0;
+    for (Object javaBean : javaBeanList) {
+      for (int field = 0; field < zoneMap.mins.length; field++) {
+        if (zoneMap.mins[field] != null) {
+          zoneMap.add(field, row, accessors.get(javaBean, field));
+        }
+      }
+      row++;
+    }
+    logger.debug("Built zone map of {} blocks", zoneMap.getBlockCount());
+    return zoneMap;
+  }
+
+  /**
+   * Builds the zone map with one pass over each column of a column store.
+   *
+   * @param blockSize
+   *          The rows of a block
+   */
+  public static JavaBeanZoneMap of(JavaBeanColumnStore columnStore,
+      int blockSize) {
+    final JavaBeanZoneMap zoneMap = new JavaBeanZoneMap(blockSize,
+        columnStore.getRowCount(), columnStore.getAccessors().getFieldTypes());
+    for (int field = 0; field < zoneMap.mins.length; field++) {
+      if (zoneMap.mins[field] != null) {
+        final JavaBeanColumn column = columnStore.getColumn(field);
+        for (int row = 0; row < zoneMap.rowCount; row++) {
+          zoneMap.add(field, row, column.get(row));
+        }
+      }
+    }
+    logger.debug("Built zone map of {} blocks", zoneMap.getBlockCount());
+    return zoneMap;
+  }
+
+  /**
+   * @return True for the column types the zone map keeps values of
+   */
+  private static boolean isMapped(Class<?> type) {
+    return JavaBeanFilter.isIntegral(type) || type == Float.class
+        || type == Double.class || Date.class.isAssignableFrom(type)
+        || type == String.class;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void add(int field, int row, Object value) {
+    if (value == null) {
+      return; // a null never passes a comparison
+    }
+    final Comparable key = (Comparable) JavaBeanHashIndex.normalize(
+        fieldTypes.get(field), value);
+    final int block = row / blockSize;
+    if (mins[field][block] == null || compare(key, mins[field][block]) < 0) {
+      mins[field][block] = key;
+    }
+    if (maxs[field][block] == null || compare(key, maxs[field][block]) > 0) {
+      maxs[field][block] = key;
+    }
+  }
+
+  /**
+   * Compares two values of a column or literals, numbers by their value.
+   */
+  @SuppressWarnings("unchecked")
+  private static int compare(Object a, Object b) {
+    if (a instanceof Number && b instanceof Number) {
+      if (a instanceof Long && b instanceof Long) {
+        return Long.compare((Long) a, (Long) b);
+      }
+      return Double.compare(((Number) a).doubleValue(),
+          ((Number) b).doubleValue());
+    }
+    return ((Comparable) a).compareTo(b);
+  }
+
+  @Override
+  boolean[] blocks(JavaBeanFilter filter) {
+    if (filter == null) {
+      return null;
+    }
+    boolean[] scan = null;
+    for (int field = 0; field < mins.length; field++) {
+      if (mins[field] == null) {
+        continue;
+      }
+      final List<Object> values = filter.getEqualityValues(field);
+      final JavaBeanFilter.Range range = filter.getRange(field);
+      if (values == null && range == null) {
+        continue;
+      }
+      final Object[] keys = values == null ? null : normalize(field, values);
+      for (int block = 0; block < mins[field].length; block++) {
+        if (scan != null && !scan[block]) {
+          continue;
+        }
+        if (!mayPass(field, block, keys, range)) {
+          scan = skip(scan, block);
+        }
+      }
+    }
+    return scan;
+  }
+
+  private Object[] normalize(int field, List<Object> values) {
+    final Object[] keys = new Object[values.size()];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = JavaBeanHashIndex.normalize(fieldTypes.get(field),
+          values.get(i));
+    }
+    return keys;
+  }
+
+  /**
+   * @return False if no value of the block can equal one of the keys, or be
+   *         within the range
+   */
+  private boolean mayPass(int field, int block, Object[] keys,
+      JavaBeanFilter.Range range) {
+    final Comparable min = mins[field][block];
+    final Comparable max = maxs[field][block];
+    if (min == null) {
+      return false; // only nulls
+    }
+    if (range != null && min instanceof Number
+        && !range.overlaps((Number) min, (Number) max)) {
+      return false;
+    }
+    if (keys == null) {
+      return true;
+    }
+    for (Object key : keys) {
+      if (key == null || (key instanceof Number) != (min instanceof Number)) {
+        return true; // can't tell
+      }
+      if (compare(key, min) >= 0 && compare(key, max) <= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -2,9 +2,12 @@ package io.thedal.optiq.javabean;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import net.hydromatic.optiq.SchemaPlus;
 import net.hydromatic.optiq.jdbc.OptiqConnection;
@@ -15,14 +18,29 @@ import org.slf4j.LoggerFactory;
 /**
  * This class executes a sql query over an Optiq Schema
  * 
+ * Queries run with parameters are prepared once and kept in a least recently
+ * used cache keyed by their SQL, so running the same query again with other
+ * values skips parsing and planning. Values bound to "?" in a comparison with
+ * a field are pushed down to the smart table with the rest of the filter.
+ * 
+ * While a JavaBeanMetricsListener is registered, the metrics of each query are
+ * recorded and handed to it once its result set is read or closed.
+ * 
+ * An executor runs one query at a time on one connection, and running a query
+ * again closes the result set of its previous run. It is meant for a single
+ * thread; use ConcurrentQueryExecutor to run queries from many threads.
+ * 
  * @author Abishek Baskaran
  *
  */
 public class JdbcQueryExecutor {
 
+  public static final int DEFAULT_PLAN_CACHE_SIZE = 100;
+
   final Logger logger = LoggerFactory.getLogger(JdbcQueryExecutor.class);
   private Connection connection;
   private Statement statement;
+  private final Map<String, PreparedStatement> planCache;
 
   /**
    * Constructor to instantiate a JdbcQueryExecutor
@@ -31,6 +49,38 @@ public class JdbcQueryExecutor {
    *          The schema to execute queries.
    */
   public JdbcQueryExecutor(JavaBeanSchema schema) {
+    this(schema, DEFAULT_PLAN_CACHE_SIZE);
+  }
+
+  /**
+   * Constructor to instantiate a JdbcQueryExecutor
+   * 
+   * @param schema
+   *          The schema to execute queries.
+   * @param planCacheSize
+   *          The most prepared statements to keep, at least 1. The least
+   *          recently used one is closed when another is prepared.
+   * @throws IllegalArgumentException
+   *           If planCacheSize is less than 1
+   */
+  public JdbcQueryExecutor(JavaBeanSchema schema, final int planCacheSize) {
+    if (planCacheSize < 1) {
+      // a statement is used after it is cached, so it must not be evicted
+      throw new IllegalArgumentException("Plan cache size must be positive: "
+          + planCacheSize);
+    }
+    planCache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<String, PreparedStatement> eldest) {
+        if (size() <= planCacheSize) {
+          return false;
+        }
+        logger.debug("Evicting prepared statement: {}", eldest.getKey());
+        closeQuietly(eldest.getValue());
+        return true;
+      }
+    };
     try {
       Class.forName("net.hydromatic.optiq.jdbc.Driver");
       connection = DriverManager.getConnection("jdbc:optiq:");
@@ -51,24 +101,163 @@ public class JdbcQueryExecutor {
    *          SQL query in string.
    * @return JDBC result set.
    */
-  public ResultSet execute(String sql) {
+  public synchronized ResultSet execute(String sql) {
     ResultSet results = null;
+    final JavaBeanQueryMetrics metrics = JavaBeanMetrics.begin(sql);
     try {
       logger.debug("Creating a statement");
       statement = connection.createStatement();
-      logger.debug("Going to execute query: " + sql);
-      results = statement.executeQuery(sql);
+      logger.debug("Going to execute query: {}", sql);
+      results = JavaBeanMetrics.executeQuery(statement, sql, metrics);
       logger.debug("Execution complete");
     } catch (SQLException e) {
       logger.error("Could not create a statement.  " + e);
+    } finally {
+      JavaBeanMetrics.detach(metrics);
+    }
+    return results;
+  }
+
+  /**
+   * Executes a SQL query with parameters, reusing the plan of an earlier
+   * execution of the same query.
+   * 
+   * @param sql
+   *          SQL query in string, with a "?" for each parameter.
+   * @param parameters
+   *          The values to bind, in order, one for each "?".
+   * @return JDBC result set.
+   * @throws IllegalArgumentException
+   *           If there is not one value for each "?"
+   */
+  public synchronized ResultSet execute(String sql, Object... parameters) {
+    ResultSet results = null;
+    final JavaBeanQueryMetrics metrics = JavaBeanMetrics.begin(sql);
+    try {
+      PreparedStatement prepared = prepare(sql);
+      bind(prepared, parameters);
+      logger.debug("Going to execute prepared query: {}", sql);
+      results = JavaBeanMetrics.executeQuery(prepared, metrics);
+      logger.debug("Execution complete");
+    } catch (SQLException e) {
+      logger.error("Could not execute prepared statement.  " + e);
+    } finally {
+      JavaBeanMetrics.detach(metrics);
     }
     return results;
   }
 
+  /**
+   * Returns the prepared statement of a SQL query, preparing it only if it is
+   * not in the plan cache. Queries that differ only in white space outside
+   * quotes share a statement. The statement belongs to the cache, and is
+   * closed when it is evicted or the executor is closed.
+   * 
+   * @param sql
+   *          SQL query in string, with a "?" for each parameter.
+   * @return The prepared statement.
+   */
+  public synchronized PreparedStatement prepare(String sql)
+      throws SQLException {
+    if (connection == null) {
+      throw new SQLException("No Optiq connection");
+    }
+    final String key = normalize(sql);
+    final JavaBeanQueryMetrics metrics = JavaBeanMetrics.current();
+    PreparedStatement prepared = planCache.get(key);
+    if (prepared == null) {
+      logger.debug("Preparing query: {}", key);
+      final long start = System.nanoTime();
+      final long allocated = metrics == null ? 0 : JavaBeanMetrics
+          .allocatedBytes();
+      prepared = connection.prepareStatement(sql);
+      planCache.put(key, prepared);
+      if (metrics != null) {
+        metrics.prepared(System.nanoTime() - start,
+            JavaBeanMetrics.allocatedBytes() - allocated, false);
+      }
+    } else if (metrics != null) {
+      metrics.prepared(0, 0, true);
+    }
+    return prepared;
+  }
+
+  /**
+   * Binds the values of a query's parameters, replacing those of its previous
+   * execution.
+   * 
+   * @throws IllegalArgumentException
+   *           If there is not one value for each "?"
+   */
+  static void bind(PreparedStatement prepared, Object[] parameters)
+      throws SQLException {
+    final int count = prepared.getParameterMetaData().getParameterCount();
+    if (parameters.length != count) {
+      throw new IllegalArgumentException("Query has " + count
+          + " parameters, but " + parameters.length + " values were given");
+    }
+    prepared.clearParameters();
+    for (int i = 0; i < parameters.length; i++) {
+      prepared.setObject(i + 1, parameters[i]);
+    }
+  }
+
+  /**
+   * @return The number of prepared statements in the plan cache
+   */
+  public synchronized int getPlanCacheSize() {
+    return planCache.size();
+  }
+
+  /**
+   * Trims a query and collapses each run of white space outside quoted
+   * strings and identifiers into a single space.
+   */
+  static String normalize(String sql) {
+    final StringBuilder buf = new StringBuilder(sql.length());
+    char quote = 0;
+    boolean space = false;
+    for (int i = 0; i < sql.length(); i++) {
+      final char c = sql.charAt(i);
+      if (quote != 0) {
+        buf.append(c);
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (Character.isWhitespace(c)) {
+        space = buf.length() > 0;
+      } else {
+        if (space) {
+          buf.append(' ');
+          space = false;
+        }
+        if (c == '\'' || c == '"') {
+          quote = c;
+        }
+        buf.append(c);
+      }
+    }
+    return buf.toString();
+  }
+
+  private void closeQuietly(Statement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      logger.error("Could not close Optiq statement");
+    }
+  }
+
   /**
    * Closed the connection and statement used for executing query.
    */
   public void close() {
+    synchronized (this) {
+      for (PreparedStatement prepared : planCache.values()) {
+        closeQuietly(prepared);
+      }
+      planCache.clear();
+    }
     if (connection != null) {
       try {
         connection.close();
@@ -0,0 +1,324 @@
+package io.thedal.optiq.javabean.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * JavaBeanAccessors holds the eligible getters of a JavaBean class, resolved
+ * once per class into an ordered array of method handles. Tables, enumerators
+ * and pushdown paths share the same instance, so the column order is the same
+ * everywhere and no reflection lookup happens per row.
+ *
+ * Field types are reported as wrapper classes. Getters returning a primitive
+ * also get a handle of primitive type, so getLong, getDouble and getBoolean
+ * read them without boxing.
+ *
+ * @author Abishek Baskaran
+ *
+ */
+public final class JavaBeanAccessors {
+
+  static final Logger logger = LoggerFactory.getLogger(JavaBeanAccessors.class);
+
+  private static final MethodType GETTER_TYPE = MethodType.methodType(
+      Object.class, Object.class);
+  private static final MethodType LONG_GETTER_TYPE = MethodType.methodType(
+      long.class, Object.class);
+  private static final MethodType DOUBLE_GETTER_TYPE = MethodType.methodType(
+      double.class, Object.class);
+  private static final MethodType BOOLEAN_GETTER_TYPE = MethodType
+      .methodType(boolean.class, Object.class);
+
+  private static final ClassValue<JavaBeanAccessors> REGISTRY = new ClassValue<JavaBeanAccessors>() {
+    @Override
+    protected JavaBeanAccessors computeValue(Class<?> beanClass) {
+      return new JavaBeanAccessors(beanClass);
+    }
+  };
+
+  private final Class<?> beanClass;
+  private final ImmutableList<String> fieldNames;
+  private final ImmutableList<Class<?>> fieldTypes;
+  private final ImmutableList<String> getterNames;
+  private final MethodHandle[] getters;
+  private final MethodHandle[] longGetters;
+  private final MethodHandle[] doubleGetters;
+  private final MethodHandle[] booleanGetters;
+  private final boolean[] primitive;
+
+  private JavaBeanAccessors(Class<?> beanClass) {
+    this.beanClass = beanClass;
+    List<String> names = new ArrayList<String>();
+    List<Class<?>> types = new ArrayList<Class<?>>();
+    List<Boolean> primitives = new ArrayList<Boolean>();
+    List<String> getterNameList = new ArrayList<String>();
+    List<MethodHandle> handles = new ArrayList<MethodHandle>();
+    List<MethodHandle> longHandles = new ArrayList<MethodHandle>();
+    List<MethodHandle> doubleHandles = new ArrayList<MethodHandle>();
+    List<MethodHandle> booleanHandles = new ArrayList<MethodHandle>();
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    for (Method method : beanClass.getMethods()) {
+      if (JavaBeanInspector.checkMethodEligiblity(method)) {
+        try {
+          method.setAccessible(true);
+        } catch (RuntimeException e) {
+          logger.debug("Could not make accessible: " + method.getName());
+        }
+        final Class<?> type = method.getReturnType();
+        final MethodHandle handle;
+        try {
+          handle = lookup.unreflect(method);
+        } catch (IllegalAccessException e) {
+          logger.error("Unable to access getter: " + method.getName());
+          continue;
+        }
+        handles.add(handle.asType(GETTER_TYPE));
+        longHandles.add(type == int.class || type == long.class ? handle
+            .asType(LONG_GETTER_TYPE) : null);
+        doubleHandles.add(type.isPrimitive() && type != boolean.class ? handle
+            .asType(DOUBLE_GETTER_TYPE) : null);
+        booleanHandles.add(type == boolean.class ? handle
+            .asType(BOOLEAN_GETTER_TYPE) : null);
+        names.add(JavaBeanInspector.getFieldName(method));
+        types.add(JavaBeanInspector.box(type));
+        primitives.add(type.isPrimitive());
+        getterNameList.add(method.getName());
+      }
+    }
+    this.fieldNames = ImmutableList.copyOf(names);
+    this.fieldTypes = ImmutableList.copyOf(types);
+    this.getterNames = ImmutableList.copyOf(getterNameList);
+    this.getters = handles.toArray(new MethodHandle[handles.size()]);
+    this.longGetters = longHandles.toArray(new MethodHandle[handles.size()]);
+    this.doubleGetters = doubleHandles
+        .toArray(new MethodHandle[handles.size()]);
+    this.booleanGetters = booleanHandles.toArray(new MethodHandle[handles
+        .size()]);
+    this.primitive = new boolean[primitives.size()];
+    for (int i = 0; i < this.primitive.length; i++) {
+      this.primitive[i] = primitives.get(i);
+    }
+    logger.debug("Resolved accessors for: " + beanClass.getName()
+        + " with fields: " + fieldNames);
+  }
+
+  /**
+   * Returns the accessors of a JavaBean class. Getters are resolved on the
+   * first call for a class and shared afterwards; this method is thread-safe.
+   *
+   * @param beanClass
+   *          The JavaBean class
+   * @return The cached accessors for the class
+   */
+  public static JavaBeanAccessors of(Class<?> beanClass) {
+    return REGISTRY.get(beanClass);
+  }
+
+  /**
+   * Returns the accessors for the type of the beans in a list, or null when the
+   * list is null or empty.
+   *
+   * @param javaBeanList
+   *          A List of JavaBeans of same type
+   * @return The cached accessors or null
+   */
+  public static JavaBeanAccessors of(List<?> javaBeanList) {
+    if ((javaBeanList == null) || javaBeanList.isEmpty()) {
+      return null;
+    }
+    return of(javaBeanList.get(0).getClass());
+  }
+
+  /**
+   * @return The JavaBean class these accessors were resolved for
+   */
+  public Class<?> getBeanClass() {
+    return beanClass;
+  }
+
+  /**
+   * @return The number of eligible fields (columns)
+   */
+  public int getFieldCount() {
+    return getters.length;
+  }
+
+  /**
+   * @return The field names, in column order
+   */
+  public List<String> getFieldNames() {
+    return fieldNames;
+  }
+
+  /**
+   * @return The field types, in column order; primitives are reported as
+   *         their wrapper class
+   */
+  public List<Class<?>> getFieldTypes() {
+    return fieldTypes;
+  }
+
+  /**
+   * Returns the column ordinal of a field.
+   *
+   * @param fieldName
+   *          The field name
+   * @return The column ordinal, or -1 if there is no such field
+   */
+  public int getFieldIndex(String fieldName) {
+    return fieldNames.indexOf(fieldName);
+  }
+
+  /**
+   * Reads a single field of a JavaBean.
+   *
+   * @param javaBean
+   *          The java bean object
+   * @param field
+   *          The column ordinal
+   * @return The field value
+   */
+  public Object get(Object javaBean, int field) {
+    try {
+      return getters[field].invokeExact(javaBean);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Throwable e) {
+      logger.error("Unable to invoke getter for: " + fieldNames.get(field));
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return The name of the getter method of a field, such as "getAge"
+   */
+  public String getGetterName(int field) {
+    return getterNames.get(field);
+  }
+
+  /**
+   * @return true if the getter of the field returns a primitive, so the field
+   *         is never null
+   */
+  public boolean isPrimitive(int field) {
+    return primitive[field];
+  }
+
+  /**
+   * Reads an integral field of a JavaBean as a long. An int or long getter is
+   * called without boxing; other fields must not be null.
+   *
+   * @param javaBean
+   *          The java bean object
+   * @param field
+   *          The column ordinal
+   * @return The field value
+   */
+  public long getLong(Object javaBean, int field) {
+    final MethodHandle getter = longGetters[field];
+    if (getter == null) {
+      return ((Number) get(javaBean, field)).longValue();
+    }
+    try {
+      return (long) getter.invokeExact(javaBean);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Throwable e) {
+      logger.error("Unable to invoke getter for: " + fieldNames.get(field));
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads a numeric field of a JavaBean as a double. A getter of a primitive
+   * number is called without boxing; other fields must not be null.
+   *
+   * @param javaBean
+   *          The java bean object
+   * @param field
+   *          The column ordinal
+   * @return The field value
+   */
+  public double getDouble(Object javaBean, int field) {
+    final MethodHandle getter = doubleGetters[field];
+    if (getter == null) {
+      return ((Number) get(javaBean, field)).doubleValue();
+    }
+    try {
+      return (double) getter.invokeExact(javaBean);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Throwable e) {
+      logger.error("Unable to invoke getter for: " + fieldNames.get(field));
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads a boolean field of a JavaBean. A boolean getter is called without
+   * boxing; a Boolean field must not be null.
+   *
+   * @param javaBean
+   *          The java bean object
+   * @param field
+   *          The column ordinal
+   * @return The field value
+   */
+  public boolean getBoolean(Object javaBean, int field) {
+    final MethodHandle getter = booleanGetters[field];
+    if (getter == null) {
+      return (Boolean) get(javaBean, field);
+    }
+    try {
+      return (boolean) getter.invokeExact(javaBean);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Throwable e) {
+      logger.error("Unable to invoke getter for: " + fieldNames.get(field));
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Converts a JavaBean into a row holding all the eligible fields.
+   *
+   * @param javaBean
+   *          The java bean object
+   * @return The row
+   */
+  public Object[] getRow(Object javaBean) {
+    final Object[] row = new Object[getters.length];
+    for (int i = 0; i < row.length; i++) {
+      row[i] = get(javaBean, i);
+    }
+    return row;
+  }
+
+  /**
+   * Converts a JavaBean into a row holding the projected fields, in the order
+   * they are given.
+   *
+   * @param javaBean
+   *          The java bean object
+   * @param projectFields
+   *          The column ordinals to project
+   * @return The projected row
+   */
+  public Object[] getRow(Object javaBean, int[] projectFields) {
+    final Object[] row = new Object[projectFields.length];
+    for (int i = 0; i < row.length; i++) {
+      row[i] = get(javaBean, projectFields[i]);
+    }
+    return row;
+  }
+
+}
@@ -1,7 +1,13 @@
 package io.thedal.optiq.javabean.utils;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
 import java.util.Date;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 /**
  * Utility class to check eligible fields in a Java Bean.
@@ -11,23 +17,76 @@ import java.util.Date;
  */
 public class JavaBeanInspector {
 
+  private static final ImmutableSet<Class<?>> ELIGIBLE_TYPES = ImmutableSet
+      .<Class<?>> of(Integer.class, Long.class, Float.class, Double.class,
+          BigDecimal.class, Boolean.class, String.class, Date.class,
+          int.class, long.class, float.class, double.class, boolean.class);
+
+  private static final ImmutableMap<Class<?>, Class<?>> BOXED_TYPES = ImmutableMap
+      .<Class<?>, Class<?>> of(int.class, Integer.class, long.class,
+          Long.class, float.class, Float.class, double.class, Double.class,
+          boolean.class, Boolean.class);
+
   /**
    * Given method, determines if the method is a getter for an eligible field.
+   * A getter takes no arguments and its name starts with "get", or with "is"
+   * if it returns a boolean.
    * 
    * @param method
    *          Java Method
    * @return boolean representing eligible or not.
    */
   public static boolean checkMethodEligiblity(Method method) {
-    if ((method.getName().startsWith("get"))
-        && ((method.getReturnType() == Integer.class)
-            || (method.getReturnType() == String.class)
-            || (method.getReturnType() == Float.class) || (method
-            .getReturnType() == Date.class))) {
-      return true;
-    } else {
+    if (Modifier.isStatic(method.getModifiers())
+        || method.getParameterTypes().length != 0
+        || !ELIGIBLE_TYPES.contains(method.getReturnType())) {
       return false;
     }
+    return getFieldName(method) != null;
+  }
+
+  /**
+   * Returns the name of the field a getter reads: its name without "get" or
+   * "is".
+   * 
+   * @param method
+   *          Java Method
+   * @return The field name, or null if the method is not named as a getter.
+   */
+  public static String getFieldName(Method method) {
+    final String name = method.getName();
+    if (name.startsWith("get") && name.length() > 3) {
+      return name.substring(3);
+    }
+    final Class<?> type = method.getReturnType();
+    if (name.startsWith("is") && name.length() > 2
+        && (type == boolean.class || type == Boolean.class)) {
+      return name.substring(2);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the primitive type of a wrapper class, or the type itself if it
+   * has none.
+   */
+  public static Class<?> unbox(Class<?> type) {
+    for (Map.Entry<Class<?>, Class<?>> entry : BOXED_TYPES.entrySet()) {
+      if (entry.getValue() == type) {
+        return entry.getKey();
+      }
+    }
+    return type;
+  }
+
+  /**
+   * Returns the wrapper class of a primitive type, or the type itself if it is
+   * not primitive. Columns are typed by their wrapper class, so that an int
+   * and an Integer getter are handled alike.
+   */
+  public static Class<?> box(Class<?> type) {
+    final Class<?> boxed = BOXED_TYPES.get(type);
+    return boxed == null ? type : boxed;
   }
 
 }
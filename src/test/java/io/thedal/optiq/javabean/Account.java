@@ -0,0 +1,60 @@
+package io.thedal.optiq.javabean;
+
+import java.math.BigDecimal;
+
+/**
+ * A sample JavaBean with primitive and wide fields for testing.
+ * 
+ * @author Abishek Baskaran
+ *
+ */
+public class Account {
+
+  private String owner;
+  private long id;
+  private int score;
+  private double rate;
+  private boolean active;
+  private BigDecimal balance;
+  private Long credit;
+
+  public Account(String owner, long id, int score, double rate,
+      boolean active, String balance, Long credit) {
+    this.owner = owner;
+    this.id = id;
+    this.score = score;
+    this.rate = rate;
+    this.active = active;
+    this.balance = balance == null ? null : new BigDecimal(balance);
+    this.credit = credit;
+  }
+
+  public String getOwner() {
+    return owner;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public int getScore() {
+    return score;
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+  public boolean isActive() {
+    return active;
+  }
+
+  public BigDecimal getBalance() {
+    return balance;
+  }
+
+  public Long getCredit() {
+    return credit;
+  }
+
+}
@@ -0,0 +1,29 @@
+package io.thedal.optiq.javabean;
+
+import java.util.Date;
+
+/**
+ * A sample JavaBean with a date field for testing.
+ * 
+ * @author Abishek Baskaran
+ *
+ */
+public class Event {
+
+  private String name;
+  private Date time;
+
+  public Event(String name, Date time) {
+    this.name = name;
+    this.time = time;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Date getTime() {
+    return time;
+  }
+
+}
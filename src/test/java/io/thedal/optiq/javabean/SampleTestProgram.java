@@ -1,17 +1,38 @@
 package io.thedal.optiq.javabean;
 
 import static org.junit.Assert.*;
+import io.thedal.optiq.javabean.utils.JavaBeanAccessors;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import javax.management.ObjectName;
+
+import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.reltype.RelDataTypeFactory;
+import org.eigenbase.sql.SqlKind;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.hydromatic.optiq.jdbc.JavaTypeFactoryImpl;
+
 /**
  * Test class for the Optiq Adaptor
  * 
@@ -112,10 +133,9 @@ public class SampleTestProgram {
     // Notes: Optiq did the 'select' operation as project was not fired.
     sql = "select \"Name\", \"Age\" from \"TESTDB\".\"USERS\" where \"Country\" = 'India' and \"Age\" < 29";
 
-    // Fired: Project.
-    // Match: Project.
-    // Notes: Error: exception while executing query: [Ljava.lang.Object; cannot
-    // be cast to java.lang.String
+    // Fired: Project, Aggregate on project.
+    // Match: Aggregate on project.
+    // Notes: The table returns one row per country.
     sql = "select \"Country\", count(1) from \"TESTDB\".\"USERS\" group by \"Country\"";
 
     // Fired: Project.
@@ -180,4 +200,1071 @@ public class SampleTestProgram {
 
   }
 
+  /**
+   * Tests that the enumerator forms rows on demand and can rescan its input.
+   */
+  @Test
+  public void testEnumeratorReset() {
+    List<User> userList = new ArrayList<User>();
+    userList.add(new User("Abishek", 29, "India"));
+    userList.add(new User("Kousik", 25, "Thailand"));
+
+    JavaBeanEnumerator enumerator = new JavaBeanEnumerator(userList);
+    int rows = 0;
+    while (enumerator.moveNext()) {
+      rows++;
+    }
+    assertEquals(2, rows);
+
+    // A late addition is seen after a reset as nothing was materialized.
+    userList.add(new User("CP", 15, "Russia"));
+    enumerator.reset();
+    rows = 0;
+    while (enumerator.moveNext()) {
+      rows++;
+    }
+    assertEquals(3, rows);
+    enumerator.close();
+
+    // An enumerator over a list that was empty when created
+    List<User> lateList = new ArrayList<User>();
+    enumerator = new JavaBeanEnumerator(lateList);
+    assertFalse(enumerator.moveNext());
+    lateList.add(new User("CP", 15, "Russia"));
+    enumerator.reset();
+    assertTrue(enumerator.moveNext());
+    assertEquals(3, ((Object[]) enumerator.current()).length);
+    enumerator.close();
+  }
+
+  /**
+   * Tests that a pushed down filter selects the rows on the smart table.
+   */
+  @Test
+  public void testPushDownFilter() {
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", newUserList());
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String sql = "select \"Name\", \"Age\" from \"TESTDB\".\"USERS\" "
+        + "where \"Country\" = 'India' and not (\"Age\" >= 29)";
+    assertEquals("[CP]", getNames(queryExec.execute(sql)).toString());
+    queryExec.close();
+  }
+
+  /**
+   * Tests that a filter through a cast that changes the value is not pushed
+   * down as a filter on the field.
+   */
+  @Test
+  public void testLossyCastFilter() {
+    List<Account> accountList = new ArrayList<Account>();
+    accountList.add(new Account("Abishek", 1L, 40, 1.5, true, "100.25", 10L));
+    accountList.add(new Account("Kousik", 2L, 20, 2.5, false, "50.50", null));
+    accountList.add(new Account("Ab", 3L, 30, 1.0, true, null, 30L));
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsTable("PLAIN", accountList);
+    schema.addAsSmartTable("SMART", accountList, "Owner");
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String[] filters = { "cast(\"Rate\" as integer) = 1",
+        "cast(\"Owner\" as char(2)) = 'Ab'" };
+    for (String filter : filters) {
+      String sql = "select \"Owner\" from \"TESTDB\".\"%s\" where " + filter;
+      List<String> expected = getNames(queryExec.execute(String.format(sql,
+          "PLAIN")));
+      assertEquals(filter, "[Abishek, Ab]", expected.toString());
+      assertEquals(filter, expected,
+          getNames(queryExec.execute(String.format(sql, "SMART"))));
+    }
+    queryExec.close();
+  }
+
+  /**
+   * Tests equality and IN lookups through a hash index on a smart table.
+   */
+  @Test
+  public void testHashIndexQuery() {
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", newUserList(), "Name", "Age");
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String sql = "select \"Name\" from \"TESTDB\".\"USERS\" "
+        + "where \"Name\" in ('Abishek', 'CP', 'Nobody') and \"Age\" < 20";
+    assertEquals("[CP]", getNames(queryExec.execute(sql)).toString());
+    queryExec.close();
+  }
+
+  /**
+   * Tests range filters and ORDER BY through a sorted index on a smart table.
+   */
+  @Test
+  public void testSortedIndexQuery() throws SQLException {
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", newUserList());
+    schema.addSortedIndex("USERS", "Age");
+    List<Account> accountList = new ArrayList<Account>();
+    accountList.add(new Account("Abishek", 1, 0, 0, true,
+        "0.10000000000000000001", null));
+    accountList.add(new Account("Kousik", 2, 0, 0, true, "0.1", null));
+    schema.addAsSmartTable("ACCOUNTS", accountList);
+    try {
+      schema.addSortedIndex("ACCOUNTS", "Balance");
+      fail("Sorted index built on a BigDecimal column");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String sql = "select \"Age\" from \"TESTDB\".\"USERS\" "
+        + "where \"Age\" between 20 and 30 order by \"Age\" desc";
+    assertEquals("[29, 29, 25]", getValues(queryExec.execute(sql))
+        .toString());
+    sql = "select \"Owner\" from \"TESTDB\".\"ACCOUNTS\" "
+        + "where \"Balance\" > 0.1";
+    assertEquals("[Abishek]", getNames(queryExec.execute(sql)).toString());
+    queryExec.close();
+  }
+
+  /**
+   * Tests filter and projection over the columnar snapshot of a smart table.
+   */
+  @Test
+  public void testColumnarQuery() {
+    List<User> userList = newUserList();
+    userList.set(3, new User("Karthik", null, "US"));
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", userList);
+    schema.setStorageMode("USERS", JavaBeanStorageMode.COLUMNAR);
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String sql = "select \"Name\" from \"TESTDB\".\"USERS\" "
+        + "where \"Country\" like 'In%' and \"Age\" > 20 "
+        + "or \"Age\" is null";
+    assertEquals("[Abishek, Karthik]", getNames(queryExec.execute(sql))
+        .toString());
+    queryExec.close();
+  }
+
+  /**
+   * Tests queries over off-heap and memory-mapped column stores.
+   */
+  @Test
+  public void testOffHeapQuery() throws IOException, SQLException {
+    List<User> userList = newUserList();
+    userList.set(3, new User("Karthik", null, null));
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsOffHeapTable("USERS", User.class, userList.iterator(), null);
+    schema.addAsSmartTable("MAPPED", userList);
+    File directory = Files.createTempDirectory("javabean").toFile();
+    schema.setStorageMode("MAPPED", JavaBeanStorageMode.MEMORY_MAPPED,
+        directory);
+    assertTrue(directory.list().length > 0);
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    for (String table : new String[] { "USERS", "MAPPED" }) {
+      String sql = "select \"Name\", \"Age\" from \"TESTDB\".\"" + table
+          + "\" where \"Country\" = 'India' or \"Age\" is null";
+      assertEquals("[Abishek,29, CP,15, Karthik,null]",
+          getRows(queryExec.execute(sql)).toString());
+    }
+    queryExec.close();
+
+    // Replacing the mapped store deletes its files
+    schema.setStorageMode("MAPPED", JavaBeanStorageMode.BEANS);
+    assertEquals(0, directory.list().length);
+    assertTrue(directory.delete());
+  }
+
+  /**
+   * Tests filtered and sorted scans split over several threads.
+   */
+  @Test
+  public void testParallelScan() throws SQLException {
+    List<User> userList = new ArrayList<User>();
+    for (int i = 0; i < 10000; i++) {
+      userList.add(new User("User" + i, i % 100, i % 2 == 0 ? "India" : "US"));
+    }
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", userList);
+    schema.addSortedIndex("USERS", "Age");
+    schema.setParallelScan("USERS", 4, 1000);
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String sql = "select \"Name\" from \"TESTDB\".\"USERS\" "
+        + "where \"Country\" = 'India' and \"Age\" < 10";
+    assertEquals(500, getNames(queryExec.execute(sql)).size());
+
+    sql = "select \"Age\" from \"TESTDB\".\"USERS\" "
+        + "where \"Age\" >= 90 order by \"Age\"";
+    List<Object> ages = getValues(queryExec.execute(sql));
+    assertEquals(1000, ages.size());
+    for (int i = 1; i < ages.size(); i++) {
+      assertTrue((Integer) ages.get(i - 1) <= (Integer) ages.get(i));
+    }
+    queryExec.close();
+  }
+
+  /**
+   * Tests grouped aggregates over the JavaBeans and over their columns.
+   */
+  @Test
+  public void testAggregateQuery() throws SQLException {
+    List<User> userList = newUserList();
+    userList.set(3, new User("Karthik", null, "US"));
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", userList);
+    schema.addAsSmartTable("COLUMNS", userList);
+    schema.setStorageMode("COLUMNS", JavaBeanStorageMode.COLUMNAR);
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    for (String table : new String[] { "USERS", "COLUMNS" }) {
+      String sql = "select \"Country\", count(*), sum(\"Age\"), "
+          + "min(\"Name\"), max(\"Age\") from \"TESTDB\".\"" + table
+          + "\" where \"Age\" > 10 group by \"Country\" order by \"Country\"";
+      assertEquals("[India,2,44,Abishek,29, Thailand,1,25,Kousik,25]",
+          getRows(queryExec.execute(sql)).toString());
+
+      sql = "select \"Country\", count(1) from \"TESTDB\".\"" + table
+          + "\" group by \"Country\"";
+      assertEquals("[India,2, Thailand,1, US,1]",
+          getSortedRows(queryExec.execute(sql)).toString());
+    }
+    queryExec.close();
+  }
+
+  /**
+   * Tests ORDER BY with OFFSET and FETCH, with and without a sorted index.
+   */
+  @Test
+  public void testTopNQuery() {
+    List<User> userList = newUserList();
+    userList.set(3, new User("Karthik", 31, "US"));
+    userList.add(new User("Ravi", 22, "India"));
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", userList);
+    schema.addAsSmartTable("INDEXED", userList);
+    schema.addSortedIndex("INDEXED", "Age");
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    for (String table : new String[] { "USERS", "INDEXED" }) {
+      String sql = "select \"Name\" from \"TESTDB\".\"" + table
+          + "\" order by \"Age\" desc offset 1 rows fetch next 2 rows only";
+      assertEquals("[Abishek, Kousik]", getNames(queryExec.execute(sql))
+          .toString());
+
+      sql = "select \"Name\" from \"TESTDB\".\"" + table
+          + "\" where \"Country\" = 'India' order by \"Country\", \"Name\" "
+          + "fetch next 2 rows only";
+      assertEquals("[Abishek, CP]", getNames(queryExec.execute(sql))
+          .toString());
+    }
+    queryExec.close();
+  }
+
+  /**
+   * Tests that tables and their row types are kept until a table changes.
+   */
+  @Test
+  public void testTableCache() {
+    List<User> userList = newUserList();
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsTable("USERS", userList);
+    schema.addAsSmartTable("SMART", userList);
+
+    assertSame(schema.getTableMap(), schema.getTableMap());
+    Object users = schema.getTableMap().get("USERS");
+    Object smart = schema.getTableMap().get("SMART");
+
+    schema.setStorageMode("SMART", JavaBeanStorageMode.COLUMNAR);
+    assertSame(users, schema.getTableMap().get("USERS"));
+    assertNotSame(smart, schema.getTableMap().get("SMART"));
+
+    schema.addAsTable("USERS", userList);
+    assertNotSame(users, schema.getTableMap().get("USERS"));
+
+    // Type factories used in turn, as by pooled connections, keep their own
+    // row types
+    JavaBeanTable<User> table = new JavaBeanTable<User>(userList);
+    RelDataTypeFactory first = new JavaTypeFactoryImpl();
+    RelDataTypeFactory second = new JavaTypeFactoryImpl();
+    RelDataType rowType = table.getRowType(first);
+    table.getRowType(second);
+    assertSame(rowType, table.getRowType(first));
+  }
+
+  /**
+   * Tests queries with dynamic parameters and the plan cache.
+   */
+  @Test
+  public void testPreparedQuery() throws SQLException {
+    List<User> userList = newUserList();
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", userList);
+    schema.addAsSmartTable("COLUMNS", userList);
+    schema.setStorageMode("COLUMNS", JavaBeanStorageMode.COLUMNAR);
+    try {
+      new JdbcQueryExecutor(schema, 0);
+      fail("Plan cache of size 0 accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema, 1);
+    for (String table : new String[] { "USERS", "COLUMNS" }) {
+      String sql = "select \"Name\" from \"TESTDB\".\"" + table
+          + "\" where \"Country\" = ? and ? > \"Age\"";
+      assertEquals("[CP]", getNames(queryExec.execute(sql, "India", 29))
+          .toString());
+      assertEquals("[Abishek, CP]",
+          getNames(queryExec.execute(sql, "India", 30L)).toString());
+      assertEquals("[]", getNames(queryExec.execute(sql, null, 30))
+          .toString());
+      try {
+        queryExec.execute(sql, "India");
+        fail("Executed with a parameter missing");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+      assertSame(queryExec.prepare(sql),
+          queryExec.prepare("  " + sql.replace(" ", "\n  ")));
+      assertEquals(1, queryExec.getPlanCacheSize());
+    }
+    queryExec.close();
+  }
+
+  /**
+   * Tests one query run by many threads over a pool of connections.
+   */
+  @Test
+  public void testConcurrentQuery() throws Exception {
+    List<User> userList = new ArrayList<User>();
+    for (int i = 0; i < 1000; i++) {
+      userList.add(new User("User" + i, i % 100, i % 2 == 0 ? "India" : "US"));
+    }
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", userList);
+
+    final ConcurrentQueryExecutor queryExec = new ConcurrentQueryExecutor(
+        schema, 3);
+    final String sql = "select \"Name\" from \"TESTDB\".\"USERS\" "
+        + "where \"Age\" = ?";
+    ExecutorService clients = Executors.newFixedThreadPool(8);
+    List<Future<List<Object[]>>> futures = new ArrayList<Future<List<Object[]>>>();
+    for (int i = 0; i < 40; i++) {
+      final int age = i;
+      futures.add(clients.submit(new Callable<List<Object[]>>() {
+        public List<Object[]> call() throws Exception {
+          return queryExec.execute(sql, age);
+        }
+      }));
+    }
+    for (int i = 0; i < futures.size(); i++) {
+      List<Object[]> rows = futures.get(i).get();
+      assertEquals(10, rows.size());
+      assertEquals("User" + i, rows.get(0)[0]);
+    }
+    clients.shutdown();
+    queryExec.close();
+  }
+
+  /**
+   * Tests queries run asynchronously and published in batches on demand.
+   */
+  @Test
+  public void testAsyncQuery() throws Exception {
+    List<User> userList = new ArrayList<User>();
+    for (int i = 0; i < 10; i++) {
+      userList.add(new User("User" + i, i, "India"));
+    }
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", userList);
+
+    AsyncQueryExecutor queryExec = new AsyncQueryExecutor(schema, 2);
+    String sql = "select \"Name\" from \"TESTDB\".\"USERS\" "
+        + "where \"Age\" < ?";
+    assertEquals(4, queryExec.executeAsync(sql, 4).get().size());
+
+    final List<Integer> batchSizes = new ArrayList<Integer>();
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    final CountDownLatch completed = new CountDownLatch(1);
+    queryExec.publish(sql, 3, 100).subscribe(
+        new JavaBeanFlow.Subscriber<List<Object[]>>() {
+          private JavaBeanFlow.Subscription subscription;
+
+          public void onSubscribe(JavaBeanFlow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+          }
+
+          public void onNext(List<Object[]> batch) {
+            batchSizes.add(batch.size());
+            subscription.request(1);
+          }
+
+          public void onError(Throwable throwable) {
+            errors.add(throwable);
+            completed.countDown();
+          }
+
+          public void onComplete() {
+            completed.countDown();
+          }
+        });
+    assertTrue(completed.await(30, TimeUnit.SECONDS));
+    assertTrue(errors.isEmpty());
+    assertEquals("[3, 3, 3, 1]", batchSizes.toString());
+
+    // The rows exactly fill two batches: the query completes without a
+    // third request
+    final List<Integer> exactSizes = new ArrayList<Integer>();
+    final CountDownLatch exactCompleted = new CountDownLatch(1);
+    queryExec.publish(sql, 3, 6).subscribe(
+        new JavaBeanFlow.Subscriber<List<Object[]>>() {
+          public void onSubscribe(JavaBeanFlow.Subscription subscription) {
+            subscription.request(2);
+          }
+
+          public void onNext(List<Object[]> batch) {
+            exactSizes.add(batch.size());
+          }
+
+          public void onError(Throwable throwable) {
+            errors.add(throwable);
+            exactCompleted.countDown();
+          }
+
+          public void onComplete() {
+            exactCompleted.countDown();
+          }
+        });
+    assertTrue(exactCompleted.await(30, TimeUnit.SECONDS));
+    assertTrue(errors.isEmpty());
+    assertEquals("[3, 3]", exactSizes.toString());
+
+    // A failing subscriber gets its query cancelled, not an error
+    final CountDownLatch failed = new CountDownLatch(1);
+    queryExec.publish(sql, 3, 9).subscribe(
+        new JavaBeanFlow.Subscriber<List<Object[]>>() {
+          public void onSubscribe(JavaBeanFlow.Subscription subscription) {
+            subscription.request(3);
+          }
+
+          public void onNext(List<Object[]> batch) {
+            failed.countDown();
+            throw new IllegalStateException("Subscriber failure");
+          }
+
+          public void onError(Throwable throwable) {
+            errors.add(throwable);
+          }
+
+          public void onComplete() {
+            errors.add(new IllegalStateException("Completed"));
+          }
+        });
+    assertTrue(failed.await(30, TimeUnit.SECONDS));
+    assertEquals(4, queryExec.executeAsync(sql, 4).get().size());
+    assertTrue(errors.isEmpty());
+    queryExec.close();
+  }
+
+  /**
+   * Tests filters and aggregates on primitive and BigDecimal fields.
+   */
+  @Test
+  public void testPrimitiveFields() throws SQLException {
+    List<Account> accountList = new ArrayList<Account>();
+    accountList.add(new Account("Abishek", 1L, 40, 1.5, true, "100.25", 10L));
+    accountList.add(new Account("Kousik", 2L, 20, 2.5, false, "50.50", null));
+    accountList.add(new Account("CP", 3L, 30, 0.5, true, null, 30L));
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("ACCOUNTS", accountList);
+    schema.addAsSmartTable("COLUMNS", accountList);
+    schema.setStorageMode("COLUMNS", JavaBeanStorageMode.COLUMNAR);
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    for (String table : new String[] { "ACCOUNTS", "COLUMNS" }) {
+      String sql = "select \"Owner\" from \"TESTDB\".\"" + table
+          + "\" where \"Active\" = true and \"Score\" > 35 "
+          + "and \"Rate\" < 2 and \"Balance\" > 100";
+      assertEquals("[Abishek]", getNames(queryExec.execute(sql)).toString());
+
+      sql = "select count(*), sum(\"Id\"), max(\"Credit\") from \"TESTDB\".\""
+          + table + "\" where \"Id\" >= 2";
+      assertEquals("[2,5,30]", getRows(queryExec.execute(sql)).toString());
+    }
+    queryExec.close();
+  }
+
+  /**
+   * Tests that scans generated for the bean class filter as the plain table
+   * does.
+   */
+  @Test
+  public void testGeneratedScan() {
+    // Nulls that the generated comparisons have to skip
+    List<User> userList = newUserList();
+    userList.set(1, new User("Kousik", null, "Thailand"));
+    userList.set(2, new User("CP", 15, null));
+    userList.set(3, new User("Karthik", 31, "US"));
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsTable("PLAIN", userList);
+    schema.addAsSmartTable("SMART", userList);
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String[] filters = { "\"Country\" like 'I%' or \"Age\" > 30",
+        "not (\"Age\" < 20) and \"Name\" <> 'Karthik'",
+        "\"Country\" >= 'T' or \"Age\" = 15",
+        "\"Country\" = 'US' or (\"Age\" > 20 and \"Country\" <> 'India')",
+        "(\"Age\" > 20 or \"Name\" = 'CP') and \"Name\" <> 'Kousik'" };
+    for (String filter : filters) {
+      String expected = getNames(
+          queryExec.execute("select \"Name\" from \"TESTDB\".\"PLAIN\" where "
+              + filter)).toString();
+      assertEquals(filter, expected,
+          getNames(queryExec.execute("select \"Name\" from \"TESTDB\".\"SMART\" "
+              + "where " + filter)).toString());
+      assertTrue(filter, getNames(queryExec.execute("explain plan for "
+          + "select \"Name\" from \"TESTDB\".\"SMART\" where " + filter))
+          .toString().contains("generated=[true]"));
+    }
+    queryExec.close();
+  }
+
+  /**
+   * Tests the metrics reported to listeners and through the MBean.
+   */
+  @Test
+  public void testQueryMetrics() throws Exception {
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", newUserList());
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String sql = "select \"Name\" from \"TESTDB\".\"USERS\" "
+        + "where \"Country\" = ?";
+    assertFalse(JavaBeanMetrics.isEnabled());
+    assertEquals("[Abishek, CP]", getNames(queryExec.execute(sql, "India"))
+        .toString());
+
+    JavaBeanMetricsCollector collector = JavaBeanMetrics.registerMBean();
+    try {
+      JavaBeanQueryMetrics metrics = recordMetrics(queryExec, sql, "India");
+      assertTrue(metrics.isPlanCached());
+      assertEquals(0, metrics.getPrepareNanos());
+      assertTrue(metrics.getExecuteNanos() > 0);
+      assertEquals(4, metrics.getRowsScanned());
+      assertEquals(2, metrics.getRowsEmitted());
+      assertEquals(2, metrics.getRowsReturned());
+
+      metrics = recordMetrics(queryExec, "select \"Name\" "
+          + "from \"TESTDB\".\"USERS\" where \"Age\" > 40");
+      assertFalse(metrics.isPlanCached());
+      assertFalse(metrics.getRulesMatched().isEmpty());
+      assertEquals(0, metrics.getRowsReturned());
+
+      assertEquals(2L, ManagementFactory.getPlatformMBeanServer()
+          .getAttribute(new ObjectName(JavaBeanMetrics.MBEAN_NAME), "Queries"));
+      assertEquals(1, collector.getPlanCacheHits());
+      assertEquals(2, collector.getRowsReturned());
+    } finally {
+      JavaBeanMetrics.unregisterMBean();
+    }
+    assertFalse(JavaBeanMetrics.isEnabled());
+    queryExec.close();
+  }
+
+  /**
+   * Tests that sampled tracing of scans can be turned on and off.
+   */
+  @Test
+  public void testSampledTrace() {
+    List<User> userList = new ArrayList<User>();
+    for (int i = 0; i < 100; i++) {
+      userList.add(new User("User" + i, i, i % 2 == 0 ? "India" : "US"));
+    }
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", userList);
+    schema.addAsSmartTable("COLUMNS", userList);
+    schema.setStorageMode("COLUMNS", JavaBeanStorageMode.COLUMNAR);
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    JavaBeanTrace.setThreadSampleRate(10);
+    try {
+      for (String table : new String[] { "USERS", "COLUMNS" }) {
+        String sql = "select \"Name\" from \"TESTDB\".\"" + table
+            + "\" where \"Country\" = 'US'";
+        assertEquals(50, getNames(queryExec.execute(sql)).size());
+      }
+    } finally {
+      JavaBeanTrace.clearThreadSampleRate();
+    }
+    assertEquals(0, JavaBeanTrace.getSampleRate());
+    try {
+      JavaBeanTrace.setSampleRate(-1);
+      fail("Negative sample rate accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    queryExec.close();
+  }
+
+  /**
+   * Tests hash joins of smart tables against joins of plain tables.
+   */
+  @Test
+  public void testHashJoin() throws SQLException {
+    List<User> userList = newUserList();
+    userList.set(3, new User(null, 40, "US"));
+    List<Account> accountList = new ArrayList<Account>();
+    accountList.add(new Account("Abishek", 1L, 40, 1.5, true, "100.25", 10L));
+    accountList.add(new Account("Kousik", 2L, 20, 2.5, false, "50.50", null));
+    accountList.add(new Account("CP", 3L, 30, 0.5, true, null, 30L));
+    accountList.add(new Account("Abishek", 4L, 10, 1.0, true, "5", 40L));
+    accountList.add(new Account(null, 5L, 50, 1.0, true, "5", 50L));
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsTable("PLAIN_USERS", userList);
+    schema.addAsTable("PLAIN_ACCOUNTS", accountList);
+    schema.addAsSmartTable("USERS", userList);
+    schema.addAsSmartTable("INDEXED_USERS", userList, "Name");
+    schema.addAsSmartTable("ACCOUNTS", accountList);
+    schema.addAsSmartTable("ACCOUNT_COLUMNS", accountList);
+    schema.setStorageMode("ACCOUNT_COLUMNS", JavaBeanStorageMode.COLUMNAR);
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String[] queries = {
+        "select u.\"Name\", a.\"Id\" from \"TESTDB\".\"%s\" u "
+            + "join \"TESTDB\".\"%s\" a on u.\"Name\" = a.\"Owner\"",
+        "select a.\"Score\", u.\"Country\" from \"TESTDB\".\"%s\" u "
+            + "join \"TESTDB\".\"%s\" a on u.\"Name\" = a.\"Owner\" "
+            + "and u.\"Age\" < a.\"Score\" where a.\"Active\" = true",
+        "select u.\"Name\" from \"TESTDB\".\"%s\" u "
+            + "join \"TESTDB\".\"%s\" a on u.\"Age\" = a.\"Score\"" };
+    String[][] tables = { { "USERS", "ACCOUNTS" },
+        { "INDEXED_USERS", "ACCOUNTS" }, { "USERS", "ACCOUNT_COLUMNS" } };
+    for (String query : queries) {
+      List<String> expected = getSortedRows(queryExec.execute(String.format(
+          query, "PLAIN_USERS", "PLAIN_ACCOUNTS")));
+      for (String[] table : tables) {
+        String sql = String.format(query, table[0], table[1]);
+        assertEquals(sql, expected, getSortedRows(queryExec.execute(sql)));
+      }
+    }
+    queryExec.close();
+  }
+
+  /**
+   * Tests partition pruning and replacing partitions of a partitioned table.
+   */
+  @Test
+  public void testPartitionedTable() throws SQLException {
+    List<User> india = new ArrayList<User>();
+    india.add(new User("Abishek", 29, "India"));
+    india.add(new User("CP", 15, "India"));
+    List<User> thailand = new ArrayList<User>();
+    thailand.add(new User("Kousik", 25, "Thailand"));
+    List<User> us = new ArrayList<User>();
+    us.add(new User("Karthik", 29, "US"));
+    us.add(new User("John", 40, "US"));
+    us.add(new User("Jane", 35, "US"));
+    List<User> userList = new ArrayList<User>();
+    userList.addAll(india);
+    userList.addAll(thailand);
+    userList.addAll(us);
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsTable("PLAIN_USERS", userList);
+    schema.addAsPartitionedTable("USERS", User.class, "Country", "Name");
+    schema.setPartition("USERS", "India", india);
+    schema.setPartition("USERS", "Thailand", thailand);
+    schema.setPartition("USERS", "US", us);
+    try {
+      schema.setPartition("USERS", "US", india);
+      fail("JavaBeans of another partition were accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    schema.addAsPartitionedTable("USERS_BY_AGE", User.class, "Age");
+    for (int age = 20; age < 30; age++) {
+      schema.setPartition("USERS_BY_AGE", age,
+          Collections.singletonList(new User("User" + age, age, "India")));
+    }
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String[] queries = {
+        "select \"Name\", \"Age\" from \"TESTDB\".\"%s\"",
+        "select \"Name\" from \"TESTDB\".\"%s\" where \"Country\" = 'US'",
+        "select \"Name\" from \"TESTDB\".\"%s\" "
+            + "where \"Country\" in ('India', 'Thailand') and \"Age\" > 20",
+        "select \"Name\" from \"TESTDB\".\"%s\" "
+            + "where \"Country\" = 'US' and \"Name\" = 'John'",
+        "select \"Country\", count(*) from \"TESTDB\".\"%s\" "
+            + "where \"Country\" <> 'India' group by \"Country\"",
+        "select count(*) from \"TESTDB\".\"%s\" where \"Country\" = 'Nowhere'",
+        "select \"Name\" from \"TESTDB\".\"%s\" order by \"Age\" limit 2" };
+    for (String query : queries) {
+      assertEquals(query,
+          getSortedRows(queryExec.execute(String.format(query, "PLAIN_USERS"))),
+          getSortedRows(queryExec.execute(String.format(query, "USERS"))));
+    }
+
+    JavaBeanQueryMetrics metrics = recordMetrics(queryExec,
+        "select \"Name\" from \"TESTDB\".\"USERS\" "
+            + "where \"Country\" = 'Thailand'");
+    assertEquals(1, metrics.getRowsReturned());
+    assertEquals(1, metrics.getRowsScanned());
+    // Each partition holds one user, so the rows scanned count partitions
+    metrics = recordMetrics(queryExec,
+        "select \"Name\" from \"TESTDB\".\"USERS_BY_AGE\" "
+            + "where \"Age\" > 22 and \"Age\" <= 25");
+    assertEquals(3, metrics.getRowsReturned());
+    assertEquals(3, metrics.getRowsScanned());
+
+    // A range on a date key keeps the partitions of the dates within it
+    JavaBeanPartitionedTable<Event> events =
+        new JavaBeanPartitionedTable<Event>(Event.class, "Time");
+    for (int day = 0; day < 10; day++) {
+      Date time = new Date(TimeUnit.DAYS.toMillis(day));
+      events.setPartition(time,
+          Collections.singletonList(new Event("Event" + day, time)));
+    }
+    int time = events.getAccessors().getFieldIndex("Time");
+    JavaBeanFilter filter = JavaBeanFilter.and(JavaBeanFilter.compare(
+        SqlKind.GREATER_THAN_OR_EQUAL, time, TimeUnit.DAYS.toMillis(2)),
+        JavaBeanFilter.compare(SqlKind.LESS_THAN, time,
+            TimeUnit.DAYS.toMillis(5)));
+    assertEquals(3, events.prune(filter).size());
+
+    // Replacing a partition leaves the others as they are
+    List<User> newThailand = new ArrayList<User>();
+    newThailand.add(new User("Somchai", 31, "Thailand"));
+    newThailand.add(new User("Malee", 22, "Thailand"));
+    schema.setPartition("USERS", "Thailand", newThailand);
+    assertEquals("[Malee, Somchai]", getSortedRows(queryExec.execute(
+        "select \"Name\" from \"TESTDB\".\"USERS\" "
+            + "where \"Country\" = 'Thailand'")).toString());
+    schema.removePartition("USERS", "India");
+    assertEquals("[5]", getSortedRows(queryExec.execute(
+        "select count(*) from \"TESTDB\".\"USERS\"")).toString());
+    queryExec.close();
+  }
+
+  /**
+   * Tests the statistics collected for a table and their selectivities.
+   */
+  @Test
+  public void testTableStatistics() throws SQLException {
+    List<User> userList = new ArrayList<User>();
+    for (int i = 0; i < 100; i++) {
+      userList.add(new User("User" + i, i < 90 ? i % 10 : 50 + i,
+          i % 4 == 0 ? null : i % 2 == 0 ? "India" : "US"));
+    }
+    JavaBeanAccessors accessors = JavaBeanAccessors.of(userList);
+    int name = accessors.getFieldIndex("Name");
+    int age = accessors.getFieldIndex("Age");
+    int country = accessors.getFieldIndex("Country");
+    JavaBeanStatistics statistics = JavaBeanStatistics.of(userList,
+        accessors, 0);
+    assertEquals(100.0, statistics.getRowCount(), 0);
+    assertEquals(100, statistics.getColumn(name).getDistinctCount());
+    assertEquals(2, statistics.getColumn(country).getDistinctCount());
+    assertEquals(25, statistics.getColumn(country).getNullCount());
+    assertEquals(0, statistics.getColumn(age).getMin());
+    assertEquals(149, statistics.getColumn(age).getMax());
+    BitSet nameKey = new BitSet();
+    nameKey.set(name);
+    assertTrue(statistics.isKey(nameKey));
+    BitSet countryKey = new BitSet();
+    countryKey.set(country);
+    assertFalse(statistics.isKey(countryKey));
+
+    // A plain table's list may change: its row count follows the list and
+    // no column is a key
+    List<User> growing = new ArrayList<User>(userList);
+    JavaBeanTable<User> table = new JavaBeanTable<User>(growing);
+    assertFalse(table.getStatistic().isKey(nameKey));
+    growing.add(new User("User0", 1, "India"));
+    assertEquals(101.0, table.getStatistic().getRowCount(), 0);
+
+    // Past the exact limit distinct values are estimated by a sketch
+    JavaBeanStatistics.DistinctCounter counter =
+        new JavaBeanStatistics.DistinctCounter();
+    for (int i = 0; i < 100000; i++) {
+      counter.add("User" + i);
+    }
+    assertFalse(counter.isExact());
+    assertEquals(100000, counter.count(), 5000);
+
+    JavaBeanFilter inIndia = JavaBeanFilter.compare(SqlKind.EQUALS, country,
+        "India");
+    assertEquals(0.375, statistics.selectivity(inIndia), 0.001);
+    assertEquals(0, statistics.selectivity(JavaBeanFilter.compare(
+        SqlKind.EQUALS, age, 500L)), 0);
+    assertTrue(statistics.selectivity(JavaBeanFilter.and(inIndia,
+        JavaBeanFilter.compare(SqlKind.EQUALS, name, "User2"))) < statistics
+        .selectivity(inIndia));
+
+    // Ages are skewed: a histogram knows that most are below 10
+    JavaBeanFilter young = JavaBeanFilter.compare(SqlKind.LESS_THAN, age, 10L);
+    assertTrue(statistics.selectivity(young) < 0.1);
+    JavaBeanStatistics histogram = JavaBeanStatistics.of(userList, accessors,
+        10);
+    assertEquals(11, histogram.getColumn(age).getHistogram().length);
+    assertTrue(histogram.selectivity(young) > 0.8);
+
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsSmartTable("USERS", userList, "Name");
+    schema.analyze("USERS", 10);
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    assertEquals("[User2]", getNames(queryExec.execute(
+        "select \"Name\" from \"TESTDB\".\"USERS\" "
+            + "where \"Country\" = 'India' and \"Name\" = 'User2'"))
+        .toString());
+    assertEquals("[90]", getSortedRows(queryExec.execute(
+        "select count(*) from \"TESTDB\".\"USERS\" where \"Age\" < 10"))
+        .toString());
+    queryExec.close();
+  }
+
+  /**
+   * Tests that zone maps skip blocks without changing results.
+   */
+  @Test
+  public void testZoneMaps() throws SQLException {
+    // Users are loaded in the order of their age
+    List<User> userList = new ArrayList<User>();
+    for (int i = 0; i < 1000; i++) {
+      userList.add(new User("User" + i, i / 10, i % 3 == 0 ? "India" : "US"));
+    }
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsTable("PLAIN_USERS", userList);
+    schema.addAsSmartTable("USERS", userList);
+    schema.addZoneMaps("USERS", 50);
+    schema.addAsSmartTable("USER_COLUMNS", userList);
+    schema.setStorageMode("USER_COLUMNS", JavaBeanStorageMode.COLUMNAR);
+    schema.addZoneMaps("USER_COLUMNS", 64);
+    // The first block's largest balance is one unit in the last place above
+    // the bound, which a double can't tell apart from it
+    List<Account> accountList = new ArrayList<Account>();
+    accountList.add(new Account("Abishek", 1, 0, 0, true,
+        "0.10000000000000000001", null));
+    accountList.add(new Account("Kousik", 2, 0, 0, true, "0.1", null));
+    schema.addAsSmartTable("ACCOUNTS", accountList);
+    schema.addZoneMaps("ACCOUNTS", 1);
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    assertEquals("[Abishek]", getNames(queryExec.execute(
+        "select \"Owner\" from \"TESTDB\".\"ACCOUNTS\" "
+            + "where \"Balance\" > 0.1")).toString());
+    String[] queries = {
+        "select \"Name\" from \"TESTDB\".\"%s\" "
+            + "where \"Age\" >= 20 and \"Age\" < 22",
+        "select \"Name\" from \"TESTDB\".\"%s\" "
+            + "where \"Age\" in (3, 97) and \"Country\" = 'India'",
+        "select \"Name\" from \"TESTDB\".\"%s\" where \"Name\" = 'User500'",
+        "select count(*) from \"TESTDB\".\"%s\" where \"Age\" > 1000" };
+    for (String query : queries) {
+      List<String> expected = getSortedRows(queryExec.execute(String.format(
+          query, "PLAIN_USERS")));
+      assertEquals(query, expected, getSortedRows(queryExec.execute(String
+          .format(query, "USERS"))));
+      assertEquals(query, expected, getSortedRows(queryExec.execute(String
+          .format(query, "USER_COLUMNS"))));
+    }
+
+    JavaBeanQueryMetrics metrics = recordMetrics(queryExec, String.format(
+        queries[0], "USERS"));
+    assertEquals(20, metrics.getRowsReturned());
+    // Ages 20 and 21 are rows 200 to 219, all in the fifth block
+    assertEquals(50, metrics.getRowsScanned());
+    queryExec.close();
+  }
+
+  /**
+   * Tests that Bloom filters skip blocks without changing results.
+   */
+  @Test
+  public void testBloomFilters() throws SQLException {
+    // Names are spread over the table, so zone maps can't skip on them
+    List<User> userList = new ArrayList<User>();
+    for (int i = 0; i < 1000; i++) {
+      userList.add(new User("User" + (i * 7919 % 1000), i / 10,
+          i % 3 == 0 ? "India" : "US"));
+    }
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsTable("PLAIN_USERS", userList);
+    schema.addAsSmartTable("USERS", userList);
+    schema.addZoneMaps("USERS", 50);
+    schema.addBloomFilters("USERS", 50, 0.001, "Name", "Country");
+    schema.addAsSmartTable("USER_COLUMNS", userList);
+    schema.setStorageMode("USER_COLUMNS", JavaBeanStorageMode.COLUMNAR);
+    schema.addBloomFilters("USER_COLUMNS", 64, 0.01, "Name");
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String[] queries = {
+        "select \"Age\" from \"TESTDB\".\"%s\" where \"Name\" = 'User500'",
+        "select \"Age\" from \"TESTDB\".\"%s\" "
+            + "where \"Name\" in ('User1', 'User2', 'User3')",
+        "select \"Age\" from \"TESTDB\".\"%s\" where \"Name\" = 'Nobody'",
+        "select \"Name\" from \"TESTDB\".\"%s\" "
+            + "where \"Age\" < 50 and \"Name\" = 'User999'",
+        "select count(*) from \"TESTDB\".\"%s\" where \"Country\" = 'India'" };
+    for (String query : queries) {
+      List<String> expected = getSortedRows(queryExec.execute(String.format(
+          query, "PLAIN_USERS")));
+      assertEquals(query, expected, getSortedRows(queryExec.execute(String
+          .format(query, "USERS"))));
+      assertEquals(query, expected, getSortedRows(queryExec.execute(String
+          .format(query, "USER_COLUMNS"))));
+    }
+
+    try {
+      schema.addBloomFilters("USERS", 50, 0.01, "Age");
+      fail("Bloom filters on a numeric column");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    JavaBeanQueryMetrics metrics = recordMetrics(queryExec, String.format(
+        queries[3], "USERS"));
+    assertEquals(1, metrics.getRowsReturned());
+    // The zone maps keep the first ten blocks, the Bloom filters one
+    assertEquals(50, metrics.getRowsScanned());
+    assertEquals(0, recordMetrics(queryExec, String.format(queries[2],
+        "USERS")).getRowsScanned());
+    queryExec.close();
+  }
+
+  /**
+   * Tests filters and aggregates on dictionary-encoded String columns.
+   */
+  @Test
+  public void testDictionaryEncoding() throws SQLException {
+    String[] countries = { "India", "US", "UK", null, "Brazil" };
+    List<User> userList = new ArrayList<User>();
+    for (int i = 0; i < 1000; i++) {
+      userList.add(new User("User" + i, i % 7, countries[i % 5]));
+    }
+    JavaBeanAccessors accessors = JavaBeanAccessors.of(userList);
+    JavaBeanColumnStore columnStore = JavaBeanColumnStore.of(userList,
+        accessors);
+    JavaBeanColumn country = columnStore.getColumn(accessors
+        .getFieldIndex("Country"));
+    assertEquals(4, country.getDictionarySize());
+    assertSame(country.get(0), country.get(5));
+    // A String column of distinct values is not worth encoding
+    assertEquals(-1, columnStore.getColumn(accessors.getFieldIndex("Name"))
+        .getDictionarySize());
+
+    JavaBeanSchema schema = new JavaBeanSchema("TESTDB");
+    schema.addAsTable("PLAIN_USERS", userList);
+    schema.addAsSmartTable("USERS", userList);
+    schema.setStorageMode("USERS", JavaBeanStorageMode.COLUMNAR);
+
+    JdbcQueryExecutor queryExec = new JdbcQueryExecutor(schema);
+    String[] queries = {
+        "select \"Name\" from \"TESTDB\".\"%s\" where \"Country\" = 'UK'",
+        "select \"Name\" from \"TESTDB\".\"%s\" "
+            + "where \"Country\" in ('US', 'Brazil', 'France')",
+        "select \"Name\" from \"TESTDB\".\"%s\" "
+            + "where \"Country\" > 'Chile' and \"Country\" <= 'UK'",
+        "select \"Name\" from \"TESTDB\".\"%s\" where \"Country\" like 'U%%'",
+        "select \"Country\", count(*) from \"TESTDB\".\"%s\" "
+            + "group by \"Country\"",
+        "select \"Country\", \"Age\", count(*) from \"TESTDB\".\"%s\" "
+            + "group by \"Country\", \"Age\"" };
+    for (String query : queries) {
+      List<String> expected = getSortedRows(queryExec.execute(String.format(
+          query, "PLAIN_USERS")));
+      assertFalse(query, expected.isEmpty());
+      assertEquals(query, expected, getSortedRows(queryExec.execute(String
+          .format(query, "USERS"))));
+    }
+    queryExec.close();
+  }
+
+  /**
+   * @return The four users most tests query: two in India, one in Thailand and
+   *         one in the US
+   */
+  private static List<User> newUserList() {
+    List<User> userList = new ArrayList<User>();
+    userList.add(new User("Abishek", 29, "India"));
+    userList.add(new User("Kousik", 25, "Thailand"));
+    userList.add(new User("CP", 15, "India"));
+    userList.add(new User("Karthik", 29, "US"));
+    return userList;
+  }
+
+  private List<String> getNames(ResultSet result) {
+    List<String> names = new ArrayList<String>();
+    try {
+      while (result.next()) {
+        names.add(result.getString(1));
+      }
+    } catch (SQLException e) {
+      fail("Failed while iterating resultset");
+    }
+    return names;
+  }
+
+  /**
+   * @return The values of the first column, in the order they are returned
+   */
+  private List<Object> getValues(ResultSet result) throws SQLException {
+    List<Object> values = new ArrayList<Object>();
+    while (result.next()) {
+      values.add(result.getObject(1));
+    }
+    return values;
+  }
+
+  /**
+   * Runs a query to its last row with a metrics listener registered.
+   *
+   * @return The metrics of the query
+   */
+  private JavaBeanQueryMetrics recordMetrics(JdbcQueryExecutor queryExec,
+      String sql, Object... parameters) throws SQLException {
+    final List<JavaBeanQueryMetrics> completed =
+        new ArrayList<JavaBeanQueryMetrics>();
+    JavaBeanMetricsListener listener = new JavaBeanMetricsListener() {
+      public void queryCompleted(JavaBeanQueryMetrics metrics) {
+        completed.add(metrics);
+      }
+    };
+    JavaBeanMetrics.addListener(listener);
+    try {
+      ResultSet result = queryExec.execute(sql, parameters);
+      getRows(result);
+      result.close();
+    } finally {
+      JavaBeanMetrics.removeListener(listener);
+    }
+    assertEquals(1, completed.size());
+    return completed.get(0);
+  }
+
+  /**
+   * @return The rows in the order they are returned, each with its values
+   *         separated by commas
+   */
+  private List<String> getRows(ResultSet result) throws SQLException {
+    List<String> rows = new ArrayList<String>();
+    int columnCount = result.getMetaData().getColumnCount();
+    while (result.next()) {
+      StringBuilder row = new StringBuilder();
+      for (int i = 1; i <= columnCount; i++) {
+        row.append(result.getObject(i)).append(i < columnCount ? "," : "");
+      }
+      rows.add(row.toString());
+    }
+    return rows;
+  }
+
+  private List<String> getSortedRows(ResultSet result) throws SQLException {
+    List<String> rows = getRows(result);
+    Collections.sort(rows);
+    return rows;
+  }
+
 }